@@ -6,6 +6,8 @@ import com.wonderboy.printer.model.PrintJobStatus;
 import com.wonderboy.printer.model.PrintSettings;
 import com.wonderboy.printer.printer.VirtualPrinter;
 import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import com.wonderboy.printer.service.RenderCache;
+import com.wonderboy.printer.service.RetentionManager;
 import com.wonderboy.printer.service.SpoolerService;
 import com.wonderboy.printer.service.SpoolerWorker;
 import org.slf4j.Logger;
@@ -15,29 +17,40 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
 
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
     private static final Path SPOOL_DIR = Paths.get("spool");
     private static final Path OUTPUT_DIR = Paths.get("output");
+    private static final Path CACHE_DIR = Paths.get("cache");
+    // Priority of the sample jobs: -Dprinter.priority=N (0 by default; higher goes first)
+    private static final String PRIORITY_PROPERTY = "printer.priority";
 
     public static void main(String[] args) throws IOException {
         logger.info("--- Virtual Printer Simulation Starting ---");
 
         // 1. Initialize all core components
-        SpoolerService spooler = new SpoolerService(SPOOL_DIR);
+        SpoolerService spooler = new SpoolerService(SPOOL_DIR, OUTPUT_DIR);
         SimpleTextRenderer renderer = new SimpleTextRenderer();
         VirtualPrinter printer = new VirtualPrinter(OUTPUT_DIR);
-        SpoolerWorker worker = new SpoolerWorker(spooler, renderer, printer);
+        // Render threads: -Dprinter.renderThreads=N (defaults to the number of CPU cores)
+        SpoolerWorker worker = new SpoolerWorker(spooler, renderer, printer, SpoolerWorker.configuredRenderThreads());
+        // Text output: -Dprinter.textOutput=vector|raster (vector text by default)
+        boolean vectorText = SpoolerWorker.configuredVectorTextOutput();
+        worker.setVectorTextOutput(vectorText);
+        logger.info("Rendering with {} thread(s), text as {}.", worker.getRenderThreads(), vectorText ? "vector text" : "print-resolution bitmaps");
+        // Reprints of unchanged documents are copied from the cache (-Dprinter.renderCache.maxBytes, 0 turns it off)
+        worker.setRenderCache(RenderCache.configured(CACHE_DIR));
 
         // 2. Display initial state
         logger.info("--- Initial State of Spooler ---");
         printJobSummary(spooler);
 
         // 3. Setup sample jobs if none are queued
-        boolean hasQueuedJobs = spooler.listJobs().stream()
-                .anyMatch(j -> j.getStatus() == PrintJobStatus.QUEUED);
+        boolean hasQueuedJobs = !spooler.listJobs(EnumSet.of(PrintJobStatus.QUEUED)).isEmpty();
         if (!hasQueuedJobs) {
             setupSuccessfulJob(spooler);
             setupFailingJob(spooler); // <-- Add the failing job
@@ -47,13 +60,22 @@ public class Main {
 
         // 4. Run the worker to process ALL available jobs
         logger.info("\n--- Processing All Queued Jobs... ---");
-        while (worker.processOneStep()) {
-            // The loop continues as long as the worker finds and processes a job.
+        try {
+            // Same signalled loop as the UI's worker, returning once the queue is drained
+            worker.runUntilIdle(Duration.ZERO);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while processing jobs.");
         }
+        worker.shutdown();
+        printer.shutdown();
+        // Drop finished jobs beyond the age limit and disk budget (-Dprinter.retention.maxAge / maxBytes)
+        RetentionManager.configured(spooler, printer).collect();
 
         // 5. Display final state
         logger.info("\n--- Final State of Spooler ---");
         printJobSummary(spooler);
+        spooler.close();
         logger.info("--- Virtual Printer Simulation Finished ---");
         logger.info("Check the '{}' directory for outputs.", OUTPUT_DIR.toAbsolutePath());
     }
@@ -65,6 +87,7 @@ public class Main {
         Path sourceFile = SPOOL_DIR.resolve("successful_job.txt");
         Files.writeString(sourceFile, "This is a test document that should print successfully.");
         PrintJob newJob = new PrintJob("Successful Doc", "system", PrintSettings.A4_DEFAULT_300_DPI(), List.of(sourceFile.toAbsolutePath().toString()));
+        newJob.setPriority(configuredPriority());
         spooler.submit(newJob);
     }
 
@@ -74,19 +97,39 @@ public class Main {
         // This file does not exist, which will cause an exception during processing.
         Path nonExistentFile = SPOOL_DIR.resolve("non_existent_file.txt");
         PrintJob newJob = new PrintJob("Failing Doc", "system", PrintSettings.A4_DEFAULT_300_DPI(), List.of(nonExistentFile.toAbsolutePath().toString()));
+        newJob.setPriority(configuredPriority());
         spooler.submit(newJob);
     }
 
+    /** Reads the priority of new jobs from the {@value #PRIORITY_PROPERTY} system property. */
+    private static int configuredPriority() {
+        String value = System.getProperty(PRIORITY_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid {}={}, submitting at priority 0.", PRIORITY_PROPERTY, value);
+            return 0;
+        }
+    }
+
     private static void printJobSummary(SpoolerService spooler) {
-        List<PrintJob> jobs = spooler.listJobs();
-        if (jobs.isEmpty()) {
+        // Finished jobs left unread at startup are counted, not read, just to be listed
+        List<PrintJob> jobs = spooler.listLoadedJobs();
+        int total = spooler.jobCount();
+        if (total == 0) {
             logger.info("Job queue is empty.");
             return;
         }
-        logger.info("Current Jobs ({} total):", jobs.size());
+        logger.info("Current Jobs ({} total):", total);
         for (PrintJob job : jobs) {
-            logger.info("  - Job ID: {}, Status: {}, Document: {}, Errors: {}",
-                    job.getJobId().substring(0, 8), job.getStatus(), job.getDocumentName(), job.getErrorLog().size());
+            logger.info("  - Job ID: {}, Status: {}, Priority: {}, Document: {}, Errors: {}",
+                    job.getJobId().substring(0, 8), job.getStatus(), job.getPriority(), job.getDocumentName(), job.getErrorLog().size());
+        }
+        if (jobs.size() < total) {
+            logger.info("  ... and {} earlier finished job(s) not read from the spool.", total - jobs.size());
         }
     }
 }
\ No newline at end of file
@@ -4,27 +4,34 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents the metadata for a single print job.
  * This class is designed to be serialized to JSON for persistence in the spooler.
+ * <p>
+ * A job is shared by the spooler, its workers and the UI, so its fields are safe to read and
+ * write from any thread. Status changes that depend on the current status should use
+ * {@link #compareAndSetStatus}.
  */
 public class PrintJob {
 
-    private String jobId;  // 唯一标识符
-    private String documentName;  // 文档名
-    private String user;  // 提交用户
-    private PrintSettings settings;  // 可配置参数
-    private PrintJobStatus status;  // 生命周期状态
-    private List<String> sourceFilePaths; // 源文件的绝对路径
-    private LocalDateTime submitTime;  // 提交时间
-    private List<String> errorLog = new java.util.ArrayList<>();  // 错误日志
+    private volatile String jobId;  // 唯一标识符
+    private volatile String documentName;  // 文档名
+    private volatile String user;  // 提交用户
+    private volatile PrintSettings settings;  // 可配置参数
+    private volatile PrintJobStatus status;  // 生命周期状态，写入由 statusLock 保护
+    private volatile List<String> sourceFilePaths; // 源文件的绝对路径
+    private volatile LocalDateTime submitTime;  // 提交时间
+    private volatile List<String> errorLog = new CopyOnWriteArrayList<>();  // 错误日志
+    private volatile boolean previewComplete;  // 预览页是否已全部生成
+    private volatile int priority;  // 优先级，越大越先处理
+    private volatile long estimatedPages;  // 提交时估算的页数，0 表示尚未估算
+    private final Object statusLock = new Object();
 
     // Default constructor for Jackson deserialization
     public PrintJob() {
-        this.errorLog = new ArrayList<>();
     }
 
     // A convenient constructor for creating a new job
@@ -36,7 +43,6 @@ public class PrintJob {
         this.sourceFilePaths = sourceFilePaths;
         this.status = PrintJobStatus.QUEUED;
         this.submitTime = LocalDateTime.now();
-        this.errorLog = new ArrayList<>();
     }
 
     // Getters and Setters for all fields (required for Jackson)
@@ -78,7 +84,27 @@ public class PrintJob {
     }
 
     public void setStatus(PrintJobStatus status) {
-        this.status = status;
+        synchronized (statusLock) {
+            this.status = status;
+        }
+    }
+
+    /**
+     * Sets the status only if it is still the expected one. Of several threads moving a job
+     * out of the same status, exactly one succeeds.
+     *
+     * @param expected The status the job must be in.
+     * @param next The new status.
+     * @return true if the status was changed.
+     */
+    public boolean compareAndSetStatus(PrintJobStatus expected, PrintJobStatus next) {
+        synchronized (statusLock) {
+            if (status != expected) {
+                return false;
+            }
+            status = next;
+            return true;
+        }
     }
 
     public List<String> getSourceFilePaths() {
@@ -97,12 +123,47 @@ public class PrintJob {
         this.submitTime = submitTime;
     }
 
-    public java.util.List<String> getErrorLog() {
+    public List<String> getErrorLog() {
         return errorLog;
     }
 
-    public void setErrorLog(java.util.List<String> errorLog) {
-        this.errorLog = errorLog;
+    public void setErrorLog(List<String> errorLog) {
+        this.errorLog = errorLog == null ? new CopyOnWriteArrayList<>() : new CopyOnWriteArrayList<>(errorLog);
+    }
+
+    /**
+     * @return true once every preview page of the job has been rendered and written. A PREVIEWING
+     *         job that is not complete was interrupted and its preview rendering is resumed.
+     */
+    public boolean isPreviewComplete() {
+        return previewComplete;
+    }
+
+    public void setPreviewComplete(boolean previewComplete) {
+        this.previewComplete = previewComplete;
+    }
+
+    /**
+     * @return The job's priority; jobs with a higher priority are worked on first. 0 by default.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return The number of pages the job was estimated to have when it was submitted, used to
+     *         share the workers fairly before the job is rendered; 0 if it was not estimated.
+     */
+    public long getEstimatedPages() {
+        return estimatedPages;
+    }
+
+    public void setEstimatedPages(long estimatedPages) {
+        this.estimatedPages = estimatedPages;
     }
 
     /**
@@ -111,9 +172,6 @@ public class PrintJob {
      */
     @com.fasterxml.jackson.annotation.JsonIgnore // We don't want this helper method in the JSON
     public void appendErrorLog(String message) {
-        if (this.errorLog == null) {
-            this.errorLog = new java.util.ArrayList<>();
-        }
         this.errorLog.add(java.time.LocalDateTime.now() + ": " + message);
     }
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ package com.wonderboy.printer.model;
  * @param paper   纸张大小
  * @param dpi     分辨率
  * @param isColor 是否彩打
+ * @param isDuplex 是否双面
+ * @param scale   内容缩放比例（1.0 为原始大小），渲染时作为变换应用
+ * @param copies  份数
  */
 public record PrintSettings(
         PaperSize paper,
@@ -14,6 +17,18 @@ public record PrintSettings(
         double scale,
         int copies
 ) {
+    private static final double INCH_TO_MM = 25.4;
+
+    public PrintSettings {
+        // Jobs saved before scale and copies were honoured may carry 0 for either; treat that as "not set".
+        if (!(scale > 0) || Double.isInfinite(scale)) {
+            scale = 1.0;
+        }
+        if (copies < 1) {
+            copies = 1;
+        }
+    }
+
     /**
      * 默认设置
      * @return A default PrintSettings object.
@@ -21,4 +36,31 @@ public record PrintSettings(
     public static PrintSettings A4_DEFAULT_300_DPI() {
         return new PrintSettings(PaperSize.A4, 300, true, false, 1.0, 1);
     }
+
+    /**
+     * Copies are assembled from the same rendered pages, so settings that differ only in the
+     * number of copies render identically.
+     *
+     * @param copies The number of copies.
+     * @return These settings with a different number of copies.
+     */
+    public PrintSettings withCopies(int copies) {
+        return new PrintSettings(paper, dpi, isColor, isDuplex, scale, copies);
+    }
+
+    /**
+     * 页面宽度（像素）
+     * @return The width of the paper at this resolution.
+     */
+    public int pageWidthInPixels() {
+        return (int) Math.round(paper.getWidthInMm() / INCH_TO_MM * dpi);
+    }
+
+    /**
+     * 页面高度（像素）
+     * @return The height of the paper at this resolution.
+     */
+    public int pageHeightInPixels() {
+        return (int) Math.round(paper.getHeightInMm() / INCH_TO_MM * dpi);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A page raster compressed into the exact form a PDF image stream stores it in: packed rows,
+ * Flate (zlib) compressed, or for 1-bit pages CCITT Group 4 encoded. Pages are encoded on the
+ * render threads; adding one to a {@link PdfAssembler} then only copies the compressed bytes,
+ * without decoding or re-encoding.
+ * <p>
+ * Encoded pages can also be serialized with {@link #toBytes()}, e.g. for the render cache.
+ */
+public final class EncodedPage {
+
+    private static final int MAGIC = 0x50474532; // "PGE2"
+
+    /**
+     * How the raster is compressed, named after the PDF filter that decodes it.
+     */
+    public enum Compression {
+        /** Packed rows, zlib compressed; 1-bit rows have 1 = white. */
+        FLATE,
+        /** CCITT Group 4 (K = -1), for 1-bit pages only; black is coded as 1 before encoding. */
+        CCITT_G4
+    }
+
+    private final int width;
+    private final int height;
+    private final int bitsPerComponent;
+    private final int colorComponents;
+    private final Compression compression;
+    private final byte[] data;
+
+    EncodedPage(int width, int height, int bitsPerComponent, int colorComponents, Compression compression, byte[] data) {
+        this.width = width;
+        this.height = height;
+        this.bitsPerComponent = bitsPerComponent;
+        this.colorComponents = colorComponents;
+        this.compression = compression;
+        this.data = data;
+    }
+
+    /**
+     * Compresses a rendered page. ARGB pages are stored as RGB: rendered pages are opaque.
+     *
+     * @param page The page image.
+     * @return The encoded page.
+     */
+    public static EncodedPage encode(BufferedImage page) {
+        BufferedImage image = RowPacker.supports(page.getType()) ? page : toRgb(page);
+        EncodedPageWriter writer = new EncodedPageWriter();
+        try {
+            writer.beginPage(image.getWidth(), image.getHeight(), image.getType());
+            writer.acceptBand(image, 0);
+            writer.endPage();
+        } catch (IOException e) {
+            // Only writes to memory.
+            throw new IllegalStateException(e);
+        }
+        return writer.getPage();
+    }
+
+    private static BufferedImage toRgb(BufferedImage page) {
+        BufferedImage rgb = new BufferedImage(page.getWidth(), page.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, rgb.getWidth(), rgb.getHeight());
+            g2d.drawImage(page, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return rgb;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBitsPerComponent() {
+        return bitsPerComponent;
+    }
+
+    /**
+     * @return 1 for gray, 3 for RGB.
+     */
+    public int getColorComponents() {
+        return colorComponents;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return The size of the compressed raster in bytes.
+     */
+    public int getEncodedSize() {
+        return data.length;
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    /**
+     * @return The page in a self-describing binary form, readable by {@link #fromBytes}.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeByte(bitsPerComponent);
+            out.writeByte(colorComponents);
+            out.writeByte(compression.ordinal());
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes The output of {@link #toBytes()}.
+     * @return The page.
+     * @throws IOException if the bytes are not an encoded page.
+     */
+    public static EncodedPage fromBytes(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an encoded page.");
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int bitsPerComponent = in.readUnsignedByte();
+            int colorComponents = in.readUnsignedByte();
+            int compression = in.readUnsignedByte();
+            int length = in.readInt();
+            if (width <= 0 || height <= 0 || length < 0 || length != in.available()
+                    || (bitsPerComponent != 1 && bitsPerComponent != 8) || (colorComponents != 1 && colorComponents != 3)
+                    || compression >= Compression.values().length
+                    || (compression == Compression.CCITT_G4.ordinal() && bitsPerComponent != 1)) {
+                throw new IOException("Corrupt encoded page header.");
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new EncodedPage(width, height, bitsPerComponent, colorComponents,
+                    Compression.values()[compression], data);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.wonderboy.printer.printer;
+
+import com.wonderboy.printer.renderer.PageBandConsumer;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.filter.FilterFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses a page band by band into an {@link EncodedPage}, so a banded page goes into the
+ * PDF without the full-resolution page ever existing, neither in memory nor as a file.
+ * <p>
+ * 1-bit pages are encoded with CCITT Group 4, which compresses black and white text several
+ * times better than Flate. G4 codes each row against the one above, so the packed rows of a
+ * 1-bit page are collected first (1/32 of the same page in ARGB) and encoded when the page
+ * ends. A page that G4 compresses poorly, such as a dithered photo, is also compressed with
+ * Flate, and the smaller of the two is kept.
+ * <p>
+ * Print pages are only encoded here when they are rendered: for non-text jobs, and for text
+ * jobs printed with {@code -Dprinter.textOutput=raster}. Text written as vector text (the
+ * default) embeds no page images, so neither G4 nor Flate applies to it.
+ */
+public final class EncodedPageWriter implements PageBandConsumer {
+
+    private int width;
+    private int height;
+    private RowPacker packer;
+    private byte[] row;
+    private Deflater deflater;
+    private ByteArrayOutputStream compressed;
+    private OutputStream out;
+    private int rowsWritten;
+    private EncodedPage page;
+
+    @Override
+    public void beginPage(int pageWidth, int pageHeight, int imageType) {
+        this.width = pageWidth;
+        this.height = pageHeight;
+        this.packer = new RowPacker(pageWidth, imageType, false);
+        this.row = new byte[packer.rowBytes()];
+        if (isBilevel()) {
+            this.deflater = null;
+            this.compressed = new ByteArrayOutputStream(packer.rowBytes() * pageHeight);
+            this.out = compressed;
+        } else {
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            this.compressed = new ByteArrayOutputStream();
+            this.out = new DeflaterOutputStream(compressed, deflater, 64 * 1024);
+        }
+        this.rowsWritten = 0;
+        this.page = null;
+    }
+
+    @Override
+    public void acceptBand(BufferedImage band, int y) throws IOException {
+        if (rowsWritten + band.getHeight() > height) {
+            throw new IllegalStateException("More rows written than the page has.");
+        }
+        for (int i = 0; i < band.getHeight(); i++) {
+            packer.pack(band, i, row, 0);
+            out.write(row);
+        }
+        rowsWritten += band.getHeight();
+    }
+
+    @Override
+    public void endPage() throws IOException {
+        if (isBilevel()) {
+            if (rowsWritten != height) {
+                throw new IOException("Page ended after " + rowsWritten + " of " + height + " rows.");
+            }
+            page = encodeBilevel(compressed.toByteArray());
+        } else {
+            try {
+                ((DeflaterOutputStream) out).finish();
+            } finally {
+                deflater.end();
+            }
+            if (rowsWritten != height) {
+                throw new IOException("Page ended after " + rowsWritten + " of " + height + " rows.");
+            }
+            page = new EncodedPage(width, height, packer.bitsPerComponent(), packer.colorComponents(),
+                    EncodedPage.Compression.FLATE, compressed.toByteArray());
+        }
+        compressed = null;
+        out = null;
+    }
+
+    /**
+     * @return The encoded page once {@link #endPage()} has returned, otherwise null.
+     */
+    public EncodedPage getPage() {
+        return page;
+    }
+
+    private boolean isBilevel() {
+        return packer.bitsPerComponent() == 1;
+    }
+
+    private EncodedPage encodeBilevel(byte[] packedRows) throws IOException {
+        // G4 编码器约定 1 = 黑，与打包后的行（1 = 白）相反
+        byte[] blackIsOne = new byte[packedRows.length];
+        for (int i = 0; i < packedRows.length; i++) {
+            blackIsOne[i] = (byte) ~packedRows[i];
+        }
+        COSDictionary parameters = new COSDictionary();
+        parameters.setInt(COSName.COLUMNS, width);
+        parameters.setInt(COSName.ROWS, height);
+        ByteArrayOutputStream g4 = new ByteArrayOutputStream(packedRows.length / 8);
+        FilterFactory.INSTANCE.getFilter(COSName.CCITTFAX_DECODE)
+                .encode(new ByteArrayInputStream(blackIsOne), g4, parameters, 0);
+        EncodedPage g4Page = new EncodedPage(width, height, 1, 1, EncodedPage.Compression.CCITT_G4, g4.toByteArray());
+        if (g4.size() < packedRows.length / 4) {
+            return g4Page; // the usual case for text; no need to try Flate
+        }
+
+        ByteArrayOutputStream flate = new ByteArrayOutputStream();
+        Deflater fallback = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(flate, fallback, 64 * 1024)) {
+            deflated.write(packedRows);
+        } finally {
+            fallback.end();
+        }
+        return flate.size() < g4.size()
+                ? new EncodedPage(width, height, 1, 1, EncodedPage.Compression.FLATE, flate.toByteArray())
+                : g4Page;
+    }
+}
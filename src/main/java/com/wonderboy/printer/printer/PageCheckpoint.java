@@ -0,0 +1,156 @@
+package com.wonderboy.printer.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable record of the page files of a job that are complete on disk, so that rendering
+ * interrupted by a crash can continue after the last intact page instead of starting over.
+ * <p>
+ * The checkpoint is an append-only text file next to the pages with one line per page,
+ * {@code <page number> <file name> <size> <CRC-32C>}, in the order the writes complete. A page
+ * is recorded only after its file has been forced to disk, and the line is forced before the
+ * write counts as done. When resuming, every recorded page is checked against its size and
+ * checksum, so a page file that is missing, truncated or damaged is rendered again.
+ */
+final class PageCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageCheckpoint.class);
+
+    static final String FILE_NAME = "checkpoint";
+
+    private final Path file;
+
+    /**
+     * @param pagesDirectory The directory holding the pages.
+     */
+    PageCheckpoint(Path pagesDirectory) {
+        this.file = pagesDirectory.resolve(FILE_NAME);
+    }
+
+    /**
+     * Makes a page file durable and records it.
+     *
+     * @param pageNumber The 1-based page number.
+     * @param pageFile   The complete page file.
+     * @throws IOException if the page or the checkpoint cannot be written.
+     */
+    synchronized void record(int pageNumber, Path pageFile) throws IOException {
+        long size;
+        long checksum;
+        try (FileChannel channel = FileChannel.open(pageFile, StandardOpenOption.READ)) {
+            channel.force(true);
+            size = channel.size();
+            checksum = checksum(channel);
+        }
+        String line = pageNumber + " " + pageFile.getFileName() + " " + size + " " + Long.toHexString(checksum) + "\n";
+        try (FileChannel journal = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            journal.force(false);
+        }
+    }
+
+    /**
+     * Counts the pages, from page 1 on, that are recorded and still intact, and drops the
+     * records of the pages after them.
+     *
+     * @param pageFile The file each page number is expected in.
+     * @return The number of leading pages that need not be rendered again.
+     * @throws IOException if the checkpoint cannot be read or rewritten.
+     */
+    synchronized int intactPages(IntFunction<Path> pageFile) throws IOException {
+        Map<Integer, String[]> records = new HashMap<>();
+        try {
+            // ISO-8859-1 decodes anything, so a torn last line cannot make the file unreadable
+            for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1)) {
+                String[] fields = line.split(" ");
+                Integer pageNumber = fields.length == 4 ? parseNumber(fields[0]) : null;
+                if (pageNumber != null) {
+                    records.put(pageNumber, fields); // a later record replaces an earlier one
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+
+        StringBuilder intactRecords = new StringBuilder();
+        int intact = 0;
+        for (String[] record = records.get(1); record != null; record = records.get(intact + 1)) {
+            Path expected = pageFile.apply(intact + 1);
+            if (!expected.getFileName().toString().equals(record[1]) || !matches(expected, record)) {
+                logger.warn("Page file {} is missing or damaged and will be rendered again.", expected);
+                break;
+            }
+            intactRecords.append(String.join(" ", record)).append('\n');
+            intact++;
+        }
+
+        Path rewritten = file.resolveSibling(FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(rewritten, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(intactRecords.toString().getBytes(StandardCharsets.US_ASCII));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(rewritten, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return intact;
+    }
+
+    /**
+     * Forgets every recorded page.
+     *
+     * @throws IOException if the checkpoint cannot be deleted.
+     */
+    synchronized void reset() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static boolean matches(Path pageFile, String[] record) throws IOException {
+        try (FileChannel channel = FileChannel.open(pageFile, StandardOpenOption.READ)) {
+            Integer size = parseNumber(record[2]);
+            return size != null && channel.size() == size && Long.toHexString(checksum(channel)).equals(record[3]);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static long checksum(FileChannel channel) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        channel.position(0);
+        while (channel.read(buffer) > 0) {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+        }
+        return crc.getValue();
+    }
+
+    private static Integer parseNumber(String field) {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
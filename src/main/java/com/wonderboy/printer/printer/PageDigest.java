@@ -0,0 +1,71 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 fingerprints of page content, used to store identical pages (blank pages, repeated
+ * separator pages) once. Pages with equal digests are treated as identical, so the digest
+ * covers everything that ends up in the output: size, pixel format and every pixel.
+ */
+final class PageDigest {
+
+    private PageDigest() {
+    }
+
+    /**
+     * @param image A page image.
+     * @return The digest of the page's size, type and pixels.
+     */
+    static String of(BufferedImage image) {
+        MessageDigest digest = sha256();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        digest.update(ByteBuffer.allocate(12).putInt(width).putInt(height).putInt(image.getType()).array());
+        if (RowPacker.supports(image.getType())) {
+            RowPacker packer = new RowPacker(width, image.getType(), true);
+            byte[] row = new byte[packer.rowBytes()];
+            for (int y = 0; y < height; y++) {
+                packer.pack(image, y, row, 0);
+                digest.update(row);
+            }
+        } else {
+            int[] pixels = new int[width];
+            ByteBuffer row = ByteBuffer.allocate(width * 4);
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+                row.clear();
+                row.asIntBuffer().put(pixels);
+                digest.update(row.array());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Encoding is deterministic, so identical rasters give identical encoded pages, and hashing
+     * the compressed bytes is much cheaper than hashing the pixels.
+     *
+     * @param page An encoded page.
+     * @return The digest of the page's format and compressed data.
+     */
+    static String of(EncodedPage page) {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(16).putInt(page.getWidth()).putInt(page.getHeight())
+                .put((byte) page.getBitsPerComponent()).put((byte) page.getColorComponents())
+                .putShort((short) page.getCompression().ordinal()).array());
+        digest.update(page.data());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.wonderboy.printer.printer;
+
+import com.wonderboy.printer.model.PrintJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers preview pages to any number of subscribers without ever making the publisher wait.
+ * <p>
+ * Each subscriber has its own bounded queue and its own dispatch thread, and receives pages in
+ * the order they were published. A subscriber that falls behind only affects itself: once its
+ * queue is full, new pages are handled according to its {@link OverflowPolicy}, and the pages
+ * it missed are counted. Pages that were skipped can still be read from the printer's preview
+ * files.
+ */
+public final class PageEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageEventBus.class);
+
+    /** Queue length of a subscription made with {@link #subscribe(String, PagePrintListener)}. */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * What happens to a page published while a subscriber's queue is full.
+     */
+    public enum OverflowPolicy {
+        /** The new page is dropped; the subscriber sees the pages that were already queued. */
+        DROP_NEWEST,
+        /** The oldest queued page is dropped to make room for the new one. */
+        DROP_OLDEST,
+        /**
+         * The queued pages of the same job are replaced by the new one, so a subscriber that
+         * only shows the latest page skips straight to it; pages of other jobs stay queued.
+         */
+        COALESCE
+    }
+
+    private record PageEvent(PrintJob job, BufferedImage image, int pageNumber) {
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes with a queue of {@value #DEFAULT_CAPACITY} pages that keeps the latest page of each job.
+     *
+     * @see #subscribe(String, PagePrintListener, int, OverflowPolicy)
+     */
+    public Subscription subscribe(String name, PagePrintListener listener) {
+        return subscribe(name, listener, DEFAULT_CAPACITY, OverflowPolicy.COALESCE);
+    }
+
+    /**
+     * Adds a subscriber. The listener is called on a dispatch thread of its own, one page at a
+     * time and in publishing order; a page image must not be modified by the listener.
+     *
+     * @param name     A name for the subscriber, used for its thread and in logs.
+     * @param listener The listener.
+     * @param capacity The number of pages that may wait for the listener.
+     * @param policy   What to do with pages published while the queue is full.
+     * @return The subscription; close it to unsubscribe.
+     */
+    public Subscription subscribe(String name, PagePrintListener listener, int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        }
+        Subscription subscription = new Subscription(name, listener, capacity, policy);
+        subscriptions.add(subscription);
+        subscription.dispatcher.start();
+        return subscription;
+    }
+
+    /**
+     * Queues a page for every subscriber. Never blocks on a subscriber.
+     *
+     * @param job        The job the page belongs to.
+     * @param image      The page; it must not be modified afterwards.
+     * @param pageNumber The 1-based page number.
+     */
+    public void publish(PrintJob job, BufferedImage image, int pageNumber) {
+        PageEvent event = new PageEvent(job, image, pageNumber);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Waits until every page published so far has been delivered or dropped.
+     *
+     * @param timeout How long to wait at most.
+     * @return true if all subscribers are idle; false on timeout or interruption.
+     */
+    public boolean flush(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.awaitIdle(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the queued pages, waiting a few seconds at most, and stops all dispatch threads.
+     */
+    public void shutdown() {
+        if (!flush(Duration.ofSeconds(5))) {
+            logger.warn("Page event subscribers did not catch up within 5 seconds; dropping their queued pages.");
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * A subscriber's queue and dispatch thread.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final String name;
+        private final PagePrintListener listener;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final Deque<PageEvent> queue;
+        private final Thread dispatcher;
+        // 以下字段由 this 保护
+        private boolean delivering;
+        private boolean closed;
+        private long delivered;
+        private long dropped;
+
+        private Subscription(String name, PagePrintListener listener, int capacity, OverflowPolicy policy) {
+            this.name = name;
+            this.listener = listener;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.queue = new ArrayDeque<>(capacity);
+            this.dispatcher = new Thread(this::dispatch, "page-events-" + name);
+            this.dispatcher.setDaemon(true);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The number of pages handed to the listener.
+         */
+        public synchronized long getDeliveredCount() {
+            return delivered;
+        }
+
+        /**
+         * @return The number of pages this subscriber missed because its queue was full.
+         */
+        public synchronized long getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         * Unsubscribes. Queued pages are discarded; a page being delivered is finished.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                dropped += queue.size();
+                queue.clear();
+                notifyAll();
+            }
+            subscriptions.remove(this);
+        }
+
+        private synchronized void offer(PageEvent event) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DROP_NEWEST -> {
+                        dropped++;
+                        return;
+                    }
+                    case DROP_OLDEST -> {
+                        queue.removeFirst();
+                        dropped++;
+                    }
+                    case COALESCE -> {
+                        for (Iterator<PageEvent> pending = queue.iterator(); pending.hasNext(); ) {
+                            if (pending.next().job().getJobId().equals(event.job().getJobId())) {
+                                pending.remove();
+                                dropped++;
+                            }
+                        }
+                        if (queue.size() >= capacity) { // full of other jobs' pages
+                            queue.removeFirst();
+                            dropped++;
+                        }
+                    }
+                }
+            }
+            queue.addLast(event);
+            notifyAll();
+        }
+
+        private void dispatch() {
+            while (true) {
+                PageEvent event;
+                synchronized (this) {
+                    delivering = false;
+                    notifyAll(); // wakes flush()
+                    while (queue.isEmpty() && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            closed = true;
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    event = queue.removeFirst();
+                    delivering = true;
+                }
+                try {
+                    listener.onPagePrinted(event.job(), event.image(), event.pageNumber());
+                } catch (RuntimeException e) {
+                    logger.warn("Page event subscriber {} failed on page {} of job {}",
+                            name, event.pageNumber(), event.job().getJobId(), e);
+                }
+                synchronized (this) {
+                    delivered++;
+                }
+            }
+        }
+
+        private synchronized boolean awaitIdle(long deadline) {
+            while ((delivering || !queue.isEmpty()) && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(Math.max(1, remaining / 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.wonderboy.printer.printer;
+
+import java.nio.file.Path;
+
+/**
+ * The file format of the page files the virtual printer spools before assembling a PDF.
+ */
+public enum PageFileFormat {
+    /**
+     * The printer's own spool format (see {@link RasterPageFile}): cheap to write and to read
+     * back, but only readable by this application. The default.
+     */
+    RASTER(RasterPageFile.EXTENSION),
+    /** Standard PNG files, for pages that should be opened with other tools. Slower to write. */
+    PNG(".png");
+
+    private final String extension;
+
+    PageFileFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return The file name extension, including the dot.
+     */
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * @param file A file.
+     * @return The format of a page file, judged by its extension, or null if it is no page file.
+     */
+    public static PageFileFormat of(Path file) {
+        String name = file.getFileName().toString();
+        for (PageFileFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
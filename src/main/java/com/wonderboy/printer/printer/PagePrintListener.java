@@ -10,11 +10,12 @@ import java.awt.image.BufferedImage;
 @FunctionalInterface
 public interface PagePrintListener {
     /**
-     * Called when a page is ready for processing or preview.
-     * This method will be invoked on the background worker thread.
+     * Called when a page is ready for preview.
+     * When subscribed to a {@link PageEventBus}, this method is invoked on the subscription's
+     * own dispatch thread, so it may take its time without holding up rendering.
      *
      * @param job The job the page belongs to.
-     * @param image The rendered image of the page.
+     * @param image The page rendered at {@link VirtualPrinter#PREVIEW_DPI}.
      * @param pageNumber The 1-based page number.
      */
     void onPagePrinted(PrintJob job, BufferedImage image, int pageNumber);
@@ -0,0 +1,27 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a page file row by row, for pages that arrive in bands.
+ */
+interface PageRowWriter extends Closeable {
+
+    /**
+     * Appends all rows of a band below the rows written so far.
+     *
+     * @param band A band of the same width and type the writer was created with.
+     * @throws IOException if the rows cannot be written.
+     */
+    void writeRows(BufferedImage band) throws IOException;
+
+    /**
+     * Completes the file. The file is only valid if every row of the page has been written.
+     *
+     * @throws IOException if the file cannot be completed, or rows are missing.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,159 @@
+package com.wonderboy.printer.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The write-behind stage of the virtual printer: page files are encoded and written on
+ * dedicated writer threads while the caller goes on rendering.
+ * <p>
+ * At most {@code capacity} writes are pending (queued or running) at a time. A caller that
+ * submits more blocks until a writer catches up, so a renderer that is faster than the disk
+ * is slowed down instead of piling up page images in memory.
+ */
+final class PageWriteQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageWriteQueue.class);
+
+    /**
+     * Encodes and writes one page file.
+     */
+    @FunctionalInterface
+    interface PageWrite {
+        void write() throws IOException;
+    }
+
+    private final ExecutorService writers;
+    private final Semaphore slots;
+    // 每个任务尚未确认完成的写入
+    private final Map<String, Queue<Future<?>>> pendingByJob = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads The number of writer threads.
+     * @param capacity The number of writes that may be pending before callers block.
+     */
+    PageWriteQueue(int threads, int capacity) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("threads and capacity must be at least 1.");
+        }
+        this.writers = Executors.newFixedThreadPool(threads, writerThreadFactory());
+        this.slots = new Semaphore(capacity);
+    }
+
+    /**
+     * Queues a write for a job, blocking while the queue is full. If the caller is interrupted
+     * while waiting, the page is written on the calling thread instead, so no page is lost.
+     *
+     * @param jobId The job the page belongs to.
+     * @param write The write to perform.
+     */
+    void submit(String jobId, PageWrite write) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            try {
+                write.write();
+                written.complete(null);
+            } catch (IOException | RuntimeException failure) {
+                written.completeExceptionally(failure);
+            }
+            pending(jobId).add(written);
+            return;
+        }
+        try {
+            Future<?> future = writers.submit(() -> {
+                try {
+                    write.write();
+                    return null;
+                } finally {
+                    slots.release();
+                }
+            });
+            pending(jobId).add(future);
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every write queued for a job has completed.
+     *
+     * @param jobId The job.
+     * @throws IOException if one of the writes failed; the remaining writes are still awaited.
+     */
+    void await(String jobId) throws IOException {
+        Queue<Future<?>> pending = pendingByJob.remove(jobId);
+        if (pending == null) {
+            return;
+        }
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the files must be complete before the caller reads them
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException io ? io
+                                : new IOException("Failed to write a page of job " + jobId, e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the writer threads once the queued writes are done.
+     */
+    void shutdown() {
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Page writers did not finish within 30 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Queue<Future<?>> pending(String jobId) {
+        return pendingByJob.computeIfAbsent(jobId, id -> new ConcurrentLinkedQueue<>());
+    }
+
+    private static ThreadFactory writerThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "page-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
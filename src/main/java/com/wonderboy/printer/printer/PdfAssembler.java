@@ -0,0 +1,189 @@
+package com.wonderboy.printer.printer;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.wonderboy.printer.printer.PdfFileWriter.number;
+
+/**
+ * Builds a job's PDF incrementally: each page is added as soon as it has been rendered, its
+ * already compressed raster copied straight into the document as an image stream.
+ * <p>
+ * No page is written to or read from disk in between, and no page is decoded or compressed twice.
+ * Obtain instances from {@link VirtualPrinter#openPdf(PrintJob)}; pages must be added in order.
+ * <p>
+ * The PDF objects of a page are written to the file by a {@link PdfFileWriter} as soon as the
+ * page is added and nothing of it stays on the heap but a few numbers and its digest, so the memory used does not grow
+ * with the size of the pages and only by a couple of hundred bytes per page: a 10,000-page job
+ * is assembled in about the same heap as a one-page job. (A {@link org.apache.pdfbox.pdmodel.PDDocument} keeps a buffer
+ * per stream until it is saved, even when its page data lives in a scratch file.) The file is
+ * written under a temporary name and only appears as the job's PDF once {@link #finish()} succeeds.
+ * <p>
+ * Identical pages, such as blank pages or repeated separator pages, are written once: a page
+ * whose encoded data matches an earlier page of the job refers to that page's image and
+ * content stream, the same way the extra copies do.
+ * <p>
+ * The assembler builds the PDFs of rendered jobs: non-text jobs, and text jobs printed with
+ * {@code -Dprinter.textOutput=raster}. Text written as vector text, the default, goes through
+ * {@link TextPdfWriter} instead and is not deduplicated here; its preview pages still share
+ * identical files in the spool (see {@link VirtualPrinter}).
+ */
+public final class PdfAssembler implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfAssembler.class);
+
+    private final PrintJob job;
+    private final Path pdfPath;
+    private final float pointsPerPixel;
+    private final PdfFileWriter pdf;
+    // The first copy, kept so that the other copies can point at its content and image.
+    private int[] contentObjects = new int[64];
+    private int[] imageObjects = new int[64];
+    private float[] pageSizes = new float[128];
+    private int pageCount;
+    // 相同内容的页面共用同一个图像和内容流，键为 PageDigest
+    private final Map<String, SharedPage> writtenPages = new HashMap<>();
+    private boolean finished;
+
+    private record SharedPage(int content, int image) {
+    }
+
+    PdfAssembler(PrintJob job, Path pdfPath) {
+        this.job = job;
+        this.pdfPath = pdfPath;
+        this.pointsPerPixel = 72f / job.getSettings().dpi();
+        this.pdf = new PdfFileWriter(pdfPath);
+    }
+
+    /**
+     * Appends a page to the document and writes it out.
+     *
+     * @param page The next page of the job.
+     * @throws IOException if the page cannot be written.
+     */
+    public void addPage(EncodedPage page) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The PDF of job " + job.getJobId() + " has already been written.");
+        }
+        if (!pdf.isOpen()) {
+            pdf.open();
+        }
+        float widthInPoints = page.getWidth() * pointsPerPixel;
+        float heightInPoints = page.getHeight() * pointsPerPixel;
+
+        String digest = PageDigest.of(page);
+        SharedPage shared = writtenPages.get(digest);
+        if (shared == null) {
+            shared = writeImage(page, widthInPoints, heightInPoints);
+            writtenPages.put(digest, shared);
+        }
+        writePage(widthInPoints, heightInPoints, shared.content(), shared.image());
+        rememberFirstCopyPage(widthInPoints, heightInPoints, shared.content(), shared.image());
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return The number of distinct page images written so far; identical pages count once.
+     */
+    public int getDistinctPageCount() {
+        return writtenPages.size();
+    }
+
+    /**
+     * Adds the job's extra copies and completes the PDF.
+     * Copies are collated; each extra page refers to the content and image of the first copy,
+     * and for duplex jobs with an odd page count a blank page is inserted between copies so that
+     * every copy starts on a new sheet.
+     *
+     * @return true if the PDF was written; false if no page was added.
+     * @throws IOException if the PDF cannot be written.
+     */
+    public boolean finish() throws IOException {
+        finished = true;
+        if (pageCount == 0) {
+            logger.warn("No pages were rendered for job {}. Cannot create PDF.", job.getJobId());
+            return false;
+        }
+        PrintSettings settings = job.getSettings();
+        logger.info("Finishing job {}. Writing {} pages ({} distinct) x {} copies into PDF: {}",
+                job.getJobId(), pageCount, writtenPages.size(), settings.copies(), pdfPath);
+
+        boolean padSheets = settings.isDuplex() && pageCount % 2 == 1;
+        for (int copy = 1; copy < settings.copies(); copy++) {
+            if (padSheets) {
+                writePage(pageSizes[2 * pageCount - 2], pageSizes[2 * pageCount - 1], 0, 0);
+            }
+            for (int i = 0; i < pageCount; i++) {
+                writePage(pageSizes[2 * i], pageSizes[2 * i + 1], contentObjects[i], imageObjects[i]);
+            }
+        }
+        pdf.finish();
+        logger.info("Successfully created PDF for job {}", job.getJobId());
+        return true;
+    }
+
+    /**
+     * Releases the file. A PDF that was not finished is deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        pdf.close();
+    }
+
+    private SharedPage writeImage(EncodedPage page, float widthInPoints, float heightInPoints) throws IOException {
+        // 直接写入已压缩的数据，无需解码
+        int image = pdf.writeStream("/Type /XObject /Subtype /Image /Width " + page.getWidth() + " /Height " + page.getHeight()
+                + " /ColorSpace " + (page.getColorComponents() == 3 ? "/DeviceRGB" : "/DeviceGray")
+                + " /BitsPerComponent " + page.getBitsPerComponent() + filter(page), page.data());
+
+        byte[] drawImage = ("q " + number(widthInPoints) + " 0 0 " + number(heightInPoints) + " 0 0 cm /Im1 Do Q\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        int content = pdf.writeStream("", drawImage);
+        return new SharedPage(content, image);
+    }
+
+    /**
+     * Writes a page dictionary.
+     *
+     * @param content The content stream object, or 0 for a blank page.
+     * @param image The image object drawn by the content stream.
+     */
+    private void writePage(float widthInPoints, float heightInPoints, int content, int image) throws IOException {
+        pdf.writePage(widthInPoints, heightInPoints, "<< /XObject << /Im1 " + image + " 0 R >> >>", content);
+    }
+
+    private void rememberFirstCopyPage(float widthInPoints, float heightInPoints, int content, int image) {
+        if (pageCount == contentObjects.length) {
+            contentObjects = Arrays.copyOf(contentObjects, pageCount * 2);
+            imageObjects = Arrays.copyOf(imageObjects, pageCount * 2);
+            pageSizes = Arrays.copyOf(pageSizes, pageCount * 4);
+        }
+        contentObjects[pageCount] = content;
+        imageObjects[pageCount] = image;
+        pageSizes[2 * pageCount] = widthInPoints;
+        pageSizes[2 * pageCount + 1] = heightInPoints;
+        pageCount++;
+    }
+
+    private static String filter(EncodedPage page) {
+        return switch (page.getCompression()) {
+            case FLATE -> " /Filter /FlateDecode";
+            // BlackIs1 is left false: the encoder was given 1 = black, which the decoder maps back to gray 0
+            case CCITT_G4 -> " /Filter /CCITTFaxDecode /DecodeParms << /K -1 /Columns " + page.getWidth()
+                    + " /Rows " + page.getHeight() + " >>";
+        };
+    }
+}
@@ -0,0 +1,211 @@
+package com.wonderboy.printer.printer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Writes a PDF file object by object, for documents too long to build in memory first.
+ * <p>
+ * Every object goes to the file as soon as it is complete; only its offset is kept, along with
+ * the page tree's list of pages, so the heap used grows by a few bytes per object rather than
+ * with the content. The file is written under a temporary name ({@value #PART_SUFFIX}) and only
+ * moved to its real name by {@link #finish()}; closing an unfinished writer deletes it.
+ */
+final class PdfFileWriter implements Closeable {
+
+    static final String PART_SUFFIX = ".part";
+
+    private static final int CATALOG_OBJECT = 1;
+    private static final int PAGES_OBJECT = 2;
+
+    private final Path pdfPath;
+    private final Path partPath;
+    private CountingOutputStream out;
+    // 每个对象在文件中的偏移量，下标为对象编号
+    private long[] objectOffsets = new long[64];
+    private int objectCount = PAGES_OBJECT;
+    // Kids of the page tree, in order.
+    private int[] pageObjects = new int[64];
+    private int pageObjectCount;
+
+    PdfFileWriter(Path pdfPath) {
+        this.pdfPath = pdfPath;
+        this.partPath = pdfPath.resolveSibling(pdfPath.getFileName() + PART_SUFFIX);
+    }
+
+    boolean isOpen() {
+        return out != null;
+    }
+
+    /**
+     * Creates the temporary file and writes the header.
+     */
+    void open() throws IOException {
+        Files.createDirectories(pdfPath.getParent());
+        out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(partPath), 64 * 1024));
+        // The second line marks the file as binary for transfer programs.
+        write("%PDF-1.4\n");
+        out.write(new byte[]{'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+    }
+
+    /**
+     * Takes an object number for an object written later with {@link #beginObject(int)}, so
+     * that objects written before it can refer to it.
+     */
+    int reserveObject() {
+        return ++objectCount;
+    }
+
+    /**
+     * Starts the next object.
+     *
+     * @return Its object number.
+     */
+    int beginObject() throws IOException {
+        int object = reserveObject();
+        beginObject(object);
+        return object;
+    }
+
+    void beginObject(int object) throws IOException {
+        if (object >= objectOffsets.length) {
+            objectOffsets = Arrays.copyOf(objectOffsets, Math.max(object + 1, objectOffsets.length * 2));
+        }
+        objectOffsets[object] = out.position();
+        write(object + " 0 obj\n");
+    }
+
+    void endObject() throws IOException {
+        write("endobj\n");
+    }
+
+    /**
+     * Writes a stream object.
+     *
+     * @param entries Dictionary entries besides the length, e.g. {@code "/Filter /FlateDecode"}, or empty.
+     * @param data The stream data, already encoded with the filter the entries name.
+     * @return The object number.
+     */
+    int writeStream(String entries, byte[] data) throws IOException {
+        int object = beginObject();
+        write("<< " + (entries.isEmpty() ? "" : entries + " ") + "/Length " + data.length + " >>\nstream\n");
+        out.write(data);
+        write("\nendstream\n");
+        endObject();
+        return object;
+    }
+
+    /**
+     * Writes a page dictionary and adds the page to the page tree.
+     *
+     * @param resources The page's resource dictionary.
+     * @param content The content stream object, or 0 for a blank page.
+     */
+    void writePage(float widthInPoints, float heightInPoints, String resources, int content) throws IOException {
+        int pageObject = beginObject();
+        StringBuilder dictionary = new StringBuilder("<< /Type /Page /Parent ").append(PAGES_OBJECT)
+                .append(" 0 R /MediaBox [0 0 ").append(number(widthInPoints)).append(' ')
+                .append(number(heightInPoints)).append(']');
+        if (content != 0) {
+            dictionary.append(" /Resources ").append(resources).append(" /Contents ").append(content).append(" 0 R");
+        } else {
+            dictionary.append(" /Resources << >>");
+        }
+        write(dictionary.append(" >>\n").toString());
+        endObject();
+
+        if (pageObjectCount == pageObjects.length) {
+            pageObjects = Arrays.copyOf(pageObjects, pageObjectCount * 2);
+        }
+        pageObjects[pageObjectCount++] = pageObject;
+    }
+
+    /**
+     * Writes the page tree, catalog and cross-reference table, and moves the file to its real name.
+     */
+    void finish() throws IOException {
+        beginObject(PAGES_OBJECT);
+        write("<< /Type /Pages /Count " + pageObjectCount + " /Kids [");
+        for (int i = 0; i < pageObjectCount; i++) {
+            write((i % 10 == 0 ? "\n" : " ") + pageObjects[i] + " 0 R");
+        }
+        write("\n] >>\n");
+        endObject();
+
+        beginObject(CATALOG_OBJECT);
+        write("<< /Type /Catalog /Pages " + PAGES_OBJECT + " 0 R >>\n");
+        endObject();
+
+        long xrefOffset = out.position();
+        write("xref\n0 " + (objectCount + 1) + "\n0000000000 65535 f \n");
+        for (int object = 1; object <= objectCount; object++) {
+            write(String.format("%010d 00000 n \n", objectOffsets[object]));
+        }
+        write("trailer\n<< /Size " + (objectCount + 1) + " /Root " + CATALOG_OBJECT + " 0 R >>\nstartxref\n"
+                + xrefOffset + "\n%%EOF\n");
+        out.close();
+        out = null;
+        Files.move(partPath, pdfPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Releases the file. A PDF that was not finished is deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    void write(byte[] data) throws IOException {
+        out.write(data);
+    }
+
+    /**
+     * Formats a coordinate the way PDF expects it: plain decimal notation, no exponent.
+     */
+    static String number(float value) {
+        return new BigDecimal(Float.toString(value)).stripTrailingZeros().toPlainString();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long position;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The printer's page spool format. Page files are written once and read back once, so they
+ * are stored in the cheapest form to produce and to load rather than as PNG:
+ * <pre>
+ *   int magic "RPG1", int width, int height, int BufferedImage type     (16 bytes, big-endian)
+ *   the rows, Deflate compressed at the fastest level
+ * </pre>
+ * Rows hold the pixels exactly as the image's data buffer does: one big-endian int per pixel
+ * for ARGB and RGB pages, one byte per pixel for gray pages and 8 pixels per byte for 1-bit
+ * pages. Unlike PNG there is no per-row filtering, no color conversion and no checksumming;
+ * reading inflates the memory-mapped file straight into the data buffer of a new image.
+ */
+public final class RasterPageFile {
+
+    public static final String EXTENSION = ".raster";
+    static final int MAGIC = 0x52504731; // "RPG1"
+    static final int HEADER_BYTES = 16;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private RasterPageFile() {
+    }
+
+    /**
+     * Writes a page file. Images of other types than ARGB, RGB, gray and binary are stored as ARGB.
+     *
+     * @param image The page.
+     * @param file  The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(BufferedImage image, Path file) throws IOException {
+        BufferedImage page = supports(image.getType()) ? image : toArgb(image);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try (StreamingRasterWriter writer = new StreamingRasterWriter(channel, page.getWidth(), page.getHeight(), page.getType())) {
+            writer.writeRows(page);
+        }
+    }
+
+    /**
+     * Reads a page file.
+     *
+     * @param file The file.
+     * @return The page, of the type it was written with.
+     * @throws IOException if the file cannot be read or is not a complete page file.
+     */
+    public static BufferedImage read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a raster page file: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = mapped.getInt();
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            int imageType = mapped.getInt();
+            if (magic != MAGIC || width <= 0 || height <= 0 || !supports(imageType)) {
+                throw new IOException("Not a raster page file: " + file);
+            }
+            BufferedImage image = new BufferedImage(width, height, imageType);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(mapped); // reads the rows straight from the mapping
+                DataBuffer buffer = image.getRaster().getDataBuffer();
+                if (buffer instanceof DataBufferInt ints) {
+                    inflateInts(inflater, ints.getData(), file);
+                } else {
+                    inflateBytes(inflater, ((DataBufferByte) buffer).getData(), file);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt raster page file: " + file, e);
+            } finally {
+                inflater.end();
+            }
+            return image;
+        }
+    }
+
+    static boolean supports(int imageType) {
+        return RowPacker.supports(imageType);
+    }
+
+    static boolean hasIntPixels(int imageType) {
+        return imageType == BufferedImage.TYPE_INT_ARGB || imageType == BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * @return The number of bytes one row of a page takes before compression.
+     */
+    static int rowBytes(int width, int imageType) {
+        return hasIntPixels(imageType) ? width * 4 : new RowPacker(width, imageType, true).rowBytes();
+    }
+
+    private static void inflateInts(Inflater inflater, int[] pixels, Path file) throws IOException, DataFormatException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int filled = 0;
+        while (filled < pixels.length) {
+            inflate(inflater, chunk, file);
+            chunk.flip();
+            IntBuffer ints = chunk.asIntBuffer();
+            int count = Math.min(ints.remaining(), pixels.length - filled);
+            ints.get(pixels, filled, count);
+            filled += count;
+            chunk.position(count * 4);
+            chunk.compact(); // keep the bytes of a pixel split across two chunks
+        }
+        checkEnd(inflater, chunk.position(), file);
+    }
+
+    private static void inflateBytes(Inflater inflater, byte[] bytes, Path file) throws IOException, DataFormatException {
+        int filled = 0;
+        while (filled < bytes.length) {
+            int count = inflater.inflate(bytes, filled, bytes.length - filled);
+            if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new IOException("Truncated raster page file: " + file);
+            }
+            filled += count;
+        }
+        checkEnd(inflater, 0, file);
+    }
+
+    private static void inflate(Inflater inflater, ByteBuffer chunk, Path file) throws IOException, DataFormatException {
+        int before = chunk.position();
+        inflater.inflate(chunk);
+        if (chunk.position() == before && (inflater.finished() || inflater.needsInput())) {
+            throw new IOException("Truncated raster page file: " + file);
+        }
+    }
+
+    private static void checkEnd(Inflater inflater, int leftover, Path file) throws IOException, DataFormatException {
+        if (leftover != 0 || (!inflater.finished() && inflater.inflate(new byte[1]) != 0)) {
+            throw new IOException("Raster page file holds more rows than its header declares: " + file);
+        }
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = argb.createGraphics();
+        try {
+            g2d.drawImage(image, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return argb;
+    }
+}
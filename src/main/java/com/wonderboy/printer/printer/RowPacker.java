@@ -0,0 +1,104 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Packs one image row into the byte layout shared by PNG and PDF image data: 8-bit RGB(A)
+ * or gray samples, or 1-bit gray with the leftmost pixel in the high bit, 1 = white.
+ */
+final class RowPacker {
+
+    private final int width;
+    private final int imageType;
+    private final int bitsPerPixel;
+    private final int[] pixelRow;
+
+    /**
+     * @param width     The row width in pixels.
+     * @param imageType The {@link BufferedImage} type of the rows; ARGB, RGB, gray or binary.
+     * @param alpha     Whether ARGB rows keep their alpha channel.
+     */
+    RowPacker(int width, int imageType, boolean alpha) {
+        this.width = width;
+        this.imageType = imageType;
+        this.bitsPerPixel = switch (imageType) {
+            case BufferedImage.TYPE_INT_ARGB -> alpha ? 32 : 24;
+            case BufferedImage.TYPE_INT_RGB -> 24;
+            case BufferedImage.TYPE_BYTE_GRAY -> 8;
+            // The default TYPE_BYTE_BINARY palette is 0 = black, 1 = white, as in 1-bit gray.
+            case BufferedImage.TYPE_BYTE_BINARY -> 1;
+            default -> throw new IllegalArgumentException("Unsupported image type: " + imageType);
+        };
+        this.pixelRow = new int[width];
+    }
+
+    static boolean supports(int imageType) {
+        return imageType == BufferedImage.TYPE_INT_ARGB || imageType == BufferedImage.TYPE_INT_RGB
+                || imageType == BufferedImage.TYPE_BYTE_GRAY || imageType == BufferedImage.TYPE_BYTE_BINARY;
+    }
+
+    int bitsPerPixel() {
+        return bitsPerPixel;
+    }
+
+    int colorComponents() {
+        return bitsPerPixel >= 24 ? bitsPerPixel / 8 : 1;
+    }
+
+    int bitsPerComponent() {
+        return bitsPerPixel == 1 ? 1 : 8;
+    }
+
+    /**
+     * @return The number of bytes one packed row takes.
+     */
+    int rowBytes() {
+        return (width * bitsPerPixel + 7) / 8;
+    }
+
+    /**
+     * Packs row {@code y} of {@code image} into {@code target}, starting at {@code offset}.
+     */
+    void pack(BufferedImage image, int y, byte[] target, int offset) {
+        if (image.getWidth() != width || image.getType() != imageType) {
+            throw new IllegalArgumentException("Row does not match the declared width and type.");
+        }
+        switch (bitsPerPixel) {
+            case 32, 24 -> packRgb(image, y, target, offset);
+            case 8 -> packGray(image, y, target, offset);
+            default -> packBilevel(image, y, target, offset);
+        }
+    }
+
+    private void packRgb(BufferedImage image, int y, byte[] target, int offset) {
+        image.getRaster().getDataElements(0, y, width, 1, pixelRow);
+        int i = offset;
+        for (int x = 0; x < width; x++) {
+            int argb = pixelRow[x];
+            target[i++] = (byte) (argb >> 16);
+            target[i++] = (byte) (argb >> 8);
+            target[i++] = (byte) argb;
+            if (bitsPerPixel == 32) {
+                target[i++] = (byte) (argb >>> 24);
+            }
+        }
+    }
+
+    private void packGray(BufferedImage image, int y, byte[] target, int offset) {
+        image.getRaster().getSamples(0, y, width, 1, 0, pixelRow);
+        for (int x = 0; x < width; x++) {
+            target[offset + x] = (byte) pixelRow[x];
+        }
+    }
+
+    private void packBilevel(BufferedImage image, int y, byte[] target, int offset) {
+        image.getRaster().getSamples(0, y, width, 1, 0, pixelRow);
+        Arrays.fill(target, offset, offset + rowBytes(), (byte) 0);
+        for (int x = 0; x < width; x++) {
+            if (pixelRow[x] != 0) {
+                target[offset + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.wonderboy.printer.printer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a page in the {@link RasterPageFile} format row by row, so a page that arrives in
+ * bands never has to exist as one image. Data goes straight from the row buffer through the
+ * compressor into the file channel.
+ */
+final class StreamingRasterWriter implements PageRowWriter {
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int imageType;
+    private final RowPacker packer; // byte-sized rows; null for int rows
+    private final int[] pixelRow;
+    private final ByteBuffer row;
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private int rowsWritten;
+
+    /**
+     * Writes the header for a page of the given size.
+     *
+     * @param channel   The destination; closed when this writer is closed.
+     * @param width     The page width in pixels.
+     * @param height    The page height in pixels.
+     * @param imageType The {@link BufferedImage} type of the bands that will be written.
+     * @throws IOException if the header cannot be written.
+     */
+    StreamingRasterWriter(FileChannel channel, int width, int height, int imageType) throws IOException {
+        if (!RasterPageFile.supports(imageType)) {
+            deflater.end();
+            throw new IllegalArgumentException("Unsupported image type for raster page files: " + imageType);
+        }
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.imageType = imageType;
+        boolean intRows = RasterPageFile.hasIntPixels(imageType);
+        this.packer = intRows ? null : new RowPacker(width, imageType, true);
+        this.pixelRow = intRows ? new int[width] : null;
+        this.row = ByteBuffer.allocate(RasterPageFile.rowBytes(width, imageType));
+
+        ByteBuffer header = ByteBuffer.allocate(RasterPageFile.HEADER_BYTES);
+        header.putInt(RasterPageFile.MAGIC).putInt(width).putInt(height).putInt(imageType).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    @Override
+    public void writeRows(BufferedImage band) throws IOException {
+        if (band.getWidth() != width || band.getType() != imageType) {
+            throw new IllegalArgumentException("Band does not match the declared width and type.");
+        }
+        if (rowsWritten + band.getHeight() > height) {
+            throw new IllegalStateException("More rows written than declared in the page header.");
+        }
+        for (int y = 0; y < band.getHeight(); y++) {
+            row.clear();
+            if (packer == null) {
+                band.getRaster().getDataElements(0, y, width, 1, pixelRow);
+                row.asIntBuffer().put(pixelRow);
+            } else {
+                packer.pack(band, y, row.array(), 0);
+            }
+            deflater.setInput(row.array(), 0, row.capacity());
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+        rowsWritten += band.getHeight();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+            flushOutput();
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+        if (rowsWritten != height) {
+            throw new IOException("Raster page closed after " + rowsWritten + " of " + height + " rows.");
+        }
+    }
+
+    private void drain() throws IOException {
+        deflater.deflate(output);
+        if (!output.hasRemaining()) {
+            flushOutput();
+        }
+    }
+
+    private void flushOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+}
@@ -0,0 +1,343 @@
+package com.wonderboy.printer.printer;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.renderer.TextPageLayout;
+import com.wonderboy.printer.source.TextPageSource;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.wonderboy.printer.printer.PdfFileWriter.number;
+
+/**
+ * Writes a text job straight to PDF text operators instead of embedding rendered bitmaps.
+ * <p>
+ * Pagination, margins, line spacing and the page footer come from the same
+ * {@link TextPageLayout} the raster renderer uses, converted from device pixels to points,
+ * so the PDF breaks lines and pages exactly like the preview. The job's scale is applied to the
+ * font size and line spacing, just as the raster renderer applies it as a transform. A monospaced TrueType font
+ * is embedded (subset); if none can be found, the standard Courier font is used instead.
+ * <p>
+ * Pages are written straight to the file through a {@link PdfFileWriter}, one content stream at
+ * a time, so a 10,000-page document needs no more heap than a short one; only the font is built
+ * with PDFBox, and written once the last page has shown which glyphs the subset needs. Extra
+ * copies refer to the content streams of the first copy.
+ * <p>
+ * Lines are wrapped with the advance of Java's logical monospaced font, which need not be the
+ * advance of the embedded font (Consolas is 0.55 em wide, Courier New 0.6 em). The text is
+ * therefore drawn with a horizontal scaling that stretches the embedded font's advance to the
+ * layout's, so a line is exactly as wide in the PDF as in the preview.
+ */
+final class TextPdfWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextPdfWriter.class);
+
+    /** System property pointing at a TrueType font to embed, e.g. -Dprinter.pdfFont=/path/Mono.ttf. */
+    static final String FONT_PROPERTY = "printer.pdfFont";
+
+    private static final List<String> MONOSPACED_FONT_CANDIDATES = List.of(
+            "/usr/share/fonts/truetype/dejavu/DejaVuSansMono.ttf",
+            "/usr/share/fonts/dejavu/DejaVuSansMono.ttf",
+            "/usr/share/fonts/TTF/DejaVuSansMono.ttf",
+            "/usr/share/fonts/truetype/liberation/LiberationMono-Regular.ttf",
+            "/usr/share/fonts/liberation/LiberationMono-Regular.ttf",
+            "C:/Windows/Fonts/consola.ttf",
+            "C:/Windows/Fonts/cour.ttf",
+            "/Library/Fonts/Courier New.ttf",
+            "/System/Library/Fonts/Supplemental/Courier New.ttf");
+
+    private static final float FONT_SIZE_PT = 12f;
+
+    private TextPdfWriter() {
+    }
+
+    /**
+     * Writes the whole document to a PDF file, page by page.
+     *
+     * @param job     The job being printed.
+     * @param source  The text source.
+     * @param layout  The layout of the source under the job's settings.
+     * @param pdfPath The file to write.
+     * @return The number of pages in one copy.
+     * @throws IOException if the source cannot be read or the PDF cannot be written.
+     */
+    static int write(PrintJob job, TextPageSource source, TextPageLayout layout, Path pdfPath) throws IOException {
+        float pointsPerPixel = 72f / job.getSettings().dpi();
+        float pageWidth = layout.getPageWidth() * pointsPerPixel;
+        float pageHeight = layout.getPageHeight() * pointsPerPixel;
+        FontMetrics metrics = layout.getMetrics();
+        float scale = (float) layout.getScale();
+        float fontSize = FONT_SIZE_PT * scale;
+        float margin = layout.getMargin() * pointsPerPixel;
+        float lineHeight = metrics.getHeight() * scale * pointsPerPixel;
+        float firstBaseline = (layout.getMargin() + metrics.getAscent() * scale) * pointsPerPixel;
+        float footerBaseline = (layout.getPageHeight() - layout.getMargin() / 2) * pointsPerPixel;
+
+        List<String> sourceLines = source.getLines();
+        int totalPages = layout.getTotalPages();
+        // 字体只在这个文档中加载和子集化；页面直接写入文件，不经过 PDDocument
+        try (PDDocument fontDocument = new PDDocument(); PdfFileWriter pdf = new PdfFileWriter(pdfPath)) {
+            PDFont font = loadFont(fontDocument);
+            float horizontalScaling = horizontalScaling(font, metrics, fontSize, scale * pointsPerPixel);
+            pdf.open();
+            int fontObject = pdf.reserveObject(); // written last, once every glyph of the subset is known
+            String resources = "<< /Font << /F1 " + fontObject + " 0 R >> >>";
+            int[] contentObjects = new int[totalPages];
+            for (int pageIndex = 0; pageIndex < totalPages; pageIndex++) {
+                StringBuilder content = new StringBuilder(4096);
+                content.append("BT\n/F1 ").append(number(fontSize)).append(" Tf\n")
+                        .append(number(horizontalScaling)).append(" Tz\n") // stays in effect for the footer
+                        .append(number(lineHeight)).append(" TL\n");
+                // PDF y runs upwards from the bottom edge.
+                content.append(number(margin)).append(' ').append(number(pageHeight - firstBaseline)).append(" Td\n");
+                for (String line : layout.pageLines(sourceLines, pageIndex)) {
+                    String text = showable(font, line);
+                    if (!text.isEmpty()) {
+                        showText(content, font, text);
+                    }
+                    content.append("T*\n");
+                }
+                content.append("ET\n");
+
+                String footer = String.format("Page %d of %d", pageIndex + 1, totalPages);
+                float footerWidth = font.getStringWidth(footer) / 1000f * FONT_SIZE_PT * horizontalScaling / 100f;
+                // the footer is not scaled
+                content.append("BT\n/F1 ").append(number(FONT_SIZE_PT)).append(" Tf\n")
+                        .append(number((pageWidth - footerWidth) / 2)).append(' ')
+                        .append(number(pageHeight - footerBaseline)).append(" Td\n");
+                showText(content, font, footer);
+                content.append("ET\n");
+
+                contentObjects[pageIndex] = pdf.writeStream("/Filter /FlateDecode", deflate(content));
+                pdf.writePage(pageWidth, pageHeight, resources, contentObjects[pageIndex]);
+            }
+            // 多份打印：后续各份引用第一份的内容流；双面打印时奇数页的文档每份从新的一张纸开始
+            boolean padSheets = job.getSettings().isDuplex() && totalPages % 2 == 1;
+            for (int copy = 1; copy < job.getSettings().copies(); copy++) {
+                if (padSheets) {
+                    pdf.writePage(pageWidth, pageHeight, resources, 0);
+                }
+                for (int contentObject : contentObjects) {
+                    pdf.writePage(pageWidth, pageHeight, resources, contentObject);
+                }
+            }
+            writeFont(pdf, fontObject, font);
+            pdf.finish();
+        }
+        return totalPages;
+    }
+
+    /**
+     * Appends a text-showing operator, noting the characters for the font subset.
+     */
+    private static void showText(StringBuilder content, PDFont font, String text) throws IOException {
+        if (font.willBeSubset()) {
+            text.codePoints().forEach(font::addToSubset);
+        }
+        content.append('<').append(HexFormat.of().formatHex(font.encode(text))).append("> Tj\n");
+    }
+
+    private static byte[] deflate(CharSequence content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length() / 2);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Subsets the font to the characters shown and writes it, with its descendant font,
+     * descriptor, font file and maps, as object {@code fontObject}.
+     */
+    private static void writeFont(PdfFileWriter pdf, int fontObject, PDFont font) throws IOException {
+        if (font.willBeSubset()) {
+            font.subset();
+        }
+        // Streams are written as objects of their own while the dictionary is being formatted.
+        String dictionary = format(pdf, font.getCOSObject(), new IdentityHashMap<>());
+        pdf.beginObject(fontObject);
+        pdf.write(dictionary + "\n");
+        pdf.endObject();
+    }
+
+    /**
+     * Formats a PDFBox object in PDF syntax. Dictionaries and arrays are written inline; every
+     * stream is written once, as an object of its own, and referred to.
+     */
+    private static String format(PdfFileWriter pdf, COSBase value, Map<COSStream, Integer> streams) throws IOException {
+        if (value instanceof COSObject reference) {
+            return format(pdf, reference.getObject(), streams);
+        }
+        if (value instanceof COSStream stream) {
+            Integer object = streams.get(stream);
+            if (object == null) {
+                StringBuilder entries = new StringBuilder();
+                for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+                    if (!COSName.LENGTH.equals(entry.getKey())) {
+                        entries.append(entries.length() == 0 ? "" : " ").append(format(pdf, entry.getKey(), streams))
+                                .append(' ').append(format(pdf, entry.getValue(), streams));
+                    }
+                }
+                byte[] data;
+                try (InputStream in = stream.createRawInputStream()) {
+                    data = in.readAllBytes();
+                }
+                object = pdf.writeStream(entries.toString(), data);
+                streams.put(stream, object);
+            }
+            return object + " 0 R";
+        }
+        if (value instanceof COSDictionary dictionary) {
+            StringBuilder text = new StringBuilder("<<");
+            for (Map.Entry<COSName, COSBase> entry : dictionary.entrySet()) {
+                text.append(' ').append(format(pdf, entry.getKey(), streams))
+                        .append(' ').append(format(pdf, entry.getValue(), streams));
+            }
+            return text.append(" >>").toString();
+        }
+        if (value instanceof COSArray array) {
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < array.size(); i++) {
+                text.append(i == 0 ? "" : " ").append(format(pdf, array.get(i), streams));
+            }
+            return text.append(']').toString();
+        }
+        if (value instanceof COSName name) {
+            StringBuilder text = new StringBuilder("/");
+            for (byte b : name.getName().getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xFF;
+                if (c > 0x20 && c < 0x7F && "()<>[]{}/%#".indexOf(c) < 0) {
+                    text.append((char) c);
+                } else {
+                    text.append('#').append(HexFormat.of().withUpperCase().toHexDigits((byte) c));
+                }
+            }
+            return text.toString();
+        }
+        if (value instanceof COSString string) {
+            return "<" + HexFormat.of().formatHex(string.getBytes()) + ">";
+        }
+        if (value instanceof COSInteger integer) {
+            return Long.toString(integer.longValue());
+        }
+        if (value instanceof COSFloat real) {
+            return number(real.floatValue());
+        }
+        if (value instanceof COSBoolean bool) {
+            return Boolean.toString(bool.getValue());
+        }
+        return "null";
+    }
+
+    /**
+     * @param pointsPerTextPixel The size in points of one unscaled text pixel of the layout.
+     * @return The horizontal scaling, in percent, that gives the font the advance the layout wrapped lines with.
+     */
+    private static float horizontalScaling(PDFont font, FontMetrics metrics, float fontSize, float pointsPerTextPixel) throws IOException {
+        // 与 TextWrapper 相同的浮点步进
+        float layoutAdvance = (float) metrics.getFont().getStringBounds("M", metrics.getFontRenderContext()).getWidth()
+                * pointsPerTextPixel;
+        float fontAdvance = font.getStringWidth("M") / 1000f * fontSize;
+        return fontAdvance > 0 ? 100f * layoutAdvance / fontAdvance : 100f;
+    }
+
+    /**
+     * Drops control characters (drawn with no width on the raster page) and replaces
+     * characters the font cannot encode with '?'.
+     */
+    private static String showable(PDFont font, String line) {
+        boolean plain = true;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) < 0x20) {
+                plain = false;
+                break;
+            }
+        }
+        if (plain && canEncode(font, line)) {
+            return line;
+        }
+        StringBuilder text = new StringBuilder(line.length());
+        line.codePoints().forEach(codePoint -> {
+            if (codePoint >= 0x20) {
+                String ch = new String(Character.toChars(codePoint));
+                text.append(canEncode(font, ch) ? ch : "?");
+            }
+        });
+        return text.toString();
+    }
+
+    private static boolean canEncode(PDFont font, String text) {
+        try {
+            font.encode(text);
+            return true;
+        } catch (IllegalArgumentException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The font choice that {@link #write} depends on besides its arguments.
+     */
+    static String format() {
+        String configured = System.getProperty(FONT_PROPERTY);
+        return "text-pdf font=" + (configured == null ? "" : configured.trim());
+    }
+
+    private static PDFont loadFont(PDDocument document) {
+        String configured = System.getProperty(FONT_PROPERTY);
+        if (configured != null && !configured.isBlank()) {
+            PDFont font = tryLoad(document, Paths.get(configured.trim()));
+            if (font != null) {
+                return font;
+            }
+            logger.warn("Could not load PDF font {}={}, searching the system fonts instead.", FONT_PROPERTY, configured);
+        }
+        for (String candidate : MONOSPACED_FONT_CANDIDATES) {
+            PDFont font = tryLoad(document, Paths.get(candidate));
+            if (font != null) {
+                return font;
+            }
+        }
+        logger.warn("No monospaced TrueType font found to embed; falling back to standard Courier.");
+        return PDType1Font.COURIER;
+    }
+
+    private static PDFont tryLoad(PDDocument document, Path fontFile) {
+        if (!Files.isReadable(fontFile)) {
+            return null;
+        }
+        try {
+            return PDType0Font.load(document, fontFile.toFile());
+        } catch (IOException e) {
+            logger.warn("Failed to load font {}", fontFile, e);
+            return null;
+        }
+    }
+}
@@ -1,12 +1,9 @@
 package com.wonderboy.printer.printer;
 
 import com.wonderboy.printer.model.PrintJob;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import com.wonderboy.printer.renderer.TextPageLayout;
+import com.wonderboy.printer.source.TextPageSource;
+import com.wonderboy.printer.util.FileTrees;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,12 +12,10 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -30,84 +25,348 @@ import java.util.stream.Stream;
 public class VirtualPrinter {
 
     private static final Logger logger = LoggerFactory.getLogger(VirtualPrinter.class);
+    // 早期版本存放打印分辨率页面文件的目录；仍用于清理和显示旧任务
     public static final String RENDERED_PAGES_DIR_NAME = "rendered_pages";
+    public static final String PREVIEW_PAGES_DIR_NAME = "preview_pages";
+    /** Resolution of the preview tier shown on screen, independent of the print resolution. */
+    public static final int PREVIEW_DPI = 96;
+    /** Page files encoded concurrently by the write-behind stage. */
+    public static final int DEFAULT_WRITER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    /** Page writes that may be pending before callers block; each holds one page image. */
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 2 * DEFAULT_WRITER_THREADS;
     private final Path outputDirectory;
+    private final PageWriteQueue pageWrites;
+    private volatile PageFileFormat pageFileFormat = PageFileFormat.RASTER;
+    // 每个任务已写入的页面，按内容摘要索引；完成时为文件路径，写入失败时为 null
+    private final Map<String, Map<String, CompletableFuture<Path>>> spooledPagesByJob = new ConcurrentHashMap<>();
+    private final Map<String, PageCheckpoint> previewCheckpoints = new ConcurrentHashMap<>();
 
-    // A map to hold the pages for each active print job.
-    // Key: Job ID, Value: A thread-safe list of rendered page images.
-    // private final Map<String, List<BufferedImage>> activeJobPages;
-
-    private PagePrintListener pagePrintListener;
+    private final PageEventBus pageEvents = new PageEventBus();
 
     public VirtualPrinter(Path outputDirectory) {
+        this(outputDirectory, DEFAULT_WRITER_THREADS, DEFAULT_WRITE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a printer whose page files are written on {@code writerThreads} background
+     * threads, in the {@link PageFileFormat#RASTER} format unless {@link #setPageFileFormat}
+     * chooses another. When {@code queueCapacity} writes are pending, accepting another page
+     * blocks until one completes.
+     *
+     * @param outputDirectory The directory receiving the jobs' output.
+     * @param writerThreads The number of page writer threads.
+     * @param queueCapacity The number of page writes that may be pending.
+     */
+    public VirtualPrinter(Path outputDirectory, int writerThreads, int queueCapacity) {
         this.outputDirectory = outputDirectory;
         ensureOutputDirectoryExists();
+        this.pageWrites = new PageWriteQueue(writerThreads, queueCapacity);
     }
 
-    public void setPagePrintListener(PagePrintListener listener) {
-        this.pagePrintListener = listener;
+    /**
+     * @return The bus announcing preview pages as they are accepted; subscribe to it to watch jobs render.
+     */
+    public PageEventBus getPageEvents() {
+        return pageEvents;
     }
 
-    public void acceptRenderedPage(PrintJob job, BufferedImage pageImage, int pageNumber) {
-        Path jobOutputDir = outputDirectory.resolve(job.getJobId());
-        Path pagesDir = jobOutputDir.resolve(RENDERED_PAGES_DIR_NAME);
-        try {
-            Files.createDirectories(pagesDir);
-            Path pageFile = pagesDir.resolve(String.format("page_%04d.png", pageNumber));
-            ImageIO.write(pageImage, "png", pageFile.toFile());
-            logger.debug("Saved rendered page {} for job {} to {}", pageNumber, job.getJobId(), pageFile);
+    /**
+     * Chooses the format of the page files spooled from now on. {@link PageFileFormat#RASTER},
+     * the default, is several times cheaper to write and read back than PNG; choose
+     * {@link PageFileFormat#PNG} to keep page files that other programs can open.
+     * Both formats are read back by {@link #readPageFile}.
+     *
+     * @param format The format of new page files.
+     */
+    public void setPageFileFormat(PageFileFormat format) {
+        this.pageFileFormat = format;
+    }
 
-            if (pagePrintListener != null) {
-                pagePrintListener.onPagePrinted(job, pageImage, pageNumber);
-            }
-        } catch (IOException e) {
-            logger.error("Failed to save rendered page {} for job {}", pageNumber, job.getJobId(), e);
-        }
+    public PageFileFormat getPageFileFormat() {
+        return pageFileFormat;
     }
 
-    public void finishJob(PrintJob job) throws IOException {
-        Path jobOutputDir = outputDirectory.resolve(job.getJobId());
-        Path pagesDir = jobOutputDir.resolve(RENDERED_PAGES_DIR_NAME);
-        Path pdfPath = jobOutputDir.resolve("output.pdf");
+    /**
+     * Announces a screen-resolution preview page on the {@linkplain #getPageEvents() page event bus}
+     * and queues it to be saved. Announcing never waits for a subscriber; the file is
+     * written in the background (see {@link #awaitPageWrites}) and then recorded in the job's
+     * preview checkpoint (see {@link #resumablePreviewPages}). The image must not be modified
+     * afterwards.
+     *
+     * @param job The job the page belongs to.
+     * @param previewImage The page rendered at {@link #PREVIEW_DPI}.
+     * @param pageNumber The 1-based page number.
+     */
+    public void acceptPreviewPage(PrintJob job, BufferedImage previewImage, int pageNumber) {
+        pageEvents.publish(job, previewImage, pageNumber);
+        PageCheckpoint checkpoint = previewCheckpoints.computeIfAbsent(job.getJobId(),
+                id -> new PageCheckpoint(previewPagesDirectory(job)));
+        writePageBehind(job, previewImage, pageNumber, previewPageFile(job, pageNumber), "preview", checkpoint);
+    }
 
-        if (!Files.exists(pagesDir)) {
-            logger.warn("No rendered pages found for job {}. Cannot create PDF.", job.getJobId());
-            return;
+    /**
+     * Finds where an interrupted preview render left off. Every preview page recorded in the
+     * job's checkpoint is checked against the size and checksum it was written with; pages from
+     * the first missing, truncated or damaged one on have to be rendered again.
+     *
+     * @param job The job.
+     * @return The number of leading preview pages that are intact on disk.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    public int resumablePreviewPages(PrintJob job) throws IOException {
+        return new PageCheckpoint(previewPagesDirectory(job)).intactPages(pageNumber -> previewPageFile(job, pageNumber));
+    }
+
+    /**
+     * Forgets the preview pages recorded for a job, before its preview is rendered from the start.
+     *
+     * @param job The job.
+     * @throws IOException if the checkpoint cannot be deleted.
+     */
+    public void discardPreviewProgress(PrintJob job) throws IOException {
+        new PageCheckpoint(previewPagesDirectory(job)).reset();
+    }
+
+    /**
+     * @param job The job the page belongs to.
+     * @param pageNumber The 1-based page number.
+     * @return The file the printer keeps the preview page in.
+     */
+    public Path previewPageFile(PrintJob job, int pageNumber) {
+        return previewPagesDirectory(job).resolve(pageFileName(pageNumber));
+    }
+
+    /**
+     * @param job The job.
+     * @return The directory holding the job's preview pages.
+     */
+    public Path previewPagesDirectory(PrintJob job) {
+        return outputDirectory.resolve(job.getJobId()).resolve(PREVIEW_PAGES_DIR_NAME);
+    }
+
+    /**
+     * Waits until the page files accepted so far for a job have been written.
+     *
+     * @param job The job.
+     * @throws IOException if a page file could not be written.
+     */
+    public void awaitPageWrites(PrintJob job) throws IOException {
+        try {
+            pageWrites.await(job.getJobId());
+        } finally {
+            spooledPagesByJob.remove(job.getJobId());
+            previewCheckpoints.remove(job.getJobId());
         }
+    }
+
+    /**
+     * Writes the queued page files, delivers the announced pages and stops the writer and
+     * subscriber threads. The printer must not be used afterwards.
+     */
+    public void shutdown() {
+        pageWrites.shutdown();
+        pageEvents.shutdown();
+    }
+
+    /**
+     * Queues a page file write. A page whose pixels match a page already written to the same
+     * directory for the job since the last {@link #awaitPageWrites} (blank pages, repeated
+     * separator pages) is not encoded again but stored as a hard link to the first one, or as a
+     * copy where the file system has no links. A written page is recorded in {@code checkpoint},
+     * if given.
+     */
+    private void writePageBehind(PrintJob job, BufferedImage image, int pageNumber, Path pageFile, String tier,
+                                 PageCheckpoint checkpoint) {
+        PageFileFormat format = PageFileFormat.of(pageFile);
+        Map<String, CompletableFuture<Path>> spooledPages =
+                spooledPagesByJob.computeIfAbsent(job.getJobId(), id -> new ConcurrentHashMap<>());
+        pageWrites.submit(job.getJobId(), () -> {
+            CompletableFuture<Path> written = new CompletableFuture<>();
+            try {
+                Files.createDirectories(pageFile.getParent());
+                String key = format + ":" + pageFile.getParent() + ":" + PageDigest.of(image);
+                CompletableFuture<Path> first = spooledPages.putIfAbsent(key, written);
+                if (first != null && linkToSpooledPage(first.join(), pageFile)) {
+                    logger.debug("Saved {} page {} for job {} as a duplicate of {}", tier, pageNumber, job.getJobId(), first.join());
+                } else {
+                    writePageFile(image, pageFile, format);
+                    written.complete(pageFile);
+                    logger.debug("Saved {} page {} for job {} to {}", tier, pageNumber, job.getJobId(), pageFile);
+                }
+                if (checkpoint != null) {
+                    checkpoint.record(pageNumber, pageFile);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to save {} page {} for job {}", tier, pageNumber, job.getJobId(), e);
+                throw e;
+            } finally {
+                written.complete(null); // lets waiting duplicates write the page themselves
+            }
+        });
+    }
 
-        List<Path> pageFiles;
-        try (Stream<Path> paths = Files.list(pagesDir)) {
-            pageFiles = paths.filter(p -> p.toString().endsWith(".png"))
-                    .sorted(Comparator.naturalOrder())
-                    .collect(Collectors.toList());
+    /**
+     * Writes under a temporary name and moves the file into place, so a page file that is a
+     * link shared with other pages is replaced rather than overwritten.
+     */
+    private static void writePageFile(BufferedImage image, Path pageFile, PageFileFormat format) throws IOException {
+        Path temporary = pageFile.resolveSibling(pageFile.getFileName() + ".tmp");
+        try {
+            if (format == PageFileFormat.PNG) {
+                ImageIO.write(image, "png", temporary.toFile());
+            } else {
+                RasterPageFile.write(image, temporary);
+            }
+            Files.move(temporary, pageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
         }
+    }
 
-        if (pageFiles.isEmpty()) {
-            logger.warn("Rendered pages directory is empty for job {}.", job.getJobId());
-            return;
+    /**
+     * @param spooledPage The file holding an identical page, or null if it could not be written.
+     * @return false if there is no file to share and the page has to be written.
+     */
+    private static boolean linkToSpooledPage(Path spooledPage, Path pageFile) throws IOException {
+        if (spooledPage == null) {
+            return false;
+        }
+        if (spooledPage.equals(pageFile)) {
+            return true;
         }
+        Files.deleteIfExists(pageFile);
+        try {
+            Files.createLink(pageFile, spooledPage);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(spooledPage, pageFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
 
-        logger.info("Finishing job {}. Assembling {} pages into PDF: {}", job.getJobId(), pageFiles.size(), pdfPath);
+    /**
+     * Opens the job's PDF for incremental assembly: pages are added as they are rendered,
+     * without page files in between.
+     * <p>
+     * This is the only way rendered print pages reach the PDF. The printer no longer spools
+     * print pages to files to assemble them afterwards: the PDF is the only reader of print
+     * pages (previews have their own files), so the page files only cost one more encode,
+     * write and read per page.
+     *
+     * @param job The job to print.
+     * @return An assembler; call {@link PdfAssembler#finish()} after the last page, and close it in any case.
+     */
+    public PdfAssembler openPdf(PrintJob job) {
+        return new PdfAssembler(job, pdfFile(job));
+    }
 
-        try (PDDocument document = new PDDocument()) {
-            for (Path pageFile : pageFiles) {
-                BufferedImage pageImage = ImageIO.read(pageFile.toFile());
-                float pointsPerPixel = 72f / job.getSettings().dpi();
-                float widthInPoints = pageImage.getWidth() * pointsPerPixel;
-                float heightInPoints = pageImage.getHeight() * pointsPerPixel;
+    /**
+     * @param job The job.
+     * @return The file the job's finished PDF is written to.
+     */
+    public Path pdfFile(PrintJob job) {
+        return outputDirectory.resolve(job.getJobId()).resolve("output.pdf");
+    }
 
-                PDPage pdfPage = new PDPage(new PDRectangle(widthInPoints, heightInPoints));
-                document.addPage(pdfPage);
+    /**
+     * Describes what, apart from the job's text and layout, decides the bytes
+     * {@link #finishTextJob} writes, such as the configured font. Two text PDFs of the same
+     * document and settings are identical as long as this does not change.
+     *
+     * @return The description, for use in cache keys.
+     */
+    public static String textPdfFormat() {
+        return TextPdfWriter.format();
+    }
 
-                PDImageXObject pdImage = PDImageXObject.createFromFile(pageFile.toString(), document);
+    /**
+     * Deletes what the printer keeps of a job only while it is in progress: an unfinished PDF,
+     * print-resolution page files left by earlier versions, the preview checkpoint and temporary files of interrupted
+     * writes. The job's PDF and its preview pages are kept.
+     *
+     * @param job A job that has reached a final state.
+     * @return The number of bytes freed.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public long cleanIntermediates(PrintJob job) throws IOException {
+        return cleanIntermediates(job.getJobId());
+    }
 
-                try (PDPageContentStream contentStream = new PDPageContentStream(document, pdfPage)) {
-                    contentStream.drawImage(pdImage, 0, 0, widthInPoints, heightInPoints);
+    /**
+     * Like {@link #cleanIntermediates(PrintJob)}, for a job known only by its ID.
+     *
+     * @param jobId The ID of a job that has reached a final state.
+     * @return The number of bytes freed.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public long cleanIntermediates(String jobId) throws IOException {
+        Path jobOutputDir = outputDirectory.resolve(jobId);
+        long freed = FileTrees.delete(jobOutputDir.resolve(RENDERED_PAGES_DIR_NAME));
+        freed += FileTrees.delete(jobOutputDir.resolve("output.pdf" + PdfFileWriter.PART_SUFFIX));
+        freed += FileTrees.delete(jobOutputDir.resolve("output.pdf.tmp")); // an interrupted copy from the render cache
+        Path previewDir = jobOutputDir.resolve(PREVIEW_PAGES_DIR_NAME);
+        freed += FileTrees.delete(previewDir.resolve(PageCheckpoint.FILE_NAME));
+        if (Files.isDirectory(previewDir)) {
+            try (Stream<Path> files = Files.list(previewDir)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".tmp")).toList()) {
+                    freed += FileTrees.delete(file);
                 }
             }
-            document.save(pdfPath.toFile());
-            logger.info("Successfully created PDF for job {}", job.getJobId());
         }
+        return freed;
+    }
+
+    /**
+     * @param file A file.
+     * @return true if the file is a page file of one of the {@link PageFileFormat}s.
+     */
+    public static boolean isPageFile(Path file) {
+        return PageFileFormat.of(file) != null;
+    }
+
+    /**
+     * Reads a page file of either format, e.g. to show a preview page.
+     *
+     * @param pageFile A page or preview page file.
+     * @return The page image.
+     * @throws IOException if the file cannot be read.
+     */
+    public static BufferedImage readPageFile(Path pageFile) throws IOException {
+        if (PageFileFormat.of(pageFile) == PageFileFormat.RASTER) {
+            return RasterPageFile.read(pageFile);
+        }
+        BufferedImage image = ImageIO.read(pageFile.toFile());
+        if (image == null) {
+            throw new IOException("Unreadable page file: " + pageFile);
+        }
+        return image;
+    }
+
+    /**
+     * Builds the PDF of a plain-text job directly from its text, skipping the rendered bitmaps.
+     * The output is paginated exactly like the raster pages, which remain for previews. Like
+     * {@link #openPdf}, the PDF is written page by page under a temporary name and only replaces
+     * {@code output.pdf} once complete.
+     *
+     * @param job The job to finish.
+     * @param source The job's text source.
+     * @param layout The layout of the source under the job's settings.
+     * @throws IOException if the source cannot be read or the PDF cannot be written.
+     */
+    public void finishTextJob(PrintJob job, TextPageSource source, TextPageLayout layout) throws IOException {
+        if (layout.getTotalPages() == 0) {
+            logger.warn("Text job {} has no pages. Cannot create PDF.", job.getJobId());
+            return;
+        }
+        Path pdfPath = pdfFile(job);
+        Files.createDirectories(pdfPath.getParent());
+
+        logger.info("Finishing job {}. Writing {} text pages into PDF: {}", job.getJobId(), layout.getTotalPages(), pdfPath);
+        TextPdfWriter.write(job, source, layout, pdfPath);
+        logger.info("Successfully created PDF for job {}", job.getJobId());
+    }
+
+    private String pageFileName(int pageNumber) {
+        return String.format("page_%04d", pageNumber) + pageFileFormat.extension();
     }
 
     private void ensureOutputDirectoryExists() {
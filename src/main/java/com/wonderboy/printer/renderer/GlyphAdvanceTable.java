@@ -0,0 +1,75 @@
+package com.wonderboy.printer.renderer;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+
+/**
+ * Pre-measured advance widths of one font under one {@link FontRenderContext}.
+ * <p>
+ * {@link FontMetrics#stringWidth(String)} adds up per-character float advances and rounds
+ * once at the end. The table stores those same float advances, so summing them in the same
+ * order gives bit-identical widths without creating the string first. Only characters below
+ * U+0300 are tabled; from there on the JDK may switch to full text layout (combining marks,
+ * complex scripts), which is not additive, and callers must measure such text directly.
+ */
+final class GlyphAdvanceTable {
+
+    /** Characters below this code point are measured by simple advance summation. */
+    static final int TABLE_SIZE = 0x300;
+
+    private static final char FIRST_PRINTABLE = 0x20;
+    private static final char LAST_PRINTABLE = 0x7E;
+
+    private final float[] advances = new float[TABLE_SIZE];
+    // 等宽字体快速路径：可打印 ASCII 的统一整数步进，否则为 -1
+    private final float constantAdvance;
+
+    GlyphAdvanceTable(FontMetrics metrics) {
+        Font font = metrics.getFont();
+        FontRenderContext frc = metrics.getFontRenderContext();
+        char[] single = new char[1];
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            single[0] = (char) c;
+            advances[c] = (float) font.getStringBounds(single, 0, 1, frc).getWidth();
+        }
+
+        float uniform = advances[FIRST_PRINTABLE];
+        for (char c = FIRST_PRINTABLE; c <= LAST_PRINTABLE; c++) {
+            if (advances[c] != uniform) {
+                uniform = -1f;
+                break;
+            }
+        }
+        // Integer advances add up exactly in float arithmetic, so n * advance equals the summed width.
+        this.constantAdvance = uniform >= 0f && uniform == (float) Math.rint(uniform) ? uniform : -1f;
+    }
+
+    /**
+     * @return The advance of a character; only valid for characters below {@link #TABLE_SIZE}.
+     */
+    float advance(char c) {
+        return advances[c];
+    }
+
+    /**
+     * @return true if every printable ASCII character has the same integral advance.
+     */
+    boolean hasConstantAdvance() {
+        return constantAdvance >= 0f;
+    }
+
+    float constantAdvance() {
+        return constantAdvance;
+    }
+
+    static boolean isPrintableAscii(char c) {
+        return c >= FIRST_PRINTABLE && c <= LAST_PRINTABLE;
+    }
+
+    /**
+     * Rounds a summed width the same way {@link FontMetrics#stringWidth(String)} does.
+     */
+    static int round(float width) {
+        return (int) (0.5 + width);
+    }
+}
@@ -0,0 +1,38 @@
+package com.wonderboy.printer.renderer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Receives a page as a sequence of horizontal bands, from top to bottom.
+ * Used with {@link PageRenderer#renderBands} so that no full-page image has to exist.
+ */
+public interface PageBandConsumer {
+
+    /**
+     * Called once before the first band.
+     *
+     * @param pageWidth  The page width in pixels (also the width of every band).
+     * @param pageHeight The page height in pixels.
+     * @param imageType  The {@link BufferedImage} type the bands are rendered in.
+     * @throws IOException if the consumer cannot prepare its output.
+     */
+    void beginPage(int pageWidth, int pageHeight, int imageType) throws IOException;
+
+    /**
+     * Called for each band. The image is a buffer owned by the renderer and is overwritten
+     * by the next band, so it must be consumed (or copied) before returning.
+     *
+     * @param band The band pixels; its height is the band height, or less for the last band.
+     * @param y    The page row at which the band starts.
+     * @throws IOException if the band cannot be written.
+     */
+    void acceptBand(BufferedImage band, int y) throws IOException;
+
+    /**
+     * Called once after the last band.
+     *
+     * @throws IOException if the consumer cannot complete its output.
+     */
+    void endPage() throws IOException;
+}
@@ -3,6 +3,7 @@ package com.wonderboy.printer.renderer;
 import com.wonderboy.printer.model.PrintSettings;
 import com.wonderboy.printer.source.PageSource;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -32,4 +33,69 @@ public interface PageRenderer {
      * @throws IOException 读取源时发生错误
      */
     int getTotalPages(PageSource source, PrintSettings settings) throws IOException;
+
+    /**
+     * 渲染屏幕分辨率的预览页
+     * <p>
+     * The preview shows the page exactly as it will print, only at a lower resolution.
+     * The default implementation renders the page at print resolution and scales it down;
+     * renderers that can draw at any resolution should override it.
+     *
+     * @param source 源文件
+     * @param pageIndex 页码
+     * @param settings 打印设置
+     * @param previewDpi 预览分辨率
+     * @return 预览位图
+     * @throws IOException 读取源时发生错误
+     */
+    default BufferedImage renderPreview(PageSource source, int pageIndex, PrintSettings settings, int previewDpi) throws IOException {
+        BufferedImage page = render(source, pageIndex, settings);
+        double factor = Math.min(1.0, (double) previewDpi / settings.dpi());
+        int width = Math.max(1, (int) Math.round(page.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(page.getHeight() * factor));
+        BufferedImage preview = new BufferedImage(width, height, previewImageType(page.getType()));
+        Graphics2D g2d = preview.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(page, 0, 0, width, height, null);
+        } finally {
+            g2d.dispose();
+        }
+        return preview;
+    }
+
+    /**
+     * 预览位图格式：彩色保持 ARGB，其余用 8 位灰度（1 位图缩小后字形会断裂）
+     *
+     * @param imageType The {@link BufferedImage} type of the print-resolution page.
+     * @return The type to render the preview in.
+     */
+    static int previewImageType(int imageType) {
+        return imageType == BufferedImage.TYPE_INT_ARGB ? imageType : BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    /**
+     * 分带渲染：按水平条带依次渲染一页，峰值内存只与条带高度有关
+     * <p>
+     * The default implementation renders the whole page and hands it out in slices;
+     * renderers that can draw a band directly should override it.
+     *
+     * @param source 源文件
+     * @param pageIndex 页码
+     * @param settings 打印设置
+     * @param bandHeight 条带高度（像素）
+     * @param consumer 接收条带
+     * @throws IOException 读取源或写出条带时发生错误
+     */
+    default void renderBands(PageSource source, int pageIndex, PrintSettings settings,
+                             int bandHeight, PageBandConsumer consumer) throws IOException {
+        BufferedImage page = render(source, pageIndex, settings);
+        int width = page.getWidth();
+        int height = page.getHeight();
+        consumer.beginPage(width, height, page.getType());
+        for (int y = 0; y < height; y += bandHeight) {
+            consumer.acceptBand(page.getSubimage(0, y, width, Math.min(bandHeight, height - y)), y);
+        }
+        consumer.endPage();
+    }
 }
\ No newline at end of file
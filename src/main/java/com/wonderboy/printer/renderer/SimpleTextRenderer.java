@@ -1,142 +1,247 @@
 package com.wonderboy.printer.renderer;
 
-import com.wonderboy.printer.model.PaperSize;
 import com.wonderboy.printer.model.PrintSettings;
 import com.wonderboy.printer.source.PageSource;
 import com.wonderboy.printer.source.TextPageSource;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class SimpleTextRenderer implements PageRenderer {
 
-    private static final double INCH_TO_MM = 25.4;
+    // 布局缓存：每个 (文件, 大小, 修改时间, settings) 只折行、分页一次，预览和打印阶段各自打开的 source 共用。
+    // The map holds futures and is only locked to look them up: a layout is built outside the
+    // lock, so only callers for the same document wait for it.
+    private static final int MAX_CACHED_LAYOUTS = 16;
+    private final Map<LayoutKey, CompletableFuture<TextPageLayout>> layoutCache =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LayoutKey, CompletableFuture<TextPageLayout>> eldest) {
+                    return size() > MAX_CACHED_LAYOUTS;
+                }
+            };
+
+    private record LayoutKey(Path file, long size, FileTime lastModified, PrintSettings settings) {
+    }
 
     @Override
     public BufferedImage render(PageSource source, int pageIndex, PrintSettings settings) throws IOException {
-        if (!(source instanceof TextPageSource textSource)) {
-            throw new IllegalArgumentException("SimpleTextRenderer only supports TextPageSource.");
-        }
+        TextPageSource textSource = asTextSource(source);
 
-        // 1. Calculate page dimensions in pixels
-        PaperSize paper = settings.paper();
-        int dpi = settings.dpi();
-        int pageWidth = (int) Math.round(paper.getWidthInMm() / INCH_TO_MM * dpi);
-        int pageHeight = (int) Math.round(paper.getHeightInMm() / INCH_TO_MM * dpi);
+        // 1. Look up (or build) the pagination for this document
+        TextPageLayout layout = layout(textSource, settings);
+        int pageWidth = layout.getPageWidth();
+        int pageHeight = layout.getPageHeight();
 
         // 2. Create blank page image (our canvas)
-        BufferedImage pageImage = new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage pageImage = new BufferedImage(pageWidth, pageHeight, layout.getImageType());
         Graphics2D g2d = pageImage.createGraphics();
 
         try {
-            // 3. Setup graphics context for high-quality rendering
-            g2d.setColor(Color.WHITE);
-            g2d.fillRect(0, 0, pageWidth, pageHeight);
-            g2d.setColor(Color.BLACK);
-            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-
-            // 4. Set font and get font metrics
-            Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12 * dpi / 72); // 12pt font
-            g2d.setFont(font);
-            FontMetrics metrics = g2d.getFontMetrics();
-            int lineHeight = metrics.getHeight();
-
-            // 5. Define printable area with 1-inch margins
-            int margin = dpi; // 1 inch = dpi pixels
-            int contentWidth = pageWidth - (2 * margin);
-            int contentHeight = pageHeight - (2 * margin);
-            int currentX = margin;
-            int currentY = margin + metrics.getAscent();
-
-            // 6. Paginate and draw the content
-            List<String> wrappedLines = wordWrap(textSource.getLines(), metrics, contentWidth);
-            int totalPages = (int) Math.ceil((double) (wrappedLines.size() * lineHeight) / contentHeight);
-
-            int linesPerPage = contentHeight / lineHeight;
-            int startLine = pageIndex * linesPerPage;
-            int endLine = Math.min(startLine + linesPerPage, wrappedLines.size());
-
-            if (startLine >= wrappedLines.size()) {
-                // Requesting a page that is out of bounds, return a blank page.
-                return pageImage;
-            }
-
-            for (int i = startLine; i < endLine; i++) {
-                g2d.drawString(wrappedLines.get(i), currentX, currentY);
-                currentY += lineHeight;
-            }
-
-            // 7. Draw page number
-            String pageNumberText = String.format("Page %d of %d", pageIndex + 1, totalPages);
-            int textWidth = metrics.stringWidth(pageNumberText);
-            g2d.drawString(pageNumberText, (pageWidth - textWidth) / 2, pageHeight - margin / 2);
-
+            // 3. Paint the whole page
+            paintPage(g2d, layout, pageLines(layout, textSource, pageIndex), pageIndex, 0, pageHeight, layout.isAntialiased());
         } finally {
-            // 8. Clean up resources
+            // 4. Clean up resources
             g2d.dispose();
         }
 
         return pageImage;
     }
 
+    /**
+     * Draws the print layout through a scaling transform straight into a preview-sized image,
+     * so the preview paginates exactly like the print without ever rendering the full page.
+     * The preview is anti-aliased even when the print is 1-bit.
+     */
     @Override
-    public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
-        if (!(source instanceof TextPageSource textSource)) {
-            throw new IllegalArgumentException("SimpleTextRenderer only supports TextPageSource.");
+    public BufferedImage renderPreview(PageSource source, int pageIndex, PrintSettings settings, int previewDpi) throws IOException {
+        TextPageSource textSource = asTextSource(source);
+        TextPageLayout layout = layout(textSource, settings);
+        double factor = Math.min(1.0, (double) previewDpi / settings.dpi());
+        int width = Math.max(1, (int) Math.round(layout.getPageWidth() * factor));
+        int height = Math.max(1, (int) Math.round(layout.getPageHeight() * factor));
+
+        BufferedImage preview = new BufferedImage(width, height, PageRenderer.previewImageType(layout.getImageType()));
+        Graphics2D g2d = preview.createGraphics();
+        try {
+            // The rounded preview size can exceed the scaled page by a fraction of a pixel.
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, width, height);
+            g2d.scale(factor, factor);
+            paintPage(g2d, layout, pageLines(layout, textSource, pageIndex), pageIndex, 0, layout.getPageHeight(), true);
+        } finally {
+            g2d.dispose();
         }
+        return preview;
+    }
 
-        int dpi = settings.dpi();
-        int margin = dpi;
-        int pageHeight = (int) Math.round(settings.paper().getHeightInMm() / INCH_TO_MM * dpi);
-        int contentHeight = pageHeight - (2 * margin);
+    /**
+     * Renders the page into one reused band buffer, painting only the lines that intersect
+     * each band. The page's lines are read once for all bands. The bands are pixel-identical
+     * to the corresponding rows of {@link #render}.
+     */
+    @Override
+    public void renderBands(PageSource source, int pageIndex, PrintSettings settings,
+                            int bandHeight, PageBandConsumer consumer) throws IOException {
+        TextPageSource textSource = asTextSource(source);
+        TextPageLayout layout = layout(textSource, settings);
+        int pageWidth = layout.getPageWidth();
+        int pageHeight = layout.getPageHeight();
+        int height = Math.min(bandHeight, pageHeight);
+        List<String> lines = pageLines(layout, textSource, pageIndex);
+
+        BufferedImage band = new BufferedImage(pageWidth, height, layout.getImageType());
+        consumer.beginPage(pageWidth, pageHeight, layout.getImageType());
+        for (int y = 0; y < pageHeight; y += height) {
+            int rows = Math.min(height, pageHeight - y);
+            Graphics2D g2d = band.createGraphics();
+            try {
+                // Shift the page up so that page row y lands on band row 0.
+                g2d.translate(0, -y);
+                paintPage(g2d, layout, lines, pageIndex, y, y + rows, layout.isAntialiased());
+            } finally {
+                g2d.dispose();
+            }
+            consumer.acceptBand(rows == height ? band : band.getSubimage(0, 0, pageWidth, rows), y);
+        }
+        consumer.endPage();
+    }
 
-        Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12 * dpi / 72);
-        // Create a temporary image to get FontMetrics
-        BufferedImage tempImg = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = tempImg.createGraphics();
-        g2d.setFont(font);
-        FontMetrics metrics = g2d.getFontMetrics();
-        g2d.dispose();
+    /**
+     * @return The lines of a page, read from the source; none for a page past the end.
+     */
+    private static List<String> pageLines(TextPageLayout layout, TextPageSource textSource, int pageIndex) throws IOException {
+        return pageIndex < layout.getTotalPages() ? layout.pageLines(textSource.getLines(), pageIndex) : List.of();
+    }
 
+    /**
+     * Paints the rows {@code [top, bottom)} of a page onto a graphics context in page coordinates.
+     *
+     * @param lines The page's lines, from {@link #pageLines}.
+     */
+    private void paintPage(Graphics2D g2d, TextPageLayout layout, List<String> lines,
+                           int pageIndex, int top, int bottom, boolean antialiased) {
+        int pageWidth = layout.getPageWidth();
+        int pageHeight = layout.getPageHeight();
+
+        // Setup graphics context for high-quality rendering
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, top, pageWidth, bottom - top);
+        g2d.setColor(Color.BLACK);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, TextPageLayout.antialiasHint(antialiased));
+
+        // Set font; positions come from the layout's metrics, which do not depend on the
+        // transform, so a preview drawn through a scaling transform lines up with the print.
+        g2d.setFont(layout.getFont());
+        FontMetrics metrics = layout.getMetrics();
         int lineHeight = metrics.getHeight();
-        if (lineHeight == 0) return 0;
 
-        int contentWidth = (int) Math.round(settings.paper().getWidthInMm() / INCH_TO_MM * dpi) - (2*margin);
-        List<String> wrappedLines = wordWrap(textSource.getLines(), metrics, contentWidth);
+        if (pageIndex >= layout.getTotalPages()) {
+            // Requesting a page that is out of bounds, leave it blank.
+            return;
+        }
+
+        // Draw the lines of this page inside the 1-inch margins, skipping those outside [top, bottom).
+        // The text is scaled by the transform, so it is drawn at full resolution rather than resampled.
+        int margin = layout.getMargin();
+        double scale = layout.getScale();
+        double ascent = (metrics.getMaxAscent() + 1) * scale;
+        double descent = (metrics.getMaxDescent() + 1) * scale;
+        AffineTransform pageTransform = g2d.getTransform();
+        g2d.translate(margin, margin);
+        g2d.scale(scale, scale);
+        int currentY = metrics.getAscent();
+        for (String line : lines) {
+            double baseline = margin + currentY * scale;
+            if (intersects(baseline, ascent, descent, top, bottom)) {
+                g2d.drawString(line, 0, currentY);
+            }
+            currentY += lineHeight;
+        }
+        g2d.setTransform(pageTransform);
 
-        return (int) Math.ceil((double) (wrappedLines.size() * lineHeight) / contentHeight);
+        // Draw page number
+        int footerY = pageHeight - margin / 2;
+        if (intersects(footerY, metrics.getMaxAscent() + 1, metrics.getMaxDescent() + 1, top, bottom)) {
+            String pageNumberText = String.format("Page %d of %d", pageIndex + 1, layout.getTotalPages());
+            int textWidth = metrics.stringWidth(pageNumberText);
+            g2d.drawString(pageNumberText, (pageWidth - textWidth) / 2, footerY);
+        }
     }
 
     /**
-     * A simple word-wrap algorithm.
+     * Tests whether a line drawn at {@code baseline} touches the rows {@code [top, bottom)}.
+     * Callers add one extra pixel to the ascent and descent for anti-aliased glyph edges.
      */
-    private List<String> wordWrap(List<String> originalLines, FontMetrics metrics, int maxWidth) {
-        List<String> wrappedLines = new ArrayList<>();
-        for (String line : originalLines) {
-            if (metrics.stringWidth(line) <= maxWidth) {
-                wrappedLines.add(line);
-            } else {
-                String[] words = line.split(" ");
-                StringBuilder currentLine = new StringBuilder();
-                for (String word : words) {
-                    if (metrics.stringWidth(currentLine + " " + word) > maxWidth) {
-                        wrappedLines.add(currentLine.toString());
-                        currentLine = new StringBuilder(word);
-                    } else {
-                        if (!currentLine.isEmpty()) {
-                            currentLine.append(" ");
-                        }
-                        currentLine.append(word);
-                    }
-                }
-                if (!currentLine.isEmpty()) {
-                    wrappedLines.add(currentLine.toString());
+    private static boolean intersects(double baseline, double ascent, double descent, int top, int bottom) {
+        return baseline + descent >= top && baseline - ascent < bottom;
+    }
+
+    @Override
+    public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+        return layout(asTextSource(source), settings).getTotalPages();
+    }
+
+    /**
+     * Returns the cached layout of a document, building it on first use. Sources opened on the
+     * same, unchanged file share the layout.
+     *
+     * @param source   The text source.
+     * @param settings The print settings.
+     * @return The pagination of the document under these settings.
+     * @throws IOException if the source cannot be read.
+     */
+    public TextPageLayout layout(TextPageSource source, PrintSettings settings) throws IOException {
+        Path file = source.getPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        LayoutKey key = new LayoutKey(file, attributes.size(), attributes.lastModifiedTime(), settings);
+        CompletableFuture<TextPageLayout> layout;
+        boolean build = false;
+        synchronized (layoutCache) {
+            layout = layoutCache.get(key);
+            if (layout == null) {
+                layout = new CompletableFuture<>();
+                layoutCache.put(key, layout);
+                build = true;
+            }
+        }
+        if (build) {
+            try {
+                layout.complete(TextPageLayout.build(source.getLines(), settings));
+            } catch (IOException | RuntimeException e) {
+                // 失败的布局不缓存，下次重新构建
+                synchronized (layoutCache) {
+                    layoutCache.remove(key, layout);
                 }
+                layout.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return layout.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw new IOException("Could not lay out " + file + ": " + cause.getMessage(), cause);
             }
+            throw e;
+        }
+    }
+
+    private static TextPageSource asTextSource(PageSource source) {
+        if (!(source instanceof TextPageSource textSource)) {
+            throw new IllegalArgumentException("SimpleTextRenderer only supports TextPageSource.");
         }
-        return wrappedLines;
+        return textSource;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,249 @@
+package com.wonderboy.printer.renderer;
+
+import com.wonderboy.printer.model.PrintSettings;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The pagination of one text document under one set of {@link PrintSettings}.
+ * <p>
+ * The document is word-wrapped exactly once when the layout is built. Instead of keeping
+ * every wrapped line, the layout only remembers where each page starts: the index of the
+ * source line and how many wrapped segments of that line belong to the previous page.
+ * A page is then rebuilt by wrapping just the source lines it covers, so rendering N pages
+ * costs O(N) wrapping work in total and the index stays at two ints per page.
+ * <p>
+ * {@link PrintSettings#scale()} scales the text, not the page: lines are laid out in an
+ * unscaled text area of the device content area divided by the scale, and drawn through a
+ * scaling transform, so a scaled page is rendered once at full resolution and never resampled.
+ * Margins and the page footer keep their size.
+ */
+public final class TextPageLayout {
+
+    /** Monochrome pages at or above this resolution are rendered 1-bit, below it in 8-bit gray. */
+    public static final int BILEVEL_MIN_DPI = 300;
+
+    // 分页时每次从源取出的行数
+    private static final int PAGINATION_CHUNK_LINES = 1024;
+
+    private final int imageType;
+    private final boolean antialiased;
+    private final int pageWidth;
+    private final int pageHeight;
+    private final int margin;
+    private final double scale;
+    private final int contentWidth;
+    private final int contentHeight;
+    private final Font font;
+    private final FontMetrics metrics;
+    private final TextWrapper wrapper;
+    private final int linesPerPage;
+
+    // 页索引：第 i 页从 pageFirstLine[i] 行的第 pageFirstSegment[i] 个折行片段开始
+    private int[] pageFirstLine = new int[16];
+    private int[] pageFirstSegment = new int[16];
+    private int totalPages;
+    private int wrappedLineCount;
+
+    private TextPageLayout(PrintSettings settings) {
+        int dpi = settings.dpi();
+        this.imageType = imageTypeFor(settings);
+        this.antialiased = imageType != BufferedImage.TYPE_BYTE_BINARY;
+        this.pageWidth = settings.pageWidthInPixels();
+        this.pageHeight = settings.pageHeightInPixels();
+        this.margin = dpi; // 1 inch = dpi pixels
+        this.scale = settings.scale();
+        // 文本区域以未缩放的文字坐标表示：缩放 0.5 时一行可容纳两倍的字符
+        this.contentWidth = (int) ((pageWidth - 2 * margin) / scale);
+        this.contentHeight = (int) ((pageHeight - 2 * margin) / scale);
+        this.font = new Font(Font.MONOSPACED, Font.PLAIN, 12 * dpi / 72); // 12pt font
+        this.metrics = createMetrics(font, antialiased);
+        this.wrapper = new TextWrapper(metrics);
+        int lineHeight = metrics.getHeight();
+        this.linesPerPage = lineHeight > 0 ? Math.max(1, contentHeight / lineHeight) : 0;
+    }
+
+    /**
+     * Wraps the whole document once and builds the page index.
+     *
+     * @param sourceLines The unwrapped lines of the document.
+     * @param settings    The print settings that determine page and font size.
+     * @return The layout of the document.
+     */
+    public static TextPageLayout build(List<String> sourceLines, PrintSettings settings) {
+        TextPageLayout layout = new TextPageLayout(settings);
+        layout.paginate(sourceLines);
+        return layout;
+    }
+
+    private void paginate(List<String> sourceLines) {
+        if (linesPerPage == 0) {
+            return;
+        }
+        int wrapped = 0;
+        for (int chunkStart = 0; chunkStart < sourceLines.size(); chunkStart += PAGINATION_CHUNK_LINES) {
+            // 按块取行，文件来源的行列表一次读取整块
+            List<String> chunk = sourceLines.subList(chunkStart, Math.min(sourceLines.size(), chunkStart + PAGINATION_CHUNK_LINES));
+            for (int i = 0; i < chunk.size(); i++) {
+                int segments = wrapper.countLines(chunk.get(i), contentWidth);
+                // Record every page boundary that falls inside this source line.
+                int nextPageStart = totalPages * linesPerPage;
+                while (nextPageStart < wrapped + segments) {
+                    addPage(chunkStart + i, nextPageStart - wrapped);
+                    nextPageStart += linesPerPage;
+                }
+                wrapped += segments;
+            }
+        }
+        wrappedLineCount = wrapped;
+    }
+
+    private void addPage(int firstLine, int firstSegment) {
+        if (totalPages == pageFirstLine.length) {
+            pageFirstLine = Arrays.copyOf(pageFirstLine, totalPages * 2);
+            pageFirstSegment = Arrays.copyOf(pageFirstSegment, totalPages * 2);
+        }
+        pageFirstLine[totalPages] = firstLine;
+        pageFirstSegment[totalPages] = firstSegment;
+        totalPages++;
+    }
+
+    /**
+     * Returns the wrapped lines that make up one page.
+     *
+     * @param sourceLines The same source lines the layout was built from.
+     * @param pageIndex   The 0-based page index.
+     * @return The lines to draw on the page, or an empty list if the page is out of bounds.
+     */
+    public List<String> pageLines(List<String> sourceLines, int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= totalPages) {
+            return List.of();
+        }
+        List<String> lines = new ArrayList<>(linesPerPage);
+        int skip = pageFirstSegment[pageIndex];
+        // 本页的源行止于下一页的首行（该行可能跨页），整页的行一次取出
+        int lastLine = pageIndex + 1 < totalPages ? pageFirstLine[pageIndex + 1] : sourceLines.size() - 1;
+        List<String> pageSource = sourceLines.subList(pageFirstLine[pageIndex], Math.min(sourceLines.size(), lastLine + 1));
+        for (int line = 0; line < pageSource.size() && lines.size() < linesPerPage; line++) {
+            String text = pageSource.get(line);
+            int firstSegment = skip;
+            int[] segment = {0};
+            wrapper.wrap(text, contentWidth, (begin, end) -> {
+                if (segment[0]++ >= firstSegment && lines.size() < linesPerPage) {
+                    lines.add(text.substring(begin, end));
+                }
+            });
+            skip = 0;
+        }
+        return lines;
+    }
+
+    public int getImageType() {
+        return imageType;
+    }
+
+    public boolean isAntialiased() {
+        return antialiased;
+    }
+
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    public int getWrappedLineCount() {
+        return wrappedLineCount;
+    }
+
+    public int getLinesPerPage() {
+        return linesPerPage;
+    }
+
+    public int getPageWidth() {
+        return pageWidth;
+    }
+
+    public int getPageHeight() {
+        return pageHeight;
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * @return The factor the text is drawn at; see the class comment.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return The width lines are wrapped to, in unscaled text pixels.
+     */
+    public int getContentWidth() {
+        return contentWidth;
+    }
+
+    /**
+     * @return The height of the text area, in unscaled text pixels.
+     */
+    public int getContentHeight() {
+        return contentHeight;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public FontMetrics getMetrics() {
+        return metrics;
+    }
+
+    TextWrapper getWrapper() {
+        return wrapper;
+    }
+
+    /**
+     * Picks the narrowest raster format for the settings: the renderer only draws black text
+     * on white, so colour pages never need more than ARGB and monochrome pages need at most
+     * 8-bit gray. At {@link #BILEVEL_MIN_DPI} and above, 1-bit without anti-aliasing is
+     * indistinguishable on paper and 8 times smaller than gray.
+     * <p>
+     * This only concerns pages rendered at print resolution. Text jobs are written as vector
+     * text by default and get no print bitmaps at all; they are rendered, and thus 1-bit, only
+     * with {@code -Dprinter.textOutput=raster} (see {@code SpoolerWorker#setVectorTextOutput}).
+     *
+     * @param settings The print settings.
+     * @return The {@link BufferedImage} type pages are rendered in.
+     */
+    public static int imageTypeFor(PrintSettings settings) {
+        if (settings.isColor()) {
+            return BufferedImage.TYPE_INT_ARGB;
+        }
+        return settings.dpi() >= BILEVEL_MIN_DPI ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    static Object antialiasHint(boolean antialiased) {
+        return antialiased ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF;
+    }
+
+    /**
+     * Measures text with the same rendering hints the renderer draws with,
+     * so the layout wraps exactly where the page will be drawn.
+     */
+    private static FontMetrics createMetrics(Font font, boolean antialiased) {
+        BufferedImage tempImg = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = tempImg.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, antialiasHint(antialiased));
+            g2d.setFont(font);
+            return g2d.getFontMetrics();
+        } finally {
+            g2d.dispose();
+        }
+    }
+}
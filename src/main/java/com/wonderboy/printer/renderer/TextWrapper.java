@@ -0,0 +1,207 @@
+package com.wonderboy.printer.renderer;
+
+import java.awt.*;
+
+/**
+ * Word-wraps single lines of text without allocating intermediate strings.
+ * <p>
+ * Breaks are reported as {@code [begin, end)} character ranges of the source line. The rules
+ * are those of the original {@code split(" ")}-based wrapper, kept byte-for-byte: words are
+ * separated by single spaces, a candidate line is measured as {@code current + " " + word},
+ * leading spaces are dropped at a break, trailing spaces are dropped, and a word wider than the
+ * line is emitted on its own (after an empty line if it is the first word).
+ * <p>
+ * Widths are accumulated over character indices using a {@link GlyphAdvanceTable}. Lines made
+ * of printable ASCII in a font with a constant integral advance (MONOSPACED) are measured as
+ * {@code length * advance}. Lines containing characters that need full text layout fall back
+ * to {@link FontMetrics#stringWidth(String)}.
+ */
+final class TextWrapper {
+
+    /**
+     * Receives the wrapped segments of a line, in order.
+     */
+    @FunctionalInterface
+    interface SegmentSink {
+        void segment(int begin, int end);
+    }
+
+    private static final SegmentSink DISCARD = (begin, end) -> { };
+
+    private final FontMetrics metrics;
+    private final GlyphAdvanceTable table;
+    private final float spaceAdvance;
+
+    TextWrapper(FontMetrics metrics) {
+        this.metrics = metrics;
+        this.table = new GlyphAdvanceTable(metrics);
+        this.spaceAdvance = table.advance(' ');
+    }
+
+    /**
+     * Counts the wrapped lines a source line produces.
+     */
+    int countLines(String line, int maxWidth) {
+        return wrap(line, maxWidth, DISCARD);
+    }
+
+    /**
+     * Wraps one source line.
+     *
+     * @param line     The source line, without line terminator.
+     * @param maxWidth The available width in pixels.
+     * @param sink     Receives each wrapped segment as a character range of {@code line}.
+     * @return The number of segments produced.
+     */
+    int wrap(String line, int maxWidth, SegmentSink sink) {
+        int length = line.length();
+        boolean constant = table.hasConstantAdvance();
+        boolean simple = true;
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (!GlyphAdvanceTable.isPrintableAscii(c)) {
+                constant = false;
+                if (c >= GlyphAdvanceTable.TABLE_SIZE) {
+                    simple = false;
+                    break;
+                }
+            }
+        }
+        if (!simple) {
+            return wrapMeasured(line, maxWidth, sink);
+        }
+
+        if (GlyphAdvanceTable.round(width(line, 0, length, constant)) <= maxWidth) {
+            sink.segment(0, length);
+            return 1;
+        }
+
+        // String.split(" ") drops trailing empty words, i.e. trailing spaces.
+        int limit = length;
+        while (limit > 0 && line.charAt(limit - 1) == ' ') {
+            limit--;
+        }
+        boolean hasWords = limit > 0 || length == 0; // "".split(" ") is [""], "  ".split(" ") is []
+
+        int count = 0;
+        int currentBegin = -1; // -1 while the current line is empty
+        int currentEnd = -1;
+        float currentWidth = 0f;
+        int wordBegin = 0;
+        while (hasWords) {
+            int wordEnd = line.indexOf(' ', wordBegin);
+            if (wordEnd < 0 || wordEnd > limit) {
+                wordEnd = limit;
+            }
+
+            // Width of (current + " " + word), summed in the same order as stringWidth would.
+            float candidate;
+            if (constant) {
+                int currentLength = currentBegin < 0 ? 0 : currentEnd - currentBegin;
+                candidate = (currentLength + 1 + wordEnd - wordBegin) * table.constantAdvance();
+            } else {
+                candidate = (currentBegin < 0 ? 0f : currentWidth) + spaceAdvance;
+                for (int i = wordBegin; i < wordEnd; i++) {
+                    candidate += table.advance(line.charAt(i));
+                }
+            }
+
+            if (GlyphAdvanceTable.round(candidate) > maxWidth) {
+                if (currentBegin < 0) {
+                    sink.segment(wordBegin, wordBegin); // the original emits an empty line here
+                } else {
+                    sink.segment(currentBegin, currentEnd);
+                }
+                count++;
+                if (wordEnd > wordBegin) {
+                    currentBegin = wordBegin;
+                    currentEnd = wordEnd;
+                    currentWidth = width(line, wordBegin, wordEnd, constant);
+                } else {
+                    currentBegin = -1;
+                }
+            } else if (currentBegin >= 0) {
+                currentEnd = wordEnd;
+                currentWidth = candidate;
+            } else if (wordEnd > wordBegin) {
+                currentBegin = wordBegin;
+                currentEnd = wordEnd;
+                currentWidth = width(line, wordBegin, wordEnd, constant);
+            }
+
+            if (wordEnd == limit) {
+                break;
+            }
+            wordBegin = wordEnd + 1;
+        }
+        if (currentBegin >= 0) {
+            sink.segment(currentBegin, currentEnd);
+            count++;
+        }
+        return count;
+    }
+
+    private float width(String line, int begin, int end, boolean constant) {
+        if (constant) {
+            return (end - begin) * table.constantAdvance();
+        }
+        float width = 0f;
+        for (int i = begin; i < end; i++) {
+            width += table.advance(line.charAt(i));
+        }
+        return width;
+    }
+
+    /**
+     * Slow path for lines that need full text layout: the same rules, measured with real strings.
+     */
+    private int wrapMeasured(String line, int maxWidth, SegmentSink sink) {
+        int length = line.length();
+        if (metrics.stringWidth(line) <= maxWidth) {
+            sink.segment(0, length);
+            return 1;
+        }
+        int limit = length;
+        while (limit > 0 && line.charAt(limit - 1) == ' ') {
+            limit--;
+        }
+        boolean hasWords = limit > 0 || length == 0; // "".split(" ") is [""], "  ".split(" ") is []
+
+        int count = 0;
+        int currentBegin = -1;
+        int currentEnd = -1;
+        int wordBegin = 0;
+        while (hasWords) {
+            int wordEnd = line.indexOf(' ', wordBegin);
+            if (wordEnd < 0 || wordEnd > limit) {
+                wordEnd = limit;
+            }
+            String current = currentBegin < 0 ? "" : line.substring(currentBegin, currentEnd);
+            if (metrics.stringWidth(current + " " + line.substring(wordBegin, wordEnd)) > maxWidth) {
+                if (currentBegin < 0) {
+                    sink.segment(wordBegin, wordBegin);
+                } else {
+                    sink.segment(currentBegin, currentEnd);
+                }
+                count++;
+                currentBegin = wordEnd > wordBegin ? wordBegin : -1;
+                currentEnd = wordEnd;
+            } else if (currentBegin >= 0) {
+                currentEnd = wordEnd;
+            } else if (wordEnd > wordBegin) {
+                currentBegin = wordBegin;
+                currentEnd = wordEnd;
+            }
+
+            if (wordEnd == limit) {
+                break;
+            }
+            wordBegin = wordEnd + 1;
+        }
+        if (currentBegin >= 0) {
+            sink.segment(currentBegin, currentEnd);
+            count++;
+        }
+        return count;
+    }
+}
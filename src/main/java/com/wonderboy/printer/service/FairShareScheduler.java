@@ -0,0 +1,184 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shares the workers between users by deficit round robin, measured in pages, so that one
+ * user's large backlog does not hold up everyone else's jobs.
+ * <p>
+ * Jobs with a higher {@link PrintJob#getPriority() priority} always go first. Among the jobs of
+ * the highest waiting priority, the users take turns: each turn adds {@code quantum} pages,
+ * times the user's weight, to the user's credit, and the user's jobs are taken, earliest first,
+ * as long as the credit covers their pages. Over time every waiting user thus gets pages in
+ * proportion to their weight, whatever the size of their jobs. A user with nothing waiting
+ * leaves the round and loses the credit.
+ * <p>
+ * Each state jobs are taken from has a round of its own. The turns it takes until a user's
+ * credit covers their next job are computed rather than played out, so a selection costs the
+ * same however large the job. Only each user's {@link Candidates#userHeads() earliest job} is
+ * looked at, so it costs the same however many jobs a user has waiting.
+ */
+public class FairShareScheduler implements JobScheduler {
+
+    /** Pages added to a user's credit per turn, at weight 1. */
+    public static final long DEFAULT_QUANTUM_PAGES = 10;
+
+    // 未渲染的任务页数未知，按源文件大小估算：每页约 3000 字节文本
+    private static final long ESTIMATED_BYTES_PER_PAGE = 3000;
+
+    private final ToLongFunction<PrintJob> pages;
+    private final long quantum;
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Map<PrintJobStatus, Round> rounds = new EnumMap<>(PrintJobStatus.class);
+
+    /**
+     * Creates a scheduler that goes by the {@link PrintJob#getEstimatedPages() pages estimated}
+     * when a job was submitted.
+     */
+    public FairShareScheduler() {
+        this(null, DEFAULT_QUANTUM_PAGES);
+    }
+
+    /**
+     * @param pages The number of pages of a job, or null to use the estimate made when it was submitted.
+     * @param quantum The pages added to a user's credit per turn, at weight 1.
+     */
+    public FairShareScheduler(ToLongFunction<PrintJob> pages, long quantum) {
+        if (quantum < 1) {
+            throw new IllegalArgumentException("quantum must be at least 1.");
+        }
+        this.pages = pages != null ? pages : PrintJob::getEstimatedPages;
+        this.quantum = quantum;
+    }
+
+    /**
+     * Sets a user's share of the workers relative to other users; 1 by default.
+     *
+     * @param user The user.
+     * @param weight The weight, at least 1.
+     */
+    public synchronized void setWeight(String user, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1.");
+        }
+        weights.put(userOf(user), weight);
+    }
+
+    public synchronized int getWeight(String user) {
+        return weights.getOrDefault(userOf(user), 1);
+    }
+
+    @Override
+    public synchronized Optional<PrintJob> select(PrintJobStatus status, Candidates candidates) {
+        // 只在最高优先级的任务之间轮转；每个用户取其最早提交的任务，不遍历其余的任务
+        Map<String, PrintJob> heads = new LinkedHashMap<>();
+        for (PrintJob job : candidates.userHeads()) {
+            heads.put(userOf(job.getUser()), job);
+        }
+        if (heads.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Round round = rounds.computeIfAbsent(status, s -> new Round());
+        round.users.removeIf(user -> !heads.containsKey(user));
+        round.credit.keySet().retainAll(heads.keySet());
+        for (String user : heads.keySet()) {
+            if (!round.users.contains(user)) {
+                round.users.addLast(user);
+            }
+        }
+        // 轮到的用户额度够就取其任务，否则增加额度并排到队尾。不逐轮模拟，而是算出每个用户
+        // 还需几轮：需要轮数最少的用户先够，轮数相同时排在前面的先够
+        List<String> order = new ArrayList<>(round.users);
+        Turns next = null;
+        for (int i = 0; i < order.size(); i++) {
+            String user = order.get(i);
+            long shortfall = pagesOf(heads.get(user)) - round.credit.getOrDefault(user, 0L);
+            long perTurn = quantum * weights.getOrDefault(user, 1);
+            long turns = shortfall <= 0 ? 0 : (shortfall + perTurn - 1) / perTurn;
+            if (next == null || turns < next.turns()) {
+                next = new Turns(turns, i);
+            }
+        }
+        // 在第 turns 轮中，排在选中用户之前的用户多得一次额度；选中的用户留在队首
+        for (int i = 0; i < order.size(); i++) {
+            String user = order.get(i);
+            long turns = next.turns() + (i < next.position() ? 1 : 0);
+            if (turns > 0) {
+                round.credit.merge(user, turns * quantum * weights.getOrDefault(user, 1), Long::sum);
+            }
+        }
+        Collections.rotate(order, -next.position());
+        round.users.clear();
+        round.users.addAll(order);
+        return Optional.of(heads.get(order.get(0)));
+    }
+
+    @Override
+    public synchronized void claimed(PrintJobStatus status, PrintJob job) {
+        Round round = rounds.get(status);
+        if (round != null) {
+            round.credit.merge(userOf(job.getUser()), -pagesOf(job), Long::sum);
+        }
+    }
+
+    private long pagesOf(PrintJob job) {
+        return Math.max(1, pages.applyAsLong(job));
+    }
+
+    /**
+     * Estimates a job's pages from the size of its source files, for a job that has not been
+     * rendered yet. Reads the file sizes, so call it before the job is submitted rather than
+     * while choosing between jobs.
+     *
+     * @param job The job.
+     * @return The estimated number of pages, at least 1.
+     */
+    public static long estimatePages(PrintJob job) {
+        long bytes = 0;
+        if (job.getSourceFilePaths() != null) {
+            for (String sourceFile : job.getSourceFilePaths()) {
+                try {
+                    bytes += Files.size(Path.of(sourceFile));
+                } catch (IOException e) {
+                    // 读不到的源文件会在渲染时报错，这里按一页计
+                }
+            }
+        }
+        return Math.max(1, (bytes + ESTIMATED_BYTES_PER_PAGE - 1) / ESTIMATED_BYTES_PER_PAGE);
+    }
+
+    private static String userOf(String user) {
+        return user != null ? user : "";
+    }
+
+    /**
+     * The turn order and credit of the users with jobs waiting in one state.
+     */
+    private static class Round {
+        final Deque<String> users = new ArrayDeque<>();
+        final Map<String, Long> credit = new HashMap<>();
+    }
+
+    /**
+     * The user whose credit covers their job first: after how many turns, and where in the round.
+     */
+    private record Turns(long turns, int position) {
+    }
+}
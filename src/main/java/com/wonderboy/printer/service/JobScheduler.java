@@ -0,0 +1,88 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Decides which waiting job a worker takes next. The {@link SpoolerService} asks its scheduler
+ * on every {@link SpoolerService#claimNext claim}, one claim at a time, so implementations need
+ * no locking of their own.
+ * <p>
+ * {@link FairShareScheduler} is the default; {@link #FIFO} takes jobs strictly in submission order.
+ */
+public interface JobScheduler {
+
+    /** Takes the earliest submitted job, regardless of its user or priority. */
+    JobScheduler FIFO = (status, candidates) -> {
+        Iterator<PrintJob> first = candidates.iterator();
+        return first.hasNext() ? Optional.of(first.next()) : Optional.empty();
+    };
+
+    /**
+     * Picks the job to take next.
+     *
+     * @param status The state the jobs are taken from.
+     * @param candidates The jobs in that state a worker may take.
+     * @return One of the candidates, or empty to take none.
+     */
+    Optional<PrintJob> select(PrintJobStatus status, Candidates candidates);
+
+    /**
+     * Tells the scheduler that the job it selected has been claimed by a worker.
+     *
+     * @param status The state the job was taken from.
+     * @param job The job.
+     */
+    default void claimed(PrintJobStatus status, PrintJob job) {
+    }
+
+    /**
+     * The jobs a worker may take, in submission order. They are looked up as they are iterated,
+     * so a scheduler that needs only the first ones should not iterate further; each iteration
+     * sees the current jobs.
+     */
+    @FunctionalInterface
+    interface Candidates extends Iterable<PrintJob> {
+
+        /**
+         * Finds each user's earliest candidate among the candidates of the highest priority any
+         * candidate has. This default iterates every candidate; the {@link SpoolerService} looks
+         * the jobs up in an index ordered by priority and user instead, visiting about one job
+         * per user however many are waiting.
+         *
+         * @return One job per user, in submission order.
+         */
+        default List<PrintJob> userHeads() {
+            int top = Integer.MIN_VALUE;
+            List<PrintJob> heads = new ArrayList<>();
+            Set<String> users = new HashSet<>();
+            for (PrintJob job : this) {
+                if (job.getPriority() > top) {
+                    top = job.getPriority();
+                    heads.clear();
+                    users.clear();
+                }
+                if (job.getPriority() == top && users.add(Objects.requireNonNullElse(job.getUser(), ""))) {
+                    heads.add(job);
+                }
+            }
+            return heads;
+        }
+
+        /**
+         * @param jobs The jobs, in submission order.
+         * @return The jobs as candidates.
+         */
+        static Candidates of(Iterable<PrintJob> jobs) {
+            return jobs::iterator;
+        }
+    }
+}
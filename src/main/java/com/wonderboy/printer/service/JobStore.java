@@ -0,0 +1,130 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Where the {@link SpoolerService} keeps its jobs between runs.
+ * <p>
+ * Two stores exist: {@link JsonFileJobStore}, one pretty-printed JSON file per job, and
+ * {@link JournalJobStore}, an append-only journal compacted into snapshots. A store is used by
+ * one spooler at a time; {@link SpoolerService} calls it from several threads.
+ */
+public interface JobStore extends AutoCloseable {
+
+    /** System property that selects the store of {@link #configured}: {@code json} (the default) or {@code journal}. */
+    String TYPE_PROPERTY = "printer.spool.store";
+
+    /**
+     * Creates the store selected by the {@value #TYPE_PROPERTY} system property.
+     *
+     * @param spoolDirectory The spool directory.
+     * @return A store that has not been loaded yet.
+     */
+    static JobStore configured(Path spoolDirectory) {
+        String type = System.getProperty(TYPE_PROPERTY, "json").trim();
+        if (type.equalsIgnoreCase("journal")) {
+            return new JournalJobStore(spoolDirectory);
+        }
+        if (!type.equalsIgnoreCase("json")) {
+            LoggerFactory.getLogger(JobStore.class).warn("Ignoring unknown {}={}, keeping the JSON file store.", TYPE_PROPERTY, type);
+        }
+        return new JsonFileJobStore(spoolDirectory);
+    }
+
+    /**
+     * A stored job: the fields a store can list without reading the whole job, and the job itself on demand.
+     */
+    interface StoredJob {
+
+        String jobId();
+
+        PrintJobStatus status();
+
+        LocalDateTime submitTime();
+
+        /**
+         * @return The job's source files, as in {@link PrintJob#getSourceFilePaths()}; may be null.
+         */
+        List<String> sourceFilePaths();
+
+        /**
+         * Reads the full job. Safe to call from several threads; every call may read it anew.
+         *
+         * @return The job as it was stored.
+         * @throws IOException if the job cannot be read.
+         */
+        PrintJob load() throws IOException;
+    }
+
+    /**
+     * A stored job that is already in memory.
+     */
+    record LoadedJob(PrintJob job) implements StoredJob {
+
+        @Override
+        public String jobId() {
+            return job.getJobId();
+        }
+
+        @Override
+        public PrintJobStatus status() {
+            return job.getStatus();
+        }
+
+        @Override
+        public LocalDateTime submitTime() {
+            return job.getSubmitTime();
+        }
+
+        @Override
+        public List<String> sourceFilePaths() {
+            return job.getSourceFilePaths();
+        }
+
+        @Override
+        public PrintJob load() {
+            return job;
+        }
+    }
+
+    /**
+     * Lists every stored job. Called once, before any other method. Stores with an index may
+     * return jobs that are only read when {@link StoredJob#load() loaded}.
+     *
+     * @return The jobs; a job that cannot be read is logged and left out.
+     * @throws IOException if the store cannot be read at all.
+     */
+    List<StoredJob> loadAll() throws IOException;
+
+    /**
+     * Stores the current state of a job, new or not.
+     *
+     * @param job The job.
+     * @throws IOException if the job cannot be stored.
+     */
+    void save(PrintJob job) throws IOException;
+
+    /**
+     * Forgets a job.
+     *
+     * @param jobId The ID of the job.
+     * @return The number of bytes freed on disk right away.
+     * @throws IOException if the job cannot be removed.
+     */
+    long remove(String jobId) throws IOException;
+
+    /**
+     * Releases the store's files. The store must not be used afterwards.
+     *
+     * @throws IOException if pending state cannot be written.
+     */
+    @Override
+    void close() throws IOException;
+}
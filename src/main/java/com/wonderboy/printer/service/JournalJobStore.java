@@ -0,0 +1,568 @@
+package com.wonderboy.printer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the jobs in an append-only journal in the spool directory, compacted into a snapshot
+ * from time to time.
+ * <p>
+ * Saving a job appends one line with its complete state to {@value #JOURNAL_FILE_NAME} and
+ * forces it to disk; removing a job appends a removal line. Once the journal holds more records
+ * than the compaction threshold (and more than there are jobs), the live jobs are written to
+ * {@value #SNAPSHOT_FILE_NAME}, which atomically replaces the previous snapshot, and the journal
+ * is emptied. Loading replays the snapshot and then the journal.
+ * <p>
+ * Each line is {@code <P|R> <CRC-32C> <payload>}, where the payload is the job as compact JSON
+ * or the ID of the removed job. A crash can tear the last journal line; replay stops at the first
+ * line that does not check out, and the journal is cut back to the records before it. A crash
+ * between writing a snapshot and emptying the journal is harmless: the journal then holds the
+ * records the snapshot was made from, and replaying them over it ends in the same state.
+ * <p>
+ * Every compaction also writes {@value #INDEX_FILE_NAME}, a compact binary index of the
+ * snapshot: each job's ID, status, submit time, source files and the position of its record. Loading reads
+ * only the index and the journal; the jobs of the snapshot are parsed when they are
+ * {@linkplain StoredJob#load() loaded}. An index that is missing, unreadable or does not match
+ * the snapshot's size and modification time is rebuilt from the snapshot, parsing its records
+ * in parallel.
+ * <p>
+ * If the spool directory has neither journal nor snapshot but holds {@code *.json} job files,
+ * loading imports them into a snapshot and deletes them.
+ */
+public class JournalJobStore implements JobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalJobStore.class);
+
+    public static final String JOURNAL_FILE_NAME = "jobs.journal";
+    public static final String SNAPSHOT_FILE_NAME = "jobs.snapshot";
+    public static final String INDEX_FILE_NAME = "jobs.index";
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    private static final char PUT = 'P';
+    private static final char REMOVE = 'R';
+    private static final int INDEX_MAGIC = 0x504A4958; // "PJIX"
+    private static final int INDEX_VERSION = 2; // 2: with the source files
+    private static final long NO_SUBMIT_TIME = Long.MIN_VALUE;
+
+    private final Path spoolDirectory;
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final Path indexFile;
+    private final int compactionThreshold;
+    private final ObjectMapper objectMapper;
+    // 以下字段由 this 保护
+    private final Map<String, StoredJob> liveJobs = new LinkedHashMap<>();
+    private FileChannel journal;
+    private int journalRecords;
+    // 读取快照中的任务时持读锁，替换快照时持写锁
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private FileChannel snapshot;
+
+    public JournalJobStore(Path spoolDirectory) {
+        this(spoolDirectory, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param spoolDirectory      The directory holding the journal and snapshot.
+     * @param compactionThreshold The number of journal records that triggers a compaction.
+     */
+    public JournalJobStore(Path spoolDirectory, int compactionThreshold) {
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("compactionThreshold must be at least 1.");
+        }
+        this.spoolDirectory = spoolDirectory;
+        this.journalFile = spoolDirectory.resolve(JOURNAL_FILE_NAME);
+        this.snapshotFile = spoolDirectory.resolve(SNAPSHOT_FILE_NAME);
+        this.indexFile = spoolDirectory.resolve(INDEX_FILE_NAME);
+        this.compactionThreshold = compactionThreshold;
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule()); // For LocalDateTime support
+    }
+
+    /**
+     * Lists the jobs. Jobs in the snapshot come from the index and are read when loaded; jobs
+     * saved since the last compaction are replayed from the journal and already in memory.
+     */
+    @Override
+    public synchronized List<StoredJob> loadAll() throws IOException {
+        liveJobs.clear();
+        journalRecords = 0;
+        boolean snapshotExists = Files.exists(snapshotFile);
+        if (snapshotExists) {
+            snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+            if (!readIndex()) {
+                rebuildIndex();
+            }
+        }
+        long validLength = replayJournal();
+        if (!snapshotExists && validLength < 0) {
+            importJsonFiles();
+        }
+
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (validLength >= 0 && journal.size() > validLength) {
+            logger.warn("Discarding a torn record at the end of {} ({} bytes).", journalFile, journal.size() - validLength);
+            journal.truncate(validLength);
+            journal.force(false);
+        }
+        journal.position(journal.size());
+        logger.info("Opened {} job(s) from {} and {} journal record(s).", liveJobs.size(),
+                snapshotExists ? snapshotFile : "no snapshot", journalRecords);
+        return new ArrayList<>(liveJobs.values());
+    }
+
+    @Override
+    public synchronized void save(PrintJob job) throws IOException {
+        append(PUT, objectMapper.writeValueAsString(job));
+        liveJobs.put(job.getJobId(), new LoadedJob(job));
+        compactIfDue();
+    }
+
+    @Override
+    public synchronized long remove(String jobId) throws IOException {
+        if (liveJobs.remove(jobId) != null) {
+            append(REMOVE, jobId);
+            compactIfDue();
+        }
+        return 0; // 日志压缩时才释放空间
+    }
+
+    /**
+     * Writes the live jobs to a new snapshot and index, and empties the journal. Jobs that were
+     * never loaded are copied from the old snapshot without being parsed.
+     *
+     * @throws IOException if the snapshot cannot be written; the journal is then left as it is.
+     */
+    public synchronized void compact() throws IOException {
+        List<SnapshotJob> indexed = new ArrayList<>(liveJobs.size());
+        snapshotLock.writeLock().lock();
+        try {
+            Path temp = snapshotFile.resolveSibling(SNAPSHOT_FILE_NAME + ".tmp");
+            List<long[]> positions = new ArrayList<>(liveJobs.size());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                long position = 0;
+                for (StoredJob stored : liveJobs.values()) {
+                    byte[] line = stored instanceof SnapshotJob inSnapshot
+                            ? readRecord(inSnapshot.offset, inSnapshot.length)
+                            : record(PUT, objectMapper.writeValueAsString(stored.load()))
+                                    .getBytes(StandardCharsets.UTF_8);
+                    positions.add(new long[]{position, line.length});
+                    position += line.length + 1;
+                    if (buffer.remaining() < line.length + 1) {
+                        writeFully(channel, buffer.flip());
+                        buffer.clear();
+                        if (buffer.capacity() < line.length + 1) {
+                            buffer = ByteBuffer.allocate(line.length + 1);
+                        }
+                    }
+                    buffer.put(line).put((byte) '\n');
+                }
+                writeFully(channel, buffer.flip());
+                channel.force(false);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (snapshot != null) {
+                snapshot.close();
+            }
+            snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+
+            // 记录各任务在新快照中的位置；已加载的任务改由快照提供
+            int i = 0;
+            for (Map.Entry<String, StoredJob> entry : liveJobs.entrySet()) {
+                long[] position = positions.get(i++);
+                StoredJob stored = entry.getValue();
+                SnapshotJob inSnapshot;
+                if (stored instanceof SnapshotJob existing) {
+                    inSnapshot = existing;
+                    inSnapshot.offset = position[0];
+                    inSnapshot.length = (int) position[1];
+                } else {
+                    inSnapshot = new SnapshotJob(stored.jobId(), stored.status(), stored.submitTime(), stored.sourceFilePaths(),
+                            position[0], (int) position[1]);
+                    entry.setValue(inSnapshot);
+                }
+                indexed.add(inSnapshot);
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        if (journal != null) {
+            journal.truncate(0);
+            journal.position(0);
+            journal.force(false);
+        }
+        logger.info("Compacted {} journal record(s) into a snapshot of {} job(s).", journalRecords, liveJobs.size());
+        journalRecords = 0;
+        writeIndex(indexed);
+    }
+
+    /**
+     * Compacts the journal, so that the next start has only the index to read, and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            if (journalRecords > 0) {
+                compact();
+            }
+        } finally {
+            journal.close();
+            journal = null;
+            snapshotLock.writeLock().lock();
+            try {
+                if (snapshot != null) {
+                    snapshot.close();
+                    snapshot = null;
+                }
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return The number of records appended to the journal since the last compaction.
+     */
+    synchronized int getJournalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * A job known from the index, read from the snapshot when loaded. Its position is updated
+     * when a compaction moves its record.
+     */
+    private final class SnapshotJob implements StoredJob {
+
+        private final String jobId;
+        private final PrintJobStatus status;
+        private final LocalDateTime submitTime;
+        private final List<String> sourceFilePaths;
+        // 由 snapshotLock 保护
+        private long offset;
+        private int length;
+
+        private SnapshotJob(String jobId, PrintJobStatus status, LocalDateTime submitTime, List<String> sourceFilePaths,
+                            long offset, int length) {
+            this.jobId = jobId;
+            this.status = status;
+            this.submitTime = submitTime;
+            this.sourceFilePaths = sourceFilePaths;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String jobId() {
+            return jobId;
+        }
+
+        @Override
+        public PrintJobStatus status() {
+            return status;
+        }
+
+        @Override
+        public LocalDateTime submitTime() {
+            return submitTime;
+        }
+
+        @Override
+        public List<String> sourceFilePaths() {
+            return sourceFilePaths;
+        }
+
+        @Override
+        public PrintJob load() throws IOException {
+            byte[] line;
+            snapshotLock.readLock().lock();
+            try {
+                line = readRecord(offset, length);
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            String payload = payload(new String(line, StandardCharsets.UTF_8));
+            if (payload == null) {
+                throw new IOException("The snapshot record of job " + jobId + " is damaged.");
+            }
+            return objectMapper.readValue(payload, PrintJob.class);
+        }
+    }
+
+    private void compactIfDue() throws IOException {
+        if (journalRecords >= compactionThreshold && journalRecords > liveJobs.size()) {
+            compact();
+        }
+    }
+
+    private void append(char type, String payload) throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("The journal has not been loaded or is closed.");
+        }
+        writeFully(journal, ByteBuffer.wrap((record(type, payload) + "\n").getBytes(StandardCharsets.UTF_8)));
+        journal.force(false);
+        journalRecords++;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a record of the snapshot. The caller holds the snapshot lock.
+     */
+    private byte[] readRecord(long offset, int length) throws IOException {
+        if (snapshot == null) {
+            throw new IOException("The job store is closed.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (snapshot.read(bytes, offset + bytes.position()) < 0) {
+                throw new IOException("The snapshot ends inside a record.");
+            }
+        }
+        return bytes.array();
+    }
+
+    private static String record(char type, String payload) {
+        // Compact JSON escapes line breaks, so a record is always a single line
+        return type + " " + Long.toHexString(checksum(payload)) + " " + payload;
+    }
+
+    private static long checksum(String payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * @return The payload of a record line, or null if the line is not a record that checks out.
+     */
+    private static String payload(String line) {
+        int first = line.indexOf(' ');
+        int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+        if (first != 1 || second < 0 || (line.charAt(0) != PUT && line.charAt(0) != REMOVE)) {
+            return null;
+        }
+        String payload = line.substring(second + 1);
+        return line.substring(first + 1, second).equals(Long.toHexString(checksum(payload))) ? payload : null;
+    }
+
+    /**
+     * Applies the journal to the live jobs, up to its first damaged record.
+     *
+     * @return The length of the journal up to that record, or -1 if there is no journal.
+     */
+    private long replayJournal() throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(journalFile);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        int start = 0;
+        while (start < content.length) {
+            int end = lineEnd(content, start);
+            String line = end < content.length ? new String(content, start, end - start, StandardCharsets.UTF_8) : "";
+            String payload = payload(line);
+            if (payload == null) {
+                return start;
+            }
+            if (line.charAt(0) == PUT) {
+                try {
+                    PrintJob job = objectMapper.readValue(payload, PrintJob.class);
+                    liveJobs.put(job.getJobId(), new LoadedJob(job));
+                } catch (IOException e) {
+                    logger.error("Skipping a job record that cannot be parsed: {}", e.getMessage());
+                }
+            } else {
+                liveJobs.remove(payload);
+            }
+            journalRecords++;
+            start = end + 1;
+        }
+        return content.length;
+    }
+
+    private static int lineEnd(byte[] content, int start) {
+        int end = start;
+        while (end < content.length && content[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Reads the index into the live jobs.
+     *
+     * @return false if the index is missing, unreadable or made for another snapshot.
+     */
+    private boolean readIndex() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 64 * 1024))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readLong() != Files.size(snapshotFile)
+                    || in.readLong() != Files.getLastModifiedTime(snapshotFile).toMillis()) {
+                logger.info("The job index does not match {}; rebuilding it.", snapshotFile);
+                return false;
+            }
+            int count = in.readInt();
+            Map<String, StoredJob> indexed = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String jobId = in.readUTF();
+                PrintJobStatus status = PrintJobStatus.valueOf(in.readUTF());
+                long seconds = in.readLong();
+                int nanos = in.readInt();
+                LocalDateTime submitTime = seconds == NO_SUBMIT_TIME ? null
+                        : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+                int sourceCount = in.readInt();
+                List<String> sourceFilePaths = null;
+                if (sourceCount >= 0) { // -1: none
+                    String[] sources = new String[sourceCount];
+                    for (int j = 0; j < sourceCount; j++) {
+                        sources[j] = in.readUTF();
+                    }
+                    sourceFilePaths = List.of(sources);
+                }
+                indexed.put(jobId, new SnapshotJob(jobId, status, submitTime, sourceFilePaths, in.readLong(), in.readInt()));
+            }
+            liveJobs.putAll(indexed);
+            return true;
+        } catch (NoSuchFileException e) {
+            logger.info("No job index next to {}; building one.", snapshotFile);
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("The job index {} is unreadable ({}); rebuilding it.", indexFile, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Builds the index by parsing every record of the snapshot, in parallel.
+     */
+    private void rebuildIndex() throws IOException {
+        long start = System.nanoTime();
+        byte[] content = Files.readAllBytes(snapshotFile);
+        List<int[]> lines = new ArrayList<>();
+        for (int lineStart = 0; lineStart < content.length; ) {
+            int end = lineEnd(content, lineStart);
+            lines.add(new int[]{lineStart, end - lineStart});
+            lineStart = end + 1;
+        }
+        SnapshotJob[] parsed = new SnapshotJob[lines.size()];
+        IntStream.range(0, lines.size()).parallel().forEach(i -> {
+            int[] line = lines.get(i);
+            String payload = payload(new String(content, line[0], line[1], StandardCharsets.UTF_8));
+            if (payload == null || content[line[0]] != PUT) {
+                logger.error("Skipping a damaged record at byte {} of {}.", line[0], snapshotFile);
+                return;
+            }
+            try {
+                PrintJob job = objectMapper.readValue(payload, PrintJob.class);
+                parsed[i] = new SnapshotJob(job.getJobId(), job.getStatus(), job.getSubmitTime(), job.getSourceFilePaths(),
+                        line[0], line[1]);
+            } catch (IOException e) {
+                logger.error("Skipping a job record that cannot be parsed at byte {} of {}: {}", line[0], snapshotFile, e.getMessage());
+            }
+        });
+        List<SnapshotJob> indexed = new ArrayList<>(parsed.length);
+        for (SnapshotJob job : parsed) {
+            if (job != null) {
+                liveJobs.put(job.jobId, job);
+                indexed.add(job);
+            }
+        }
+        logger.info("Rebuilt the job index from {} snapshot record(s) in {} ms.", lines.size(), (System.nanoTime() - start) / 1_000_000);
+        writeIndex(indexed);
+    }
+
+    /**
+     * Replaces the index. A failure is only logged: without an index, the next start rebuilds it.
+     */
+    private void writeIndex(List<SnapshotJob> jobs) {
+        Path temp = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(Files.size(snapshotFile));
+                out.writeLong(Files.getLastModifiedTime(snapshotFile).toMillis());
+                out.writeInt(jobs.size());
+                for (SnapshotJob job : jobs) {
+                    out.writeUTF(job.jobId);
+                    out.writeUTF(job.status.name());
+                    out.writeLong(job.submitTime == null ? NO_SUBMIT_TIME : job.submitTime.toEpochSecond(ZoneOffset.UTC));
+                    out.writeInt(job.submitTime == null ? 0 : job.submitTime.getNano());
+                    out.writeInt(job.sourceFilePaths == null ? -1 : job.sourceFilePaths.size());
+                    if (job.sourceFilePaths != null) {
+                        for (String sourceFile : job.sourceFilePaths) {
+                            out.writeUTF(sourceFile);
+                        }
+                    }
+                    out.writeLong(job.offset);
+                    out.writeInt(job.length);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not write the job index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    private void importJsonFiles() throws IOException {
+        List<Path> jobFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDirectory, "*.json")) {
+            for (Path jobFile : stream) {
+                try {
+                    PrintJob job = objectMapper.readValue(jobFile.toFile(), PrintJob.class);
+                    liveJobs.put(job.getJobId(), new LoadedJob(job));
+                    jobFiles.add(jobFile);
+                } catch (IOException e) {
+                    logger.error("Failed to import job from file: {}", jobFile, e);
+                }
+            }
+        }
+        if (jobFiles.isEmpty()) {
+            return;
+        }
+        compact();
+        for (Path jobFile : jobFiles) {
+            Files.deleteIfExists(jobFile);
+        }
+        logger.info("Imported {} job file(s) into the journal snapshot.", jobFiles.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.wonderboy.printer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.util.FileTrees;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps each job in its own pretty-printed JSON file, {@code <job id>.json}, in the spool
+ * directory. Every save rewrites the job's file. Easy to inspect and edit by hand.
+ * Loading parses the files in parallel.
+ */
+public class JsonFileJobStore implements JobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonFileJobStore.class);
+
+    private final Path spoolDirectory;
+    private final ObjectMapper objectMapper;
+
+    public JsonFileJobStore(Path spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule()); // For LocalDateTime support
+    }
+
+    /**
+     * @return The file a job is kept in.
+     */
+    public Path jobFile(String jobId) {
+        return spoolDirectory.resolve(jobId + ".json");
+    }
+
+    @Override
+    public List<StoredJob> loadAll() throws IOException {
+        List<Path> jobFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDirectory, "*.json")) {
+            stream.forEach(jobFiles::add);
+        }
+        return jobFiles.parallelStream()
+                .map(this::read)
+                .filter(Objects::nonNull)
+                .<StoredJob>map(LoadedJob::new)
+                .toList();
+    }
+
+    private PrintJob read(Path jobFile) {
+        try {
+            return objectMapper.readValue(jobFile.toFile(), PrintJob.class);
+        } catch (IOException e) {
+            logger.error("Failed to load job from file: {}", jobFile, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void save(PrintJob job) throws IOException {
+        // 写入JSON文件
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(jobFile(job.getJobId()).toFile(), job);
+    }
+
+    @Override
+    public long remove(String jobId) throws IOException {
+        return FileTrees.delete(jobFile(jobId));
+    }
+
+    @Override
+    public void close() {
+        // 每次保存都已写入文件
+    }
+}
@@ -0,0 +1,355 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.renderer.PageRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A disk-backed cache of print output, so that reprinting a document with the same settings
+ * skips producing it again. Entries are opaque, one file each: the worker stores the finished
+ * PDFs of text jobs written as vector text (see {@link #documentKey}), and, for jobs rendered at
+ * print resolution, single pages already compressed for the PDF (see {@link #jobKey}).
+ * <p>
+ * Keys are derived from the SHA-256 of the job's source content, the renderer class and the
+ * print settings; the job id and file names play no part, so resubmitting the same report hits
+ * the cache. Entries are evicted least recently used first once the cache grows beyond its
+ * byte budget. The use order survives restarts through the files' modification times.
+ */
+public class RenderCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    /** System property that sets the cache's byte budget, e.g. -Dprinter.renderCache.maxBytes=0 to turn it off. */
+    public static final String MAX_BYTES_PROPERTY = "printer.renderCache.maxBytes";
+    private static final String ENTRY_SUFFIX = ".page";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path cacheDirectory;
+    private final long maxBytes;
+    // 访问顺序的LinkedHashMap：最久未使用的条目在最前面。Value为文件大小
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeInBytes;
+
+    /**
+     * Opens the cache in a directory, picking up the entries left by earlier runs.
+     *
+     * @param cacheDirectory The directory holding the cached pages.
+     * @param maxBytes The total size of cached pages to keep.
+     */
+    public RenderCache(Path cacheDirectory, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative.");
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(cacheDirectory);
+        } catch (IOException e) {
+            logger.error("Could not create render cache directory: {}", cacheDirectory, e);
+            throw new RuntimeException("Failed to create render cache directory.", e);
+        }
+        loadEntries();
+    }
+
+    /**
+     * Opens the cache in a directory with the budget from the {@value #MAX_BYTES_PROPERTY}
+     * system property, or {@link #DEFAULT_MAX_BYTES}.
+     *
+     * @param cacheDirectory The directory holding the cached entries.
+     * @return The cache; with a budget of 0 nothing is cached.
+     */
+    public static RenderCache configured(Path cacheDirectory) {
+        long maxBytes = DEFAULT_MAX_BYTES;
+        String value = System.getProperty(MAX_BYTES_PROPERTY);
+        if (value != null && !value.isBlank()) {
+            try {
+                maxBytes = Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid {}={}, keeping {} bytes.", MAX_BYTES_PROPERTY, value, maxBytes);
+            }
+        }
+        return new RenderCache(cacheDirectory, maxBytes);
+    }
+
+    /**
+     * Computes the part of the cache key shared by all pages of a job: the hash of the job's
+     * source content, the renderer and the settings.
+     *
+     * @param job The job about to be rendered.
+     * @param renderer The renderer that will render it.
+     * @return A key prefix to pass to {@link #pageKey}.
+     * @throws IOException if a source file cannot be read.
+     */
+    public static String jobKey(PrintJob job, PageRenderer renderer) throws IOException {
+        // Copies reuse the rendered pages, so they must not split the cache.
+        return hash(job, renderer, job.getSettings().withCopies(1).toString());
+    }
+
+    /**
+     * Computes the cache key of a job's whole output document: the hash of the job's source
+     * content, the renderer, all of the settings (the copies are part of the document) and the
+     * output format.
+     *
+     * @param job The job about to be printed.
+     * @param renderer The renderer that lays it out.
+     * @param format Whatever else decides the document's bytes, e.g. {@link com.wonderboy.printer.printer.VirtualPrinter#textPdfFormat()}.
+     * @return The key to pass to {@link #copyTo} and {@link #storeFile}.
+     * @throws IOException if a source file cannot be read.
+     */
+    public static String documentKey(PrintJob job, PageRenderer renderer, String format) throws IOException {
+        return hash(job, renderer, job.getSettings() + "\n" + format) + "-document";
+    }
+
+    private static String hash(PrintJob job, PageRenderer renderer, String settings) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        for (String sourceFile : job.getSourceFilePaths()) {
+            try (InputStream in = Files.newInputStream(Paths.get(sourceFile))) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            digest.update((byte) 0); // separates the files, so moving bytes between them changes the key
+        }
+        digest.update(renderer.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param jobKey The key from {@link #jobKey}.
+     * @param pageIndex The 0-based page index.
+     * @return The cache key of one page.
+     */
+    public static String pageKey(String jobKey, int pageIndex) {
+        return jobKey + "-" + String.format("%05d", pageIndex);
+    }
+
+    /**
+     * Reads a cached page and marks it as recently used.
+     *
+     * @param key The page key.
+     * @return The page's bytes, or null if the page is not cached or could not be read.
+     */
+    public synchronized byte[] fetch(String key) {
+        if (entries.get(key) == null) { // get, not containsKey: only get moves the entry to the recent end
+            return null;
+        }
+        Path entry = entryFile(key);
+        try {
+            byte[] page = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return page;
+        } catch (IOException e) {
+            // 缓存文件被外部删除或损坏：丢弃该条目，退回到重新渲染
+            logger.warn("Dropping unreadable render cache entry {}: {}", key, e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Copies a cached document to a file and marks it as recently used. The target is written
+     * under a temporary name first, so it never holds a partial copy.
+     *
+     * @param key The document key.
+     * @param target The file to write; an existing file is replaced.
+     * @return true if the document was cached and copied.
+     */
+    public synchronized boolean copyTo(String key, Path target) {
+        if (entries.get(key) == null) { // get moves the entry to the recent end
+            return false;
+        }
+        Path entry = entryFile(key);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Files.copy(entry, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            logger.warn("Dropping render cache entry {} that could not be copied: {}", key, e.getMessage());
+            remove(key);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Drops a page, e.g. one whose bytes turned out to be corrupt.
+     *
+     * @param key The page key.
+     */
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    /**
+     * Adds a rendered page to the cache, evicting the least recently used pages if the
+     * cache grows beyond its budget. Failures are logged and otherwise ignored.
+     *
+     * @param key The page key.
+     * @param page The page's bytes.
+     */
+    public synchronized void store(String key, byte[] page) {
+        add(key, page.length, temp -> Files.write(temp, page));
+    }
+
+    /**
+     * Adds a copy of a finished document to the cache, evicting the least recently used entries
+     * if the cache grows beyond its budget. Failures are logged and otherwise ignored.
+     *
+     * @param key The document key.
+     * @param file The document.
+     */
+    public synchronized void storeFile(String key, Path file) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            logger.warn("Could not add {} to the render cache: {}", file, e.getMessage());
+            return;
+        }
+        add(key, size, temp -> Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    private void add(String key, long size, EntryWriter writer) {
+        if (entries.containsKey(key) || size > maxBytes) {
+            return;
+        }
+        Path entry = entryFile(key);
+        Path temp = cacheDirectory.resolve(key + TEMP_SUFFIX);
+        try {
+            // 先写临时文件再改名，避免崩溃时留下不完整的条目
+            writer.write(temp);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(key, size);
+            sizeInBytes += size;
+            evict();
+        } catch (IOException e) {
+            logger.warn("Could not add {} to the render cache: {}", key, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (sizeInBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            sizeInBytes -= entry.getValue();
+            deleteEntryFile(entry.getKey());
+            logger.debug("Evicted {} from the render cache.", entry.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            sizeInBytes -= size;
+            deleteEntryFile(key);
+        }
+    }
+
+    private void deleteEntryFile(String key) {
+        try {
+            Files.deleteIfExists(entryFile(key));
+        } catch (IOException e) {
+            logger.warn("Could not delete render cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private Path entryFile(String key) {
+        return cacheDirectory.resolve(key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Rebuilds the index from the files on disk, oldest first, dropping leftovers of interrupted writes.
+     */
+    private void loadEntries() {
+        record CachedFile(String key, long size, FileTime lastUsed) {
+        }
+        List<CachedFile> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // interrupted writes
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(ENTRY_SUFFIX) && Files.isRegularFile(file)) {
+                    String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+                    files.add(new CachedFile(key, Files.size(file), Files.getLastModifiedTime(file)));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not read render cache directory.", e);
+            throw new RuntimeException("Failed to read render cache directory.", e);
+        }
+        files.sort(Comparator.comparing(CachedFile::lastUsed));
+        for (CachedFile file : files) {
+            entries.put(file.key(), file.size());
+            sizeInBytes += file.size();
+        }
+        evict();
+        logger.info("Render cache at {} holds {} entries ({} bytes).", cacheDirectory, entries.size(), sizeInBytes);
+    }
+
+    /**
+     * Writes an entry's content to a temporary file.
+     */
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(Path temp) throws IOException;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.printer.VirtualPrinter;
+import com.wonderboy.printer.util.FileTrees;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the spool and output directories from growing without bound.
+ * <p>
+ * Each pass ({@link #collect()}) works in three steps:
+ * <ol>
+ *   <li>It deletes the intermediate files of finished jobs, and output directories that no job
+ *   in the spooler owns any more.</li>
+ *   <li>It removes finished jobs (COMPLETED, CANCELLED, FAILED) whose last activity is older than
+ *   the maximum age. A job's last activity is the newest file in its output directory, or its
+ *   submit time.</li>
+ *   <li>While the spool and output directories together hold more than the byte budget, it
+ *   removes the finished jobs with the oldest activity first.</li>
+ * </ol>
+ * Jobs that are queued or in progress are never touched, even over budget. Removing a job
+ * goes through {@link SpoolerService#removeJob}, so the spooler and the disk stay consistent.
+ * {@link #start} runs passes periodically on a background thread.
+ */
+public class RetentionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionManager.class);
+
+    public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofDays(7);
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(5);
+
+    /** System property that sets the byte budget, e.g. -Dprinter.retention.maxBytes=1073741824. */
+    public static final String MAX_BYTES_PROPERTY = "printer.retention.maxBytes";
+    /** System property that sets the maximum age as an ISO-8601 duration, e.g. -Dprinter.retention.maxAge=P3D. */
+    public static final String MAX_AGE_PROPERTY = "printer.retention.maxAge";
+
+    private static final Set<PrintJobStatus> FINISHED =
+            EnumSet.of(PrintJobStatus.COMPLETED, PrintJobStatus.CANCELLED, PrintJobStatus.FAILED);
+
+    /**
+     * The outcome of one pass.
+     *
+     * @param removedJobs    The number of jobs removed.
+     * @param reclaimedBytes The bytes freed, by removed jobs, intermediates and orphaned output.
+     * @param usedBytes      The bytes left in the spool and output directories.
+     */
+    public record Report(int removedJobs, long reclaimedBytes, long usedBytes) {
+    }
+
+    private final SpoolerService spoolerService;
+    private final VirtualPrinter virtualPrinter;
+    private final Path outputDirectory;
+    private final long maxBytes;
+    private final Duration maxAge;
+    private final Clock clock;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param spoolerService The spooler; it must have been created with the printer's output
+     *                       directory, so that removing a job deletes its output.
+     * @param virtualPrinter The printer writing the jobs' output.
+     * @param maxBytes       The number of bytes the spool and output directories may hold.
+     * @param maxAge         How long a finished job is kept after its last activity.
+     */
+    public RetentionManager(SpoolerService spoolerService, VirtualPrinter virtualPrinter, long maxBytes, Duration maxAge) {
+        this(spoolerService, virtualPrinter, maxBytes, maxAge, Clock.systemDefaultZone());
+    }
+
+    RetentionManager(SpoolerService spoolerService, VirtualPrinter virtualPrinter, long maxBytes, Duration maxAge, Clock clock) {
+        if (maxBytes < 0 || maxAge.isNegative()) {
+            throw new IllegalArgumentException("maxBytes and maxAge must not be negative.");
+        }
+        if (spoolerService.getOutputDirectory() == null) {
+            throw new IllegalArgumentException("The spooler must know the output directory.");
+        }
+        this.spoolerService = spoolerService;
+        this.virtualPrinter = virtualPrinter;
+        this.outputDirectory = spoolerService.getOutputDirectory();
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.clock = clock;
+    }
+
+    /**
+     * Creates a manager with the budget and age from the {@value #MAX_BYTES_PROPERTY} and
+     * {@value #MAX_AGE_PROPERTY} system properties, or the defaults.
+     *
+     * @return A manager that has not been started.
+     */
+    public static RetentionManager configured(SpoolerService spoolerService, VirtualPrinter virtualPrinter) {
+        long maxBytes = DEFAULT_MAX_BYTES;
+        Duration maxAge = DEFAULT_MAX_AGE;
+        String bytesValue = System.getProperty(MAX_BYTES_PROPERTY);
+        if (bytesValue != null && !bytesValue.isBlank()) {
+            try {
+                maxBytes = Math.max(0, Long.parseLong(bytesValue.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid {}={}, keeping {} bytes.", MAX_BYTES_PROPERTY, bytesValue, maxBytes);
+            }
+        }
+        String ageValue = System.getProperty(MAX_AGE_PROPERTY);
+        if (ageValue != null && !ageValue.isBlank()) {
+            try {
+                Duration parsed = Duration.parse(ageValue.trim());
+                maxAge = parsed.isNegative() ? Duration.ZERO : parsed;
+            } catch (DateTimeParseException e) {
+                logger.warn("Ignoring invalid {}={}, keeping {}.", MAX_AGE_PROPERTY, ageValue, maxAge);
+            }
+        }
+        return new RetentionManager(spoolerService, virtualPrinter, maxBytes, maxAge);
+    }
+
+    /**
+     * Runs {@link #collect()} now and then every {@code interval} on a background thread.
+     *
+     * @param interval The delay between the end of one pass and the start of the next.
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("The retention manager is already running.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                collect();
+            } catch (RuntimeException e) {
+                // 保持定时任务继续运行
+                logger.error("Retention pass failed.", e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background passes, waiting for a running pass to end.
+     */
+    public synchronized void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Retention pass did not finish within 30 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Runs one retention pass.
+     *
+     * @return What the pass reclaimed and how much is left.
+     */
+    public synchronized Report collect() {
+        long reclaimed = 0;
+        int removed = 0;
+
+        // 先列出输出目录，再取任务快照：列出时已存在的目录，其任务一定在快照中
+        List<Path> outputDirs = listDirectories(outputDirectory);
+        // 只用索引中的字段（ID、状态、提交时间），不读取任务本身；只有被删除的任务才会读取
+        List<JobStore.StoredJob> jobs = spoolerService.listStoredJobs();
+        Set<String> jobIds = jobs.stream().map(JobStore.StoredJob::jobId).collect(Collectors.toSet());
+        for (Path dir : outputDirs) {
+            if (!jobIds.contains(dir.getFileName().toString())) {
+                reclaimed += delete(dir, "orphaned output");
+            }
+        }
+
+        List<JobStore.StoredJob> finished = new ArrayList<>();
+        for (JobStore.StoredJob job : jobs) {
+            // 仍被工作线程持有的任务（如处理中被取消）不清理也不删除
+            if (removable(job)) {
+                finished.add(job);
+                try {
+                    reclaimed += virtualPrinter.cleanIntermediates(job.jobId());
+                } catch (IOException e) {
+                    logger.warn("Could not clean the intermediate files of job {}: {}", job.jobId(), e.getMessage());
+                }
+            }
+        }
+
+        Map<String, Instant> lastActivity = new HashMap<>();
+        for (JobStore.StoredJob job : finished) {
+            lastActivity.put(job.jobId(), lastActivity(job));
+        }
+        finished.sort(Comparator.comparing(job -> lastActivity.get(job.jobId())));
+
+        Instant expiry = clock.instant().minus(maxAge);
+        List<JobStore.StoredJob> kept = new ArrayList<>();
+        for (JobStore.StoredJob job : finished) {
+            if (lastActivity.get(job.jobId()).isBefore(expiry) && removable(job)) {
+                OptionalLong freed = spoolerService.removeJob(job.jobId());
+                if (freed.isPresent()) {
+                    logger.info("Removed job {}: finished and inactive for more than {}.", job.jobId(), maxAge);
+                    reclaimed += freed.getAsLong();
+                    removed++;
+                    continue;
+                }
+            }
+            kept.add(job);
+        }
+
+        long used = usedBytes();
+        for (JobStore.StoredJob job : kept) {
+            if (used <= maxBytes) {
+                break;
+            }
+            if (!removable(job)) {
+                continue;
+            }
+            OptionalLong freed = spoolerService.removeJob(job.jobId());
+            if (freed.isPresent()) {
+                logger.info("Removed job {}: {} bytes in use exceeded the budget of {} bytes.", job.jobId(), used, maxBytes);
+                reclaimed += freed.getAsLong();
+                used -= freed.getAsLong();
+                removed++;
+            }
+        }
+        if (used > maxBytes) {
+            logger.warn("{} bytes in use exceed the budget of {} bytes, but no finished job is left to remove.", used, maxBytes);
+        }
+
+        Report report = new Report(removed, reclaimed, used);
+        logger.info("Retention pass reclaimed {} bytes and removed {} job(s); {} bytes in use.",
+                report.reclaimedBytes(), report.removedJobs(), report.usedBytes());
+        return report;
+    }
+
+    /**
+     * @return true if the job is still finished and no worker holds it; the user may have retried
+     *         it meanwhile. {@link SpoolerService#removeJob} checks again under the claim lock.
+     */
+    private boolean removable(JobStore.StoredJob job) {
+        return FINISHED.contains(job.status()) && !spoolerService.isClaimed(job.jobId());
+    }
+
+    private Instant lastActivity(JobStore.StoredJob job) {
+        Instant submitted = job.submitTime() == null ? Instant.EPOCH
+                : job.submitTime().atZone(ZoneId.systemDefault()).toInstant();
+        try {
+            FileTime modified = FileTrees.lastModified(outputDirectory.resolve(job.jobId()));
+            if (modified != null && modified.toInstant().isAfter(submitted)) {
+                return modified.toInstant();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read the output of job {}: {}", job.jobId(), e.getMessage());
+        }
+        return submitted;
+    }
+
+    private long usedBytes() {
+        try {
+            return FileTrees.size(spoolerService.getSpoolDirectory()) + FileTrees.size(outputDirectory);
+        } catch (IOException e) {
+            logger.warn("Could not measure the spool and output directories: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private static long delete(Path path, String what) {
+        try {
+            long freed = FileTrees.delete(path);
+            logger.info("Deleted {} {} ({} bytes).", what, path, freed);
+            return freed;
+        } catch (IOException e) {
+            logger.warn("Could not delete {} {}: {}", what, path, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static List<Path> listDirectories(Path directory) {
+        List<Path> directories = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return directories;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            entries.forEach(directories::add);
+        } catch (IOException e) {
+            logger.warn("Could not list {}: {}", directory, e.getMessage());
+        }
+        return directories;
+    }
+}
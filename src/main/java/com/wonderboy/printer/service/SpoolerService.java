@@ -1,9 +1,8 @@
 package com.wonderboy.printer.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.wonderboy.printer.model.PrintJob;
 import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.util.FileTrees;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,35 +10,136 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * Manages the print job queue, including persistence to disk.
- * This is the core "spooler" component.
+ * This is the core "spooler" component. Jobs are persisted through a {@link JobStore}.
+ * <p>
+ * On startup, jobs that are still to be worked on are read right away. Finished jobs from a
+ * store with an index stay on disk until they are first accessed, so a spool with many
+ * retained jobs opens quickly; {@link #listJobs()} reads them all, in parallel, the first time.
+ * {@link #listStoredJobs()} lists them without reading them, and {@link #loadEarlierJobs}
+ * reads them a page at a time.
+ * <p>
+ * Every job is also kept in a dispatch queue for its state, ordered by submission time and
+ * updated on each transition, so that {@link #claimNext} only visits the jobs waiting in the
+ * state it takes from, however many finished jobs are retained. Previews that were cut short
+ * have a queue of their own, so {@link #claimUnfinishedPreview} does not visit the jobs that
+ * wait for the user to confirm them.
+ * <p>
+ * Submitting, confirming and retrying a job signal new work; idle workers block in
+ * {@link #awaitWork} until then instead of polling.
+ * <p>
+ * Several workers may share a spooler. A worker takes a job with {@link #claimNext}, which
+ * moves it on with a compare-and-set of its status and holds it until {@link #releaseJob}, so
+ * no job is worked on by two workers at once. Which waiting job is taken is up to a
+ * {@link JobScheduler}; by default jobs go by priority and users get fair shares of the
+ * workers. The spooler's own transitions (confirm, cancel, retry) are compare-and-set as well,
+ * so they never overwrite a state a worker has just set.
  */
 public class SpoolerService {
 
     private static final Logger logger = LoggerFactory.getLogger(SpoolerService.class);
     private final Path spoolDirectory;
-    private final ObjectMapper objectMapper;
+    private final Path outputDirectory; // null when the spooler does not manage job output
+    private final JobStore jobStore;
     private final Map<String, PrintJob> jobQueue;
+    // 尚未读入内存的任务，首次访问时从存储加载
+    private final Map<String, JobStore.StoredJob> unloadedJobs = new ConcurrentHashMap<>();
+    // 假脱机目录中每个源文件被多少个任务引用，删除任务时据此决定是否删除文件；由自身加锁保护
+    private final Map<Path, Integer> spooledSourceReferences = new HashMap<>();
+
+    // 按状态分组的调度队列，按提交时间排序；dispatchKeys 记录每个任务当前所在的队列
+    private final Map<PrintJobStatus, NavigableSet<DispatchKey>> dispatchQueues = new EnumMap<>(PrintJobStatus.class);
+    private final Map<String, DispatchKey> dispatchKeys = new HashMap<>(); // 由自身加锁保护
+
+    private static final Comparator<DispatchKey> DISPATCH_ORDER =
+            Comparator.comparing(DispatchKey::submitTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(DispatchKey::jobId);
+
+    // 预览尚未完成的 PREVIEWING 任务，另排一队；由 dispatchKeys 的锁保护更新
+    private final NavigableSet<DispatchKey> unfinishedPreviews = new ConcurrentSkipListSet<>(DISPATCH_ORDER);
+
+    // 未结束的任务再按(优先级降序, 用户, 提交时间)各排一队，调度器只需查看每个用户最早的任务；由 dispatchKeys 的锁保护更新
+    private final Map<PrintJobStatus, NavigableSet<DispatchKey>> userQueues = new EnumMap<>(PrintJobStatus.class);
+
+    private static final Comparator<DispatchKey> USER_ORDER =
+            Comparator.comparingInt(DispatchKey::priority).reversed()
+                    .thenComparing(DispatchKey::user)
+                    .thenComparing(DISPATCH_ORDER);
+
+    /** A job's place in the queues. Priority and user are those of the job's last update, 0 and "" until it is loaded. */
+    private record DispatchKey(PrintJobStatus status, LocalDateTime submitTime, String jobId, int priority, String user) {
+    }
+
+    // 已被某个工作线程认领、正在处理的任务；新的认领在其锁内依次进行
+    private final Set<String> claimedJobs = ConcurrentHashMap.newKeySet();
+    private JobScheduler scheduler = new FairShareScheduler(); // 由 claimedJobs 加锁保护
+
+    // 工作信号：每次有新工作时递增，并唤醒等待的工作线程
+    private final Object workSignal = new Object();
+    private long workVersion; // 由 workSignal 保护
+
+    private static final Set<PrintJobStatus> FINISHED =
+            EnumSet.of(PrintJobStatus.COMPLETED, PrintJobStatus.CANCELLED, PrintJobStatus.FAILED);
 
     /**
      * Creates a new SpoolerService.
      * @param spoolDirectory The directory to store job metadata files.
      */
     public SpoolerService(Path spoolDirectory) {
+        this(spoolDirectory, null);
+    }
+
+    /**
+     * Creates a SpoolerService that also owns the jobs' output: {@link #removeJob} deletes a job's
+     * directory under {@code outputDirectory} along with its metadata. Jobs are kept in the store
+     * selected by the {@value JobStore#TYPE_PROPERTY} system property.
+     * @param spoolDirectory The directory to store job metadata files.
+     * @param outputDirectory The virtual printer's output directory.
+     */
+    public SpoolerService(Path spoolDirectory, Path outputDirectory) {
+        this(spoolDirectory, outputDirectory, JobStore.configured(spoolDirectory));
+    }
+
+    /**
+     * Creates a SpoolerService that keeps its jobs in the given store.
+     * @param spoolDirectory The directory to store job metadata and spooled sources.
+     * @param outputDirectory The virtual printer's output directory, or null.
+     * @param jobStore The store, not loaded yet; the spooler closes it in {@link #close()}.
+     */
+    public SpoolerService(Path spoolDirectory, Path outputDirectory, JobStore jobStore) {
         this.spoolDirectory = spoolDirectory;
+        this.outputDirectory = outputDirectory;
         this.jobQueue = new ConcurrentHashMap<>();
-
-        // Configure Jackson ObjectMapper
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule()); // For LocalDateTime support
+        this.jobStore = jobStore;
+        for (PrintJobStatus status : PrintJobStatus.values()) {
+            dispatchQueues.put(status, new ConcurrentSkipListSet<>(DISPATCH_ORDER));
+            if (!FINISHED.contains(status)) {
+                userQueues.put(status, new ConcurrentSkipListSet<>(USER_ORDER));
+            }
+        }
 
         ensureSpoolDirectoryExists();
         loadJobsFromDisk();
@@ -49,9 +149,18 @@ public class SpoolerService {
         return spoolDirectory;
     }
 
+    /**
+     * @return The output directory given at construction, or null.
+     */
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
     /**
      * Submits a new print job to the spooler.
-     * The job is added to the in-memory queue and its metadata is saved to a JSON file.
+     * The job is added to the in-memory queue and its metadata is saved to the job store.
+     * A job without an {@link PrintJob#getEstimatedPages() estimate of its pages} gets one
+     * from the size of its source files, for the scheduler.
      *
      * @param job The print job to submit.
      */
@@ -60,17 +169,26 @@ public class SpoolerService {
             throw new IllegalArgumentException("Job and Job ID cannot be null.");
         }
 
-        jobQueue.put(job.getJobId(), job);
+        // 在认领锁之外读取文件大小，调度时只用估算结果
+        if (job.getEstimatedPages() == 0) {
+            job.setEstimatedPages(FairShareScheduler.estimatePages(job));
+        }
+        boolean known = jobQueue.put(job.getJobId(), job) != null;
+        known |= unloadedJobs.remove(job.getJobId()) != null;
+        if (!known) {
+            referenceSpooledSources(job.getSourceFilePaths());
+        }
+        index(job);
         this.persistJob(job);
         logger.info("Submitted and persisted job: {}", job.getJobId());
+        signalWork();
     }
 
     public void confirmPrint(String jobId) {
-        PrintJob job = jobQueue.get(jobId);
-        if (job != null && job.getStatus() == PrintJobStatus.PREVIEWING) {
-            job.setStatus(PrintJobStatus.PRINTING);
-            updateJob(job);
+        PrintJob job = job(jobId);
+        if (job != null && transition(job, PrintJobStatus.PREVIEWING, PrintJobStatus.PRINTING)) {
             logger.info("User confirmed printing for job: {}", jobId);
+            signalWork();
         }
     }
 
@@ -81,11 +199,364 @@ public class SpoolerService {
      * @return A list of PrintJob objects.
      */
     public List<PrintJob> listJobs() {
+        loadJobs(unloadedJobs.values());
         return jobQueue.values().stream()
                 .sorted(Comparator.comparing(PrintJob::getSubmitTime))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Returns the jobs already in memory, sorted by submission time. Unlike {@link #listJobs()}
+     * it reads nothing from the store, so finished jobs left unread at startup are missing
+     * until something has read them; it is cheap enough for a display that refreshes often.
+     *
+     * @return A list of PrintJob objects.
+     */
+    public List<PrintJob> listLoadedJobs() {
+        return jobQueue.values().stream()
+                .sorted(Comparator.comparing(PrintJob::getSubmitTime))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Lists every job by what is known of it without reading it from the store: jobs in memory
+     * as {@link JobStore.LoadedJob}s, finished jobs left unread at startup as their stored
+     * record (ID, status, submit time). Sorted by submission time. Nothing is read, so it suits
+     * passes over the whole history such as the {@link RetentionManager}'s.
+     *
+     * @return The jobs.
+     */
+    public List<JobStore.StoredJob> listStoredJobs() {
+        Map<String, JobStore.StoredJob> jobs = new HashMap<>();
+        // 先取未读取的任务：读取时任务先放入 jobQueue 再移出 unloadedJobs，因此不会漏掉
+        for (JobStore.StoredJob stored : unloadedJobs.values()) {
+            jobs.put(stored.jobId(), stored);
+        }
+        for (PrintJob job : jobQueue.values()) {
+            jobs.put(job.getJobId(), new JobStore.LoadedJob(job));
+        }
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(JobStore.StoredJob::submitTime, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the most recently submitted of the finished jobs left unread at startup, e.g. to
+     * show one more page of the job history.
+     *
+     * @param count The number of jobs to read at most.
+     * @return The number of jobs read.
+     */
+    public int loadEarlierJobs(int count) {
+        List<JobStore.StoredJob> latest = unloadedJobs.values().stream()
+                .sorted(Comparator.comparing(JobStore.StoredJob::submitTime, Comparator.nullsFirst(Comparator.naturalOrder())).reversed())
+                .limit(count)
+                .toList();
+        loadJobs(latest);
+        return latest.size();
+    }
+
+    /**
+     * @return The number of jobs managed by the spooler, whether read from the store or not.
+     */
+    public int jobCount() {
+        synchronized (dispatchKeys) {
+            return dispatchKeys.size();
+        }
+    }
+
+    /**
+     * Returns the jobs in the given states, sorted by submission time. Only those jobs are
+     * read from the store, if they are not in memory yet.
+     *
+     * @param statuses The states to list.
+     * @return A list of PrintJob objects.
+     */
+    public List<PrintJob> listJobs(Set<PrintJobStatus> statuses) {
+        return statuses.stream()
+                .flatMap(status -> dispatchQueues.get(status).stream())
+                .map(key -> job(key.jobId()))
+                .filter(job -> job != null && statuses.contains(job.getStatus()))
+                .distinct()
+                .sorted(Comparator.comparing(PrintJob::getSubmitTime))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Claims the job in the given state that meets a condition, is not claimed by another
+     * worker and comes first with the {@link #setScheduler scheduler}, and moves it to
+     * {@code claimedStatus}. Claims are taken one at a time and the status is compare-and-set,
+     * so of several workers racing for the same job exactly one gets it. The caller must
+     * {@link #releaseJob release} the job when its stage is done.
+     *
+     * @param status The state to take a job from.
+     * @param condition The condition the job must meet.
+     * @param claimedStatus The state the job is moved to; may be {@code status} itself.
+     * @return The claimed job, or empty if there is none.
+     */
+    public Optional<PrintJob> claimNext(PrintJobStatus status, Predicate<PrintJob> condition, PrintJobStatus claimedStatus) {
+        return claim(dispatchQueues.get(status), userQueues.get(status), status, condition, claimedStatus);
+    }
+
+    /**
+     * Claims a job whose preview was cut short, e.g. by a restart, so that its rendering can
+     * resume. The job stays {@link PrintJobStatus#PREVIEWING PREVIEWING}; otherwise this is
+     * {@link #claimNext}, but only the unfinished previews are visited, not every job that
+     * waits for the user to confirm it.
+     *
+     * @return The claimed job, or empty if there is none.
+     */
+    public Optional<PrintJob> claimUnfinishedPreview() {
+        return claim(unfinishedPreviews, null, PrintJobStatus.PREVIEWING, job -> !job.isPreviewComplete(), PrintJobStatus.PREVIEWING);
+    }
+
+    /**
+     * @param queue The jobs to take from, in submission order.
+     * @param byUser The same jobs ordered by priority and user, or null to find each user's
+     *               earliest job by going through {@code queue}.
+     */
+    private Optional<PrintJob> claim(NavigableSet<DispatchKey> queue, NavigableSet<DispatchKey> byUser, PrintJobStatus status,
+                                     Predicate<PrintJob> condition, PrintJobStatus claimedStatus) {
+        PrintJob claimed = null;
+        synchronized (claimedJobs) {
+            // 候选任务在调度器遍历时才逐个取出，不复制整个队列；未被认领的任务，其上一个持有者的修改均已可见
+            Function<DispatchKey, PrintJob> candidate = key -> {
+                if (claimedJobs.contains(key.jobId())) {
+                    return null;
+                }
+                PrintJob job = job(key.jobId());
+                return job != null && job.getStatus() == status && condition.test(job) ? job : null;
+            };
+            JobScheduler.Candidates candidates = new JobScheduler.Candidates() {
+                @Override
+                public Iterator<PrintJob> iterator() {
+                    return queue.stream().map(candidate).filter(Objects::nonNull).iterator();
+                }
+
+                @Override
+                public List<PrintJob> userHeads() {
+                    return byUser != null ? SpoolerService.userHeads(byUser, candidate) : JobScheduler.Candidates.super.userHeads();
+                }
+            };
+            while (claimed == null) {
+                Optional<PrintJob> selected = scheduler.select(status, candidates);
+                if (selected.isEmpty()) {
+                    return Optional.empty();
+                }
+                PrintJob job = selected.get();
+                // 状态可能刚被取消等操作改变，此时它不再是候选，换一个任务
+                if (job.compareAndSetStatus(status, claimedStatus)) {
+                    claimedJobs.add(job.getJobId());
+                    scheduler.claimed(status, job);
+                    claimed = job;
+                }
+            }
+        }
+        updateJob(claimed);
+        return Optional.of(claimed);
+    }
+
+    /**
+     * Finds each user's earliest candidate at the highest priority that has one. Jobs that are
+     * not candidates, e.g. because they are claimed, are stepped over one by one; from a user's
+     * candidate, the search seeks straight to the next user, so the jobs behind it are never visited.
+     *
+     * @param byUser The jobs ordered by priority and user.
+     * @param candidate Returns the job of a key if it is a candidate, or null.
+     * @return One job per user, in submission order.
+     */
+    private static List<PrintJob> userHeads(NavigableSet<DispatchKey> byUser, Function<DispatchKey, PrintJob> candidate) {
+        List<DispatchKey> heads = new ArrayList<>();
+        Map<DispatchKey, PrintJob> jobs = new HashMap<>();
+        DispatchKey key = byUser.stream().findFirst().orElse(null);
+        while (key != null && (heads.isEmpty() || key.priority() == heads.get(0).priority())) {
+            PrintJob job = candidate.apply(key);
+            if (job == null) {
+                key = byUser.higher(key);
+                continue;
+            }
+            heads.add(key);
+            jobs.put(key, job);
+            // 同一优先级下比该用户名大的最小键，即下一个用户的第一个任务
+            key = byUser.ceiling(new DispatchKey(key.status(), null, "", key.priority(), key.user() + '\0'));
+        }
+        heads.sort(DISPATCH_ORDER);
+        return heads.stream().map(jobs::get).toList();
+    }
+
+    /**
+     * Sets the scheduler that decides which waiting job {@link #claimNext} takes.
+     * A {@link FairShareScheduler} is used by default.
+     *
+     * @param scheduler The scheduler.
+     */
+    public void setScheduler(JobScheduler scheduler) {
+        synchronized (claimedJobs) {
+            this.scheduler = Objects.requireNonNull(scheduler);
+        }
+    }
+
+    /**
+     * Gives up a claim taken with {@link #claimNext}. The job may be ready for its next stage,
+     * so waiting workers are woken.
+     *
+     * @param job The claimed job.
+     */
+    public void releaseJob(PrintJob job) {
+        if (claimedJobs.remove(job.getJobId())) {
+            signalWork();
+        }
+    }
+
+    /**
+     * @return true if a worker holds a claim on the job.
+     */
+    public boolean isClaimed(String jobId) {
+        return claimedJobs.contains(jobId);
+    }
+
+    /**
+     * Moves a job from one state to another if it is still in the expected state, and persists it.
+     *
+     * @param job The job.
+     * @param expected The state the job must be in.
+     * @param next The new state.
+     * @return true if the job was moved; false if its state had changed already.
+     */
+    public boolean transition(PrintJob job, PrintJobStatus expected, PrintJobStatus next) {
+        if (!job.compareAndSetStatus(expected, next)) {
+            return false;
+        }
+        updateJob(job);
+        return true;
+    }
+
+    /**
+     * Returns a number that changes whenever new work is signalled. Read it before looking for
+     * work, and pass it to {@link #awaitWork} if there was none, so that work signalled in
+     * between is not missed.
+     *
+     * @return The current work signal.
+     */
+    public long getWorkSignal() {
+        synchronized (workSignal) {
+            return workVersion;
+        }
+    }
+
+    /**
+     * Blocks until work is signalled after {@code seenSignal} was read.
+     *
+     * @param seenSignal The value of {@link #getWorkSignal()} read before the last look for work.
+     * @param timeout How long to wait at most, or null to wait until signalled.
+     * @return true if work was signalled; false on timeout.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitWork(long seenSignal, Duration timeout) throws InterruptedException {
+        long deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+        synchronized (workSignal) {
+            while (workVersion == seenSignal) {
+                if (timeout == null) {
+                    workSignal.wait();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    workSignal.wait(Math.max(1, remaining / 1_000_000));
+                }
+            }
+            return true;
+        }
+    }
+
+    private void signalWork() {
+        synchronized (workSignal) {
+            workVersion++;
+            workSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Moves a job to the dispatch queue of its current state, and files an unfinished preview
+     * as such. The state is read under the lock, so that of two racing calls, the last one
+     * files the job by its latest state.
+     */
+    private void index(PrintJob job) {
+        synchronized (dispatchKeys) {
+            index(job.getJobId(), job.getStatus(), job.getSubmitTime(), job.getPriority(), job.getUser());
+            DispatchKey key = dispatchKeys.get(job.getJobId());
+            if (key != null && key.status() == PrintJobStatus.PREVIEWING && !job.isPreviewComplete()) {
+                unfinishedPreviews.add(key);
+            } else if (key != null) {
+                unfinishedPreviews.remove(key);
+            }
+        }
+    }
+
+    private void index(String jobId, PrintJobStatus status, LocalDateTime submitTime, int priority, String user) {
+        synchronized (dispatchKeys) {
+            DispatchKey key = status != null
+                    ? new DispatchKey(status, submitTime, jobId, priority, Objects.requireNonNullElse(user, ""))
+                    : null;
+            DispatchKey old = dispatchKeys.get(jobId);
+            if (Objects.equals(old, key)) {
+                return;
+            }
+            if (old != null) {
+                dispatchQueues.get(old.status()).remove(old);
+                unfinishedPreviews.remove(old);
+                if (userQueues.containsKey(old.status())) {
+                    userQueues.get(old.status()).remove(old);
+                }
+            }
+            if (key == null) {
+                dispatchKeys.remove(jobId);
+                return;
+            }
+            dispatchKeys.put(jobId, key);
+            dispatchQueues.get(status).add(key);
+            if (userQueues.containsKey(status)) {
+                userQueues.get(status).add(key);
+            }
+        }
+    }
+
+    private void unindex(String jobId) {
+        index(jobId, null, null, 0, null);
+    }
+
+    /**
+     * @return The job with the given ID, read from the store if need be, or null.
+     */
+    private PrintJob job(String jobId) {
+        PrintJob job = jobQueue.get(jobId);
+        JobStore.StoredJob stored;
+        if (job != null || (stored = unloadedJobs.get(jobId)) == null) {
+            return job;
+        }
+        synchronized (stored) {
+            job = jobQueue.get(jobId);
+            if (job == null && unloadedJobs.containsKey(jobId)) {
+                try {
+                    job = stored.load();
+                    jobQueue.put(jobId, job);
+                } catch (IOException e) {
+                    logger.error("Failed to load job {}; it is left out.", jobId, e);
+                    unindex(jobId);
+                }
+                unloadedJobs.remove(jobId);
+            }
+            return job;
+        }
+    }
+
+    private void loadJobs(Collection<JobStore.StoredJob> jobs) {
+        if (!jobs.isEmpty()) {
+            List.copyOf(jobs).parallelStream().forEach(stored -> job(stored.jobId()));
+        }
+    }
+
     /**
      * Ensures the spool directory exists, creating it if necessary.
      */
@@ -103,21 +574,34 @@ public class SpoolerService {
     }
 
     /**
-     * Loads all existing job files (.json) from the spool directory into the in-memory queue.
+     * Loads all stored jobs into the in-memory queue.
      * This is called on startup to recover the queue state.
      */
     private void loadJobsFromDisk() {
         logger.info("Loading existing jobs from {}...", spoolDirectory);
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDirectory, "*.json")) {
-            for (Path jobFile : stream) {
-                try {
-                    PrintJob job = objectMapper.readValue(jobFile.toFile(), PrintJob.class);
-                    jobQueue.put(job.getJobId(), job);
-                    logger.info("Loaded job {} from file.", job.getJobId());
-                } catch (IOException e) {
-                    logger.error("Failed to load job from file: {}", jobFile, e);
+        try {
+            for (JobStore.StoredJob stored : jobStore.loadAll()) {
+                if (stored instanceof JobStore.LoadedJob loaded) {
+                    jobQueue.put(stored.jobId(), loaded.job());
+                } else {
+                    unloadedJobs.put(stored.jobId(), stored);
+                }
+                index(stored.jobId(), stored.status(), stored.submitTime(), 0, null);
+                referenceSpooledSources(stored.sourceFilePaths());
+            }
+            // 待处理的任务马上要用到，先读入；已结束的任务按需读取
+            loadJobs(unloadedJobs.values().stream().filter(stored -> !FINISHED.contains(stored.status())).toList());
+            for (PrintJob job : jobQueue.values()) {
+                index(job);
+                // 旧版本保存的待处理任务没有页数估算
+                if (job.getEstimatedPages() == 0 && !FINISHED.contains(job.getStatus())) {
+                    job.setEstimatedPages(FairShareScheduler.estimatePages(job));
+                }
+                if (job.getStatus() == PrintJobStatus.PREVIEWING && !job.isPreviewComplete()) {
+                    logger.info("Job {} was interrupted while rendering its preview; rendering will resume.", job.getJobId());
                 }
             }
+            logger.info("Loaded {} job(s); {} finished job(s) will be read when needed.", jobQueue.size(), unloadedJobs.size());
         } catch (IOException e) {
             logger.error("Could not read spool directory.", e);
             throw new RuntimeException("Failed to read spool directory.", e);
@@ -125,23 +609,23 @@ public class SpoolerService {
     }
 
     /**
-     * Saves a single print job's metadata to a JSON file in the spool directory.
-     * The file is named after the job's ID.
+     * Saves a single print job's metadata to the job store.
      *
      * @param job The job to persist.
      */
     private void persistJob(PrintJob job) {
-        Path jobFile = spoolDirectory.resolve(job.getJobId() + ".json");
+        // 同一任务的保存依次进行，最后一次保存总是包含最新状态
         try {
-            // 写入JSON文件
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(jobFile.toFile(), job);
+            synchronized (job) {
+                jobStore.save(job);
+            }
         } catch (IOException e) {
-            logger.error("Failed to persist job {} to file {}", job.getJobId(), jobFile, e);
+            logger.error("Failed to persist job {}", job.getJobId(), e);
         }
     }
 
     /**
-     * Updates an existing print job in the queue and persists the changes to its JSON file.
+     * Updates an existing print job in the queue and persists the changes to the job store.
      * This is crucial for updating the job's status as it moves through the printing pipeline.
      *
      * @param job The print job with updated information.
@@ -153,6 +637,7 @@ public class SpoolerService {
         }
         // 更新内存中的job
         jobQueue.put(job.getJobId(), job);
+        index(job);
         // 保存更新
         persistJob(job);
         logger.debug("Updated and persisted job: {}", job.getJobId());
@@ -165,10 +650,9 @@ public class SpoolerService {
      * @param jobId The ID of the job to cancel.
      */
     public void cancelJob(String jobId) {
-        PrintJob job = jobQueue.get(jobId);
-        if (job != null && (job.getStatus() == PrintJobStatus.QUEUED || job.getStatus() == PrintJobStatus.PRINTING)) {
-            job.setStatus(PrintJobStatus.CANCELLED);
-            updateJob(job);
+        PrintJob job = job(jobId);
+        if (job != null && (transition(job, PrintJobStatus.QUEUED, PrintJobStatus.CANCELLED)
+                || transition(job, PrintJobStatus.PRINTING, PrintJobStatus.CANCELLED))) {
             logger.info("Cancelled job: {}", jobId);
         }
     }
@@ -179,30 +663,131 @@ public class SpoolerService {
      * @param jobId The ID of the job to retry.
      */
     public void retryJob(String jobId) {
-        PrintJob job = jobQueue.get(jobId);
-        if (job != null && job.getStatus() == PrintJobStatus.FAILED) {
-            job.setStatus(PrintJobStatus.QUEUED);
-            job.getErrorLog().clear(); // Clear old errors before retrying
-            updateJob(job);
-            logger.info("Retrying job: {}", jobId);
+        PrintJob job;
+        // 与 removeJob 互斥：正在删除的任务不会被重新排队
+        synchronized (claimedJobs) {
+            job = job(jobId);
+            if (job == null || !job.compareAndSetStatus(PrintJobStatus.FAILED, PrintJobStatus.QUEUED)) {
+                return;
+            }
         }
+        job.getErrorLog().clear(); // Clear old errors before retrying
+        updateJob(job);
+        logger.info("Retrying job: {}", jobId);
+        signalWork();
     }
 
     /**
-     * Removes a job from the queue and deletes its metadata file from the disk.
-     * This is for jobs that are in a terminal state (COMPLETED, FAILED, CANCELLED).
+     * Removes a job from the queue and deletes everything the spooler keeps for it: its metadata
+     * file, the copies of its source files in the spool directory and, if the spooler was given
+     * an output directory, the job's output tree.
+     * <p>
+     * Only jobs in a terminal state (COMPLETED, FAILED, CANCELLED) that no worker has claimed
+     * are removed. The check and the removal happen under the claim lock, so a job cannot be
+     * claimed or retried in between; a job cancelled while a worker still holds it is removed
+     * once the worker has released it.
      * @param jobId The ID of the job to remove.
+     * @return The number of bytes freed on disk, or empty if the job was not removed.
+     */
+    public OptionalLong removeJob(String jobId) {
+        PrintJob job;
+        synchronized (claimedJobs) {
+            job = job(jobId);
+            if (job == null) {
+                return OptionalLong.empty();
+            }
+            if (claimedJobs.contains(jobId) || !FINISHED.contains(job.getStatus())) {
+                logger.info("Not removing job {}: it is {}{}.", jobId, job.getStatus(),
+                        claimedJobs.contains(jobId) ? " and still held by a worker" : "");
+                return OptionalLong.empty();
+            }
+            jobQueue.remove(jobId);
+            unindex(jobId);
+        }
+        long freed = 0;
+        try {
+            freed += jobStore.remove(job.getJobId());
+            freed += deleteSpooledSources(job);
+            if (outputDirectory != null) {
+                freed += FileTrees.delete(outputDirectory.resolve(job.getJobId()));
+            }
+            logger.info("Removed job {} and its files ({} bytes).", jobId, freed);
+        } catch (IOException e) {
+            logger.error("Failed to delete the files of job {}", jobId, e);
+        }
+        return OptionalLong.of(freed);
+    }
+
+    /**
+     * Closes the job store. Call it once the worker and the UI are done with the spooler.
      */
-    public void removeJob(String jobId) {
-        PrintJob job = jobQueue.remove(jobId);
-        if (job != null) {
-            Path jobFile = spoolDirectory.resolve(job.getJobId() + ".json");
-            try {
-                Files.deleteIfExists(jobFile);
-                logger.info("Removed job {} and its metadata file.", jobId);
-            } catch (IOException e) {
-                logger.error("Failed to delete job metadata file: {}", jobFile, e);
+    public void close() {
+        try {
+            jobStore.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the job store.", e);
+        }
+    }
+
+    /**
+     * Counts a job's references to source files in the spool directory.
+     */
+    private void referenceSpooledSources(List<String> sourceFilePaths) {
+        synchronized (spooledSourceReferences) {
+            for (Path source : spooledSources(sourceFilePaths)) {
+                spooledSourceReferences.merge(source, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * @return The files of the list that live in the spool directory, absolute and normalized.
+     */
+    private List<Path> spooledSources(List<String> sourceFilePaths) {
+        if (sourceFilePaths == null) {
+            return List.of();
+        }
+        Path spoolRoot = spoolDirectory.toAbsolutePath().normalize();
+        List<Path> spooled = new ArrayList<>();
+        for (String sourceFile : sourceFilePaths) {
+            Path source = Path.of(sourceFile).toAbsolutePath().normalize();
+            if (source.startsWith(spoolRoot) && !source.equals(spoolRoot)) {
+                spooled.add(source);
             }
         }
+        return spooled;
+    }
+
+    /**
+     * Drops a removed job's references to its spooled source files and deletes the files no
+     * other job refers to, and the directory they were copied into if nothing else is left in
+     * it. Source files elsewhere are the user's.
+     */
+    private long deleteSpooledSources(PrintJob job) throws IOException {
+        Path spoolRoot = spoolDirectory.toAbsolutePath().normalize();
+        long freed = 0;
+        // 持锁删除：同时提交的任务不会引用到正被删除的文件
+        synchronized (spooledSourceReferences) {
+            for (Path source : spooledSources(job.getSourceFilePaths())) {
+                if (spooledSourceReferences.computeIfPresent(source, (path, count) -> count > 1 ? count - 1 : null) != null) {
+                    continue; // 其他任务仍在使用
+                }
+                freed += FileTrees.delete(source);
+                Path parent = source.getParent();
+                if (!parent.equals(spoolRoot) && isEmptyDirectory(parent)) {
+                    Files.deleteIfExists(parent);
+                }
+            }
+        }
+        return freed;
+    }
+
+    private static boolean isEmptyDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            return !entries.iterator().hasNext();
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,33 +2,191 @@ package com.wonderboy.printer.service;
 
 import com.wonderboy.printer.model.PrintJob;
 import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.printer.EncodedPage;
+import com.wonderboy.printer.printer.EncodedPageWriter;
+import com.wonderboy.printer.printer.PdfAssembler;
 import com.wonderboy.printer.printer.VirtualPrinter;
 import com.wonderboy.printer.renderer.PageRenderer;
+import com.wonderboy.printer.renderer.SimpleTextRenderer;
 import com.wonderboy.printer.source.PageSource;
 import com.wonderboy.printer.source.TextPageSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A worker that processes a single print job from start to finish.
  * It orchestrates the spooler, renderer, and virtual printer.
+ * <p>
+ * A queued job is first rendered at screen resolution for the preview only. Print output is
+ * produced once the user confirms the job: text is written to the PDF directly, other jobs are
+ * rendered again at print resolution.
+ * <p>
+ * Preview pages are checkpointed as they reach the disk. A preview whose rendering was cut off,
+ * e.g. by a crash, is picked up again when the spool is next processed and continues at the
+ * first page that is missing or damaged.
+ * <p>
+ * Several workers can share one spooler, e.g. in a {@link SpoolerWorkerPool}: each stage
+ * starts by {@link SpoolerService#claimNext claiming} a job, so a job is only ever worked on
+ * by one of them, and the claim is released when the stage ends.
  */
 public class SpoolerWorker {
 
     private static final Logger logger = LoggerFactory.getLogger(SpoolerWorker.class);
 
+    // 超过该像素数的页面按条带渲染（A4 600 DPI 约 3500 万像素），避免整页位图占用过多内存
+    public static final long DEFAULT_BANDED_PAGE_PIXELS = 16L * 1024 * 1024;
+    private static final int BAND_HEIGHT = 256;
+
+    /** System property that sets the number of render threads, e.g. -Dprinter.renderThreads=8. */
+    public static final String RENDER_THREADS_PROPERTY = "printer.renderThreads";
+
+    /**
+     * System property that chooses how text jobs are printed: {@code vector} (the default) or
+     * {@code raster}, e.g. -Dprinter.textOutput=raster. See {@link #setVectorTextOutput}.
+     */
+    public static final String TEXT_OUTPUT_PROPERTY = "printer.textOutput";
+
     private final SpoolerService spoolerService;
     private final PageRenderer renderer;
     private final VirtualPrinter virtualPrinter;
+    private final int renderThreads;
+    private final ExecutorService renderExecutor; // null when rendering on the worker thread
+    private long bandedPagePixels = DEFAULT_BANDED_PAGE_PIXELS;
+    private boolean vectorTextOutput = true;
+    private RenderCache renderCache; // null when every page is rendered
 
     public SpoolerWorker(SpoolerService spoolerService, PageRenderer renderer, VirtualPrinter virtualPrinter) {
+        this(spoolerService, renderer, virtualPrinter, 1);
+    }
+
+    /**
+     * Creates a worker that renders up to {@code renderThreads} pages of a job concurrently.
+     * Pages are still handed to the virtual printer, and thus to its listener, in page order.
+     *
+     * @param renderThreads The number of pages rendered in parallel; 1 renders on the worker thread.
+     */
+    public SpoolerWorker(SpoolerService spoolerService, PageRenderer renderer, VirtualPrinter virtualPrinter, int renderThreads) {
+        if (renderThreads < 1) {
+            throw new IllegalArgumentException("renderThreads must be at least 1.");
+        }
         this.spoolerService = spoolerService;
         this.renderer = renderer;
         this.virtualPrinter = virtualPrinter;
+        this.renderThreads = renderThreads;
+        this.renderExecutor = renderThreads > 1 ? Executors.newFixedThreadPool(renderThreads, renderThreadFactory()) : null;
+    }
+
+    /**
+     * Reads the render parallelism from the {@value #RENDER_THREADS_PROPERTY} system property,
+     * defaulting to the number of available processors.
+     *
+     * @return The configured number of render threads.
+     */
+    public static int configuredRenderThreads() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String value = System.getProperty(RENDER_THREADS_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return processors;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid {}={}, using {} render threads.", RENDER_THREADS_PROPERTY, value, processors);
+            return processors;
+        }
+    }
+
+    /**
+     * Reads the text output mode from the {@value #TEXT_OUTPUT_PROPERTY} system property,
+     * defaulting to vector text.
+     *
+     * @return true to write text jobs as vector text, false to render them at print resolution.
+     */
+    public static boolean configuredVectorTextOutput() {
+        String value = System.getProperty(TEXT_OUTPUT_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return true;
+        }
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "vector":
+                return true;
+            case "raster":
+                return false;
+            default:
+                logger.warn("Ignoring invalid {}={}, writing text as vector text.", TEXT_OUTPUT_PROPERTY, value);
+                return true;
+        }
+    }
+
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    /**
+     * Stops the render threads. The worker must not be used afterwards.
+     */
+    public void shutdown() {
+        if (renderExecutor != null) {
+            renderExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the page size, in pixels, above which print pages are rendered in horizontal bands
+     * and compressed band by band instead of being rendered as one image. Only applies to jobs
+     * rendered at print resolution, see {@link #setVectorTextOutput}.
+     *
+     * @param pixels The threshold; 0 renders every page in bands.
+     */
+    public void setBandedPagePixels(long pixels) {
+        this.bandedPagePixels = pixels;
+    }
+
+    /**
+     * Chooses how text jobs are turned into the final PDF. When enabled (the default), text is
+     * written as PDF text with an embedded font and no print-resolution bitmaps are rendered;
+     * otherwise the pages are rendered at print resolution and the bitmaps embedded.
+     * Previews are rendered as bitmaps either way.
+     * <p>
+     * Banding and 1-bit print pages concern print-resolution bitmaps, so for text jobs they
+     * only take effect when this is disabled.
+     * Main and the UI read the mode from {@value #TEXT_OUTPUT_PROPERTY}, see
+     * {@link #configuredVectorTextOutput}.
+     *
+     * @param vectorTextOutput true to write text jobs as vector text.
+     */
+    public void setVectorTextOutput(boolean vectorTextOutput) {
+        this.vectorTextOutput = vectorTextOutput;
+    }
+
+    /**
+     * Lets the worker reuse the output produced for earlier jobs with the same content and settings.
+     * Text written as vector text is cached as the finished PDF, which is copied to the job's
+     * output instead of being written again; jobs rendered at print resolution are cached page
+     * by page. Newly produced output is added to the cache. Previews do not use the cache.
+     *
+     * @param renderCache The cache to use, or null to produce all output.
+     */
+    public void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
     }
 
     /**
@@ -44,69 +202,341 @@ public class SpoolerWorker {
         return processNextQueuedJob();
     }
 
+    /**
+     * Processes jobs until the thread is interrupted. While there is no work, the thread
+     * blocks until the spooler signals some.
+     *
+     * @throws InterruptedException when the thread is interrupted.
+     */
+    public void run() throws InterruptedException {
+        process(null);
+    }
+
+    /**
+     * Processes jobs until none has been available for {@code idleTime}.
+     *
+     * @param idleTime How long to wait for new work once there is none; zero returns as soon as the queue is drained.
+     * @throws InterruptedException when the thread is interrupted.
+     */
+    public void runUntilIdle(Duration idleTime) throws InterruptedException {
+        process(idleTime);
+    }
+
+    private void process(Duration idleTime) throws InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            // 先读信号再找任务：其间提交的任务会让 awaitWork 立即返回
+            long signal = spoolerService.getWorkSignal();
+            if (!processOneStep() && !spoolerService.awaitWork(signal, idleTime)) {
+                return;
+            }
+        }
+        throw new InterruptedException();
+    }
+
     private boolean processNextQueuedJob() {
-        // 查找状态为QUEUED的任务
-        Optional<PrintJob> jobOptional = findFirstJobByStatus(PrintJobStatus.QUEUED);
+        // 先认领上次运行中断的预览，再认领状态为QUEUED的任务
+        Optional<PrintJob> jobOptional = spoolerService.claimUnfinishedPreview();
+        boolean resuming = jobOptional.isPresent();
+        if (!resuming) {
+            jobOptional = spoolerService.claimNext(PrintJobStatus.QUEUED, job -> true, PrintJobStatus.PREVIEWING);
+        }
         if (jobOptional.isEmpty()) return false;
 
         PrintJob job = jobOptional.get();
-        logger.info("Stage 1: Starting to render job for preview: {}", job.getJobId());
+        logger.info("Stage 1: {} rendering job for preview: {}", resuming ? "Resuming" : "Starting", job.getJobId());
 
         try {
             // 更新状态
-            job.setStatus(PrintJobStatus.PREVIEWING);
+            job.setPreviewComplete(false);
             spoolerService.updateJob(job);
 
-            PageSource source = new TextPageSource(Paths.get(job.getSourceFilePaths().getFirst()));
-            // 计算总页数
-            int totalPages = renderer.getTotalPages(source, job.getSettings());
+            // 中断的任务从第一个缺失或损坏的页面继续；新任务从第一页开始
+            int firstPage = 0;
+            if (resuming) {
+                firstPage = virtualPrinter.resumablePreviewPages(job);
+                logger.info("{} preview pages of job {} are intact; continuing at page {}.",
+                        firstPage, job.getJobId(), firstPage + 1);
+            } else {
+                virtualPrinter.discardPreviewProgress(job);
+            }
 
-            // 逐页调用渲染器进行渲染
-            for (int i = 0; i < totalPages; i++) {
-                logger.info("Rendering page {} of {} for job {}", i + 1, totalPages, job.getJobId());
-                BufferedImage pageImage = renderer.render(source, i, job.getSettings());
-                virtualPrinter.acceptRenderedPage(job, pageImage, i + 1);
+            // 只渲染屏幕分辨率的预览页；打印分辨率的页面在用户确认后才生成
+            try (PageSource source = openSource(job)) {
+                renderPreviewPages(job, source, firstPage);
             }
+            // 预览文件在后台写入，阶段结束前确保全部落盘
+            virtualPrinter.awaitPageWrites(job);
+            job.setPreviewComplete(true);
+            spoolerService.updateJob(job);
             logger.info("Finished rendering job {} for preview.", job.getJobId());
         } catch (Exception e) {
+            // 等待已提交的预览页写完，避免失败后仍有后台写入
+            try {
+                virtualPrinter.awaitPageWrites(job);
+            } catch (IOException writeFailure) {
+                e.addSuppressed(writeFailure);
+            }
             // 异常处理
-            handleFailure(job, e);
+            handleFailure(job, PrintJobStatus.PREVIEWING, e);
+        } finally {
+            spoolerService.releaseJob(job);
         }
         return true;
     }
 
+    /**
+     * Renders the pages of a job from {@code firstPage} (0-based) on at {@link VirtualPrinter#PREVIEW_DPI}
+     * and hands the previews to the virtual printer in order.
+     */
+    private void renderPreviewPages(PrintJob job, PageSource source, int firstPage) throws Exception {
+        PrintSettings settings = job.getSettings();
+        // 计算总页数
+        int totalPages = renderer.getTotalPages(source, settings);
+        renderInOrder(job, firstPage, totalPages, "preview",
+                pageIndex -> new RenderedPage(job, pageIndex + 1,
+                        renderer.renderPreview(source, pageIndex, settings, VirtualPrinter.PREVIEW_DPI), null),
+                page -> virtualPrinter.acceptPreviewPage(page.job(), page.image(), page.pageNumber()));
+    }
+
+    /**
+     * Renders every page of a job at print resolution and adds the pages to the job's PDF as
+     * they arrive, taking pages from the render cache where possible. Pages are compressed on
+     * the render threads; the PDF only receives the compressed bytes.
+     */
+    private void renderPrintPages(PrintJob job, PageSource source, PdfAssembler pdf) throws Exception {
+        PrintSettings settings = job.getSettings();
+        int totalPages = renderer.getTotalPages(source, settings);
+        boolean banded = (long) settings.pageWidthInPixels() * settings.pageHeightInPixels() > bandedPagePixels;
+        String cacheKey = renderCacheKey(job, () -> RenderCache.jobKey(job, renderer));
+        renderInOrder(job, 0, totalPages, "print",
+                pageIndex -> renderPrintPage(job, source, pageIndex, banded, cacheKey),
+                page -> pdf.addPage(page.encoded()));
+    }
+
+    /**
+     * Writes a text job's PDF as vector text, or copies it from the render cache if the same
+     * document has been printed with the same settings before.
+     */
+    private void finishTextJob(PrintJob job, SimpleTextRenderer textRenderer, TextPageSource textSource) throws IOException {
+        String cacheKey = renderCacheKey(job, () -> RenderCache.documentKey(job, renderer, VirtualPrinter.textPdfFormat()));
+        Path pdfFile = virtualPrinter.pdfFile(job);
+        if (cacheKey != null && renderCache.copyTo(cacheKey, pdfFile)) {
+            logger.info("PDF of job {} served from the render cache.", job.getJobId());
+            return;
+        }
+        virtualPrinter.finishTextJob(job, textSource, textRenderer.layout(textSource, job.getSettings()));
+        if (cacheKey != null && Files.exists(pdfFile)) { // a document without pages has no PDF
+            renderCache.storeFile(cacheKey, pdfFile);
+        }
+    }
+
+    /**
+     * @return The render cache key of the job, or null if the cache is off or the key cannot be computed.
+     */
+    private String renderCacheKey(PrintJob job, CacheKey key) {
+        if (renderCache == null || renderCache.getMaxBytes() == 0) {
+            return null;
+        }
+        try {
+            return key.compute();
+        } catch (IOException e) {
+            // Rendering will report the unreadable source properly; just skip the cache.
+            logger.warn("Not using the render cache for job {}: {}", job.getJobId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Renders the pages from {@code firstPage} (0-based) on and delivers them in page order. With render threads, pages are rendered on
+     * the pool while being delivered on this thread; at most two pages per thread are in flight,
+     * which keeps the pool busy while bounding how many rendered pages wait in memory for an
+     * earlier, slower page.
+     */
+    private void renderInOrder(PrintJob job, int firstPage, int totalPages, String tier,
+                               PageTask task, PageDelivery delivery) throws Exception {
+        if (renderExecutor == null) {
+            for (int i = firstPage; i < totalPages; i++) {
+                logger.info("Rendering {} page {} of {} for job {}", tier, i + 1, totalPages, job.getJobId());
+                delivery.deliver(task.render(i));
+            }
+            return;
+        }
+        int window = renderThreads * 2;
+        Deque<Future<RenderedPage>> inFlight = new ArrayDeque<>(window);
+        int nextPage = firstPage;
+        try {
+            while (nextPage < totalPages || !inFlight.isEmpty()) {
+                while (nextPage < totalPages && inFlight.size() < window) {
+                    int pageIndex = nextPage++;
+                    inFlight.addLast(renderExecutor.submit(() -> {
+                        logger.info("Rendering {} page {} of {} for job {}", tier, pageIndex + 1, totalPages, job.getJobId());
+                        return task.render(pageIndex);
+                    }));
+                }
+                delivery.deliver(awaitPage(inFlight.removeFirst()));
+            }
+        } finally {
+            // Only reached with pages left on failure: stop rendering pages nobody will deliver.
+            for (Future<RenderedPage> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    private RenderedPage renderPrintPage(PrintJob job, PageSource source, int pageIndex, boolean banded,
+                                         String cacheKey) throws IOException {
+        PrintSettings settings = job.getSettings();
+        int pageNumber = pageIndex + 1;
+        String pageKey = cacheKey != null ? RenderCache.pageKey(cacheKey, pageIndex) : null;
+        // 缓存命中：直接使用已压缩的页面，跳过渲染
+        EncodedPage cached = pageKey != null ? fetchCachedPage(pageKey) : null;
+        if (cached != null) {
+            logger.debug("Page {} of job {} served from the render cache.", pageNumber, job.getJobId());
+            return new RenderedPage(job, pageNumber, null, cached);
+        }
+        EncodedPage page;
+        if (banded) {
+            EncodedPageWriter pageWriter = new EncodedPageWriter();
+            renderer.renderBands(source, pageIndex, settings, BAND_HEIGHT, pageWriter);
+            page = pageWriter.getPage();
+            if (page == null) {
+                throw new IllegalStateException("Banded page " + pageNumber + " has not been completed.");
+            }
+        } else {
+            page = EncodedPage.encode(renderer.render(source, pageIndex, settings));
+        }
+        if (pageKey != null) {
+            renderCache.store(pageKey, page.toBytes());
+        }
+        return new RenderedPage(job, pageNumber, null, page);
+    }
+
+    private EncodedPage fetchCachedPage(String pageKey) {
+        byte[] bytes = renderCache.fetch(pageKey);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return EncodedPage.fromBytes(bytes);
+        } catch (IOException e) {
+            logger.warn("Dropping corrupt render cache entry {}: {}", pageKey, e.getMessage());
+            renderCache.invalidate(pageKey);
+            return null;
+        }
+    }
+
+    private static RenderedPage awaitPage(Future<RenderedPage> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // Surface the renderer's own exception so the job's error log stays meaningful.
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static ThreadFactory renderThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "page-render-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Renders one page of a job.
+     */
+    @FunctionalInterface
+    private interface PageTask {
+        RenderedPage render(int pageIndex) throws IOException;
+    }
+
+    /**
+     * Computes a render cache key, reading the job's sources.
+     */
+    @FunctionalInterface
+    private interface CacheKey {
+        String compute() throws IOException;
+    }
+
+    /**
+     * Hands a rendered page on; called in page order.
+     */
+    @FunctionalInterface
+    private interface PageDelivery {
+        void deliver(RenderedPage page) throws IOException;
+    }
+
+    /**
+     * A rendered page: a preview image, or a print page compressed for the PDF.
+     */
+    private record RenderedPage(PrintJob job, int pageNumber, BufferedImage image, EncodedPage encoded) {
+    }
+
     private boolean processNextPrintingJob() {
-        Optional<PrintJob> jobOptional = findFirstJobByStatus(PrintJobStatus.PRINTING);
+        Optional<PrintJob> jobOptional = spoolerService.claimNext(PrintJobStatus.PRINTING, job -> true, PrintJobStatus.PRINTING);
         if (jobOptional.isEmpty()) return false;
 
         PrintJob job = jobOptional.get();
         logger.info("Stage 2: Finalizing PDF for job: {}", job.getJobId());
 
         try {
-            // 调用virtual printer将位图生成PDF
-            virtualPrinter.finishJob(job);
-            job.setStatus(PrintJobStatus.COMPLETED);
-            // 更新状态
-            spoolerService.updateJob(job);
-            logger.info("Successfully completed job: {}", job.getJobId());
+            try (PageSource source = openSource(job)) {
+                if (vectorTextOutput && renderer instanceof SimpleTextRenderer textRenderer && source instanceof TextPageSource textSource) {
+                    // 文本任务直接输出矢量文字，不需要打印分辨率的位图
+                    finishTextJob(job, textRenderer, textSource);
+                } else {
+                    // 其他任务渲染打印分辨率的页面，边渲染边写入PDF
+                    try (PdfAssembler pdf = virtualPrinter.openPdf(job)) {
+                        renderPrintPages(job, source, pdf);
+                        pdf.finish();
+                    }
+                }
+            }
+            // 更新状态；处理期间被取消的任务保持取消
+            if (spoolerService.transition(job, PrintJobStatus.PRINTING, PrintJobStatus.COMPLETED)) {
+                logger.info("Successfully completed job: {}", job.getJobId());
+                cleanIntermediates(job);
+            } else {
+                logger.info("Job {} was {} while its PDF was produced.", job.getJobId(), job.getStatus());
+            }
         } catch (Exception e) {
             // 处理异常
-            handleFailure(job, e);
+            handleFailure(job, PrintJobStatus.PRINTING, e);
+        } finally {
+            spoolerService.releaseJob(job);
         }
         return true;
     }
 
-    private void handleFailure(PrintJob job, Exception e) {
+    /**
+     * Frees the job's intermediate files right away instead of leaving them to the retention manager.
+     */
+    private void cleanIntermediates(PrintJob job) {
+        try {
+            long freed = virtualPrinter.cleanIntermediates(job);
+            logger.debug("Cleaned {} bytes of intermediate files of job {}", freed, job.getJobId());
+        } catch (IOException e) {
+            logger.warn("Could not clean the intermediate files of job {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+
+    private static PageSource openSource(PrintJob job) {
+        return new TextPageSource(Paths.get(job.getSourceFilePaths().getFirst()));
+    }
+
+    /**
+     * Marks a job FAILED unless it has left {@code stage} meanwhile, e.g. because it was cancelled.
+     */
+    private void handleFailure(PrintJob job, PrintJobStatus stage, Exception e) {
         logger.error("Failed to process job {}: {}", job.getJobId(), e.getMessage(), e);
         String errorMessage = e.getClass().getSimpleName() + ": " + e.getMessage();
         job.appendErrorLog(errorMessage);
-        job.setStatus(PrintJobStatus.FAILED);
-        spoolerService.updateJob(job);
-    }
-
-    private Optional<PrintJob> findFirstJobByStatus(PrintJobStatus status) {
-        return spoolerService.listJobs().stream()
-                .filter(job -> job.getStatus() == status)
-                .findFirst();
+        if (!spoolerService.transition(job, stage, PrintJobStatus.FAILED)) {
+            spoolerService.updateJob(job); // 保留错误日志
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package com.wonderboy.printer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several {@link SpoolerWorker}s on one spooler, each on its own thread, so that several
+ * jobs are rendered at the same time. The workers claim their jobs from the spooler, so no job
+ * is processed twice; idle workers block until the spooler signals work.
+ */
+public class SpoolerWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolerWorkerPool.class);
+
+    /** System property that sets the number of workers, e.g. -Dprinter.workers=4. */
+    public static final String WORKERS_PROPERTY = "printer.workers";
+
+    private final List<SpoolerWorker> workers;
+    private final List<Thread> threads = new ArrayList<>(); // 由 this 加锁保护
+
+    /**
+     * @param workers The workers, usually sharing one spooler and virtual printer.
+     */
+    public SpoolerWorkerPool(List<SpoolerWorker> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("A worker pool needs at least one worker.");
+        }
+        this.workers = List.copyOf(workers);
+    }
+
+    /**
+     * Reads the number of workers from the {@value #WORKERS_PROPERTY} system property, defaulting to 1.
+     *
+     * @return The configured number of workers.
+     */
+    public static int configuredWorkers() {
+        String value = System.getProperty(WORKERS_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid {}={}, using 1 worker.", WORKERS_PROPERTY, value);
+            return 1;
+        }
+    }
+
+    public List<SpoolerWorker> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Starts one thread per worker, each processing jobs until the pool is shut down.
+     */
+    public synchronized void start() {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("The worker pool has already been started.");
+        }
+        for (int i = 0; i < workers.size(); i++) {
+            SpoolerWorker worker = workers.get(i);
+            Thread thread = new Thread(() -> runWorker(worker), "spooler-worker-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+        logger.info("Started {} spooler worker(s).", threads.size());
+    }
+
+    private static void runWorker(SpoolerWorker worker) {
+        try {
+            // 无任务时阻塞，直到提交、确认或重试任务时被唤醒
+            worker.run();
+        } catch (InterruptedException e) {
+            logger.debug("{} interrupted and shutting down.", Thread.currentThread().getName());
+        } catch (RuntimeException e) {
+            logger.error("{} stopped unexpectedly.", Thread.currentThread().getName(), e);
+        }
+    }
+
+    /**
+     * Interrupts the workers, waits for them to stop and then stops their render threads.
+     *
+     * @param timeout How long to wait for the worker threads.
+     * @return true if every worker thread stopped in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized boolean shutdown(Duration timeout) throws InterruptedException {
+        threads.forEach(Thread::interrupt);
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean stopped = true;
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                thread.join(Math.max(1, remaining / 1_000_000));
+            }
+            stopped &= !thread.isAlive();
+        }
+        workers.forEach(SpoolerWorker::shutdown);
+        return stopped;
+    }
+}
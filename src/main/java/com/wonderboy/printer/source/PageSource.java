@@ -3,13 +3,14 @@ package com.wonderboy.printer.source;
 import com.wonderboy.printer.model.PrintSettings;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
  * An abstraction for a printable document source.
  * Implementations will handle specific file types like text, images, or PDFs.
  */
-public interface PageSource {
+public interface PageSource extends Closeable {
 
     /**
      * 计算总页数
@@ -30,4 +31,11 @@ public interface PageSource {
      */
     BufferedImage renderPage(int pageIndex, PrintSettings settings) throws IOException;
 
+    /**
+     * 释放源文件占用的资源（如打开的文件句柄）
+     * @throws IOException 关闭时发生错误
+     */
+    @Override
+    default void close() throws IOException {
+    }
 }
\ No newline at end of file
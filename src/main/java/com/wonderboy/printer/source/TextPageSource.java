@@ -4,18 +4,39 @@ import com.wonderboy.printer.model.PrintSettings;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * A PageSource for plain text files. Its primary role is to provide the text lines to a renderer.
+ * <p>
+ * The file is never decoded as a whole. On first use it is scanned once to build an index of
+ * line start offsets (one {@code long} per line); afterwards lines are read and decoded from
+ * the file only when asked for, a page's worth at a time through {@link List#subList}, so heap
+ * use follows the page being rendered rather than the size of the file. Lines are split on {@code \n}, {@code \r\n} and {@code \r}, like
+ * {@link Files#readAllLines}; malformed UTF-8 is replaced rather than rejected.
  */
 public class TextPageSource implements PageSource {
 
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
     private final Path textFilePath;
-    private List<String> lines; // Cache the lines to avoid re-reading the file
+    private FileChannel channel;
+    // 行索引：lineStarts[i] 为第 i 行在文件中的字节偏移
+    private long[] lineStarts;
+    private int lineCount;
+    private long fileSize;
+    private final List<String> lineView = new LineView();
 
     public TextPageSource(Path textFilePath) {
         if (textFilePath == null || !Files.isReadable(textFilePath)) {
@@ -24,16 +45,160 @@ public class TextPageSource implements PageSource {
         this.textFilePath = textFilePath;
     }
 
+    /**
+     * @return The text file this source reads.
+     */
+    public Path getPath() {
+        return textFilePath;
+    }
+
     /**
      * Provides all lines from the source text file.
+     * The returned list is a read-only view that decodes each line from the file on access;
+     * it does not hold the text in memory.
+     *
      * @return A list of strings, where each string is a line from the file.
      * @throws IOException if an error occurs reading the file.
      */
     public List<String> getLines() throws IOException {
-        if (lines == null) {
-            this.lines = Files.readAllLines(textFilePath, StandardCharsets.UTF_8);
+        ensureIndexed();
+        return lineView;
+    }
+
+    /**
+     * @return The number of lines in the file.
+     * @throws IOException if an error occurs reading the file.
+     */
+    public int getLineCount() throws IOException {
+        ensureIndexed();
+        return lineCount;
+    }
+
+    /**
+     * Reads and decodes a single line.
+     *
+     * @param index The 0-based line index.
+     * @return The line, without its terminator.
+     * @throws IOException if an error occurs reading the file.
+     */
+    public String getLine(int index) throws IOException {
+        return getLines(index, index + 1).get(0);
+    }
+
+    /**
+     * Reads and decodes a range of lines, such as the lines of one page, with a single read of
+     * their bytes.
+     *
+     * @param fromIndex The first line, inclusive.
+     * @param toIndex   The last line, exclusive.
+     * @return The lines, without their terminators.
+     * @throws IOException if an error occurs reading the file.
+     */
+    public List<String> getLines(int fromIndex, int toIndex) throws IOException {
+        ensureIndexed();
+        if (fromIndex < 0 || toIndex > lineCount || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Lines " + fromIndex + " to " + toIndex + " of " + lineCount);
+        }
+        if (fromIndex == toIndex) {
+            return List.of();
+        }
+        long start = lineStarts[fromIndex];
+        long end = lineEnd(toIndex - 1);
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Lines " + fromIndex + " to " + toIndex + " are too long to decode.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining()) {
+            // Positional reads do not move the channel position, so render threads can share it.
+            if (channel.read(bytes, start + bytes.position()) < 0) {
+                throw new IOException("File " + textFilePath + " was truncated while printing.");
+            }
+        }
+        byte[] array = bytes.array();
+        String[] lines = new String[toIndex - fromIndex];
+        for (int index = fromIndex; index < toIndex; index++) {
+            int offset = (int) (lineStarts[index] - start);
+            int length = (int) (lineEnd(index) - start) - offset;
+            if (length > 0 && array[offset + length - 1] == '\n') {
+                length--;
+            }
+            if (length > 0 && array[offset + length - 1] == '\r') {
+                length--;
+            }
+            lines[index - fromIndex] = new String(array, offset, length, StandardCharsets.UTF_8);
+        }
+        return Arrays.asList(lines);
+    }
+
+    private long lineEnd(int index) {
+        return index + 1 < lineCount ? lineStarts[index + 1] : fileSize;
+    }
+
+    /**
+     * Scans the file once, recording where every line starts.
+     */
+    private synchronized void ensureIndexed() throws IOException {
+        if (lineStarts != null) {
+            return;
+        }
+        FileChannel fileChannel = FileChannel.open(textFilePath, StandardOpenOption.READ);
+        try {
+            long[] starts = new long[1024];
+            int count = 0;
+            long size = fileChannel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long position = 0;
+            boolean atLineStart = true;
+            boolean afterCarriageReturn = false;
+            while (position < size) {
+                buffer.clear();
+                int read = fileChannel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                byte[] array = buffer.array();
+                for (int i = 0; i < read; i++) {
+                    byte b = array[i];
+                    if (afterCarriageReturn) {
+                        afterCarriageReturn = false;
+                        if (b == '\n') {
+                            continue; // second half of \r\n
+                        }
+                    }
+                    if (atLineStart) {
+                        if (count == starts.length) {
+                            starts = Arrays.copyOf(starts, count * 2);
+                        }
+                        starts[count++] = position + i;
+                        atLineStart = false;
+                    }
+                    if (b == '\n') {
+                        atLineStart = true;
+                    } else if (b == '\r') {
+                        atLineStart = true;
+                        afterCarriageReturn = true;
+                    }
+                }
+                position += read;
+            }
+            this.fileSize = position;
+            this.lineCount = count;
+            this.lineStarts = count == starts.length ? starts : Arrays.copyOf(starts, count);
+            this.channel = fileChannel;
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the open file handle. The source can no longer be read afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
         }
-        return lines;
     }
 
     // This method is part of the interface but delegates the real work to a renderer.
@@ -50,4 +215,36 @@ public class TextPageSource implements PageSource {
     public int getPageCount() {
         throw new UnsupportedOperationException("Page count must be calculated by a PageRenderer with specific PrintSettings.");
     }
-}
\ No newline at end of file
+
+    /**
+     * A lazily decoding, read-only list over the indexed lines.
+     */
+    private final class LineView extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            try {
+                return getLine(index);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Reads the lines with one read of their bytes. Unlike {@link AbstractList#subList},
+         * the result is a read-only copy rather than a view.
+         */
+        @Override
+        public List<String> subList(int fromIndex, int toIndex) {
+            try {
+                return Collections.unmodifiableList(getLines(fromIndex, toIndex));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return lineCount;
+        }
+    }
+}
@@ -42,6 +42,8 @@ import java.util.stream.Stream;
 public class MainController {
 
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
+    // 每次按需读取的历史任务数
+    private static final int EARLIER_JOBS_PAGE_SIZE = 50;
 
     // --- Backend Services ---
     private SpoolerService spoolerService;
@@ -54,12 +56,17 @@ public class MainController {
     private PrintJobStatus selectedJobLastStatus = null; // Track status to detect changes
 
     private boolean suppressSelectionEvents = false;
+    // 选中任务的 ID，供页面事件线程读取
+    private volatile String selectedJobId;
+    private boolean previewReloading = false;
+    private boolean previewReloadPending = false;
     // --- FXML Injected Fields ---
     @FXML private Label selectedFileLabel;
     @FXML private ComboBox<PaperSize> paperSizeComboBox;
     @FXML private ComboBox<Integer> dpiComboBox;
     @FXML private CheckBox colorCheckBox;
     @FXML private CheckBox duplexCheckBox;
+    @FXML private Spinner<Integer> prioritySpinner;
     @FXML private Button submitButton;
     @FXML private ImageView previewImageView;
     @FXML private StackPane previewContainer;
@@ -71,6 +78,7 @@ public class MainController {
     @FXML private Button nextPageButton;
     @FXML private Label pageInfoLabel;
     @FXML private Button confirmPrintButton;
+    @FXML private Button earlierJobsButton;
 
     private Timeline refreshTimeline;
 
@@ -82,12 +90,16 @@ public class MainController {
         paperSizeComboBox.setValue(PaperSize.A4);
         dpiComboBox.getItems().setAll(150, 300, 600);
         dpiComboBox.setValue(300);
+        // 优先级越高越先处理；同一优先级的用户轮流使用打印机
+        prioritySpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(-10, 10, 0));
         submitButton.setDisable(true);
 
         previewImageView.fitWidthProperty().bind(previewContainer.widthProperty());
         previewImageView.fitHeightProperty().bind(previewContainer.heightProperty());
 
         confirmPrintButton.managedProperty().bind(confirmPrintButton.visibleProperty());
+        earlierJobsButton.managedProperty().bind(earlierJobsButton.visibleProperty());
+        earlierJobsButton.setVisible(false);
         
         setupJobTable();
         startTimeline();
@@ -107,7 +119,8 @@ public class MainController {
 
     public void setVirtualPrinter(VirtualPrinter virtualPrinter) {
         this.virtualPrinter = virtualPrinter;
-        this.virtualPrinter.setPagePrintListener(this::handlePagePrinted);
+        // The preview only shows the latest pages, so a backlog is coalesced rather than queued
+        this.virtualPrinter.getPageEvents().subscribe("preview-ui", this::handlePagePrinted);
     }
 
     private void setupJobTable() {
@@ -190,6 +203,33 @@ public class MainController {
         });
     }
 
+    /**
+     * Reads one more page of the finished jobs the spooler left in its store at startup, newest
+     * first, in the background; the table picks them up once they are read. Nothing of the
+     * history is read until asked for.
+     */
+    @FXML
+    private void handleShowEarlierJobs() {
+        earlierJobsButton.setDisable(true);
+        Task<Integer> loadTask = new Task<>() {
+            @Override
+            protected Integer call() {
+                return spoolerService.loadEarlierJobs(EARLIER_JOBS_PAGE_SIZE);
+            }
+        };
+        loadTask.setOnSucceeded(event -> {
+            earlierJobsButton.setDisable(false);
+            refreshJobQueue();
+        });
+        loadTask.setOnFailed(event -> {
+            earlierJobsButton.setDisable(false);
+            logger.error("Failed to read earlier jobs.", loadTask.getException());
+        });
+        Thread loader = new Thread(loadTask, "job-history-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
     private void startTimeline() {
         refreshTimeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> refreshJobQueue()));
         refreshTimeline.setCycleCount(Animation.INDEFINITE);
@@ -206,7 +246,11 @@ public class MainController {
         PrintJob beforeSelected = jobTableView.getSelectionModel().getSelectedItem();
         String selectedJobId = beforeSelected != null ? beforeSelected.getJobId() : null;
 
-        List<PrintJob> jobs = spoolerService.listJobs();
+        // 只列出内存中的任务，不在 FX 线程上读取存储
+        List<PrintJob> jobs = spoolerService.listLoadedJobs();
+        int earlierJobs = Math.max(0, spoolerService.jobCount() - jobs.size());
+        earlierJobsButton.setVisible(earlierJobs > 0);
+        earlierJobsButton.setText("Show Earlier Jobs (" + earlierJobs + " more)");
 
         // 屏蔽选择事件，避免 onJobSelectionChanged(null) 清空预览
         suppressSelectionEvents = true;
@@ -237,24 +281,39 @@ public class MainController {
     
     /**
      * Handles the real-time page rendering event from the background.
+     * Runs on the page event bus's dispatch thread, which does the image conversion; when the bus
+     * skipped pages because the UI fell behind, the preview is reloaded from the page files.
      */
     private void handlePagePrinted(PrintJob job, BufferedImage renderedPage, int pageNumber) {
-        PrintJob selectedJob = jobTableView.getSelectionModel().getSelectedItem();
-        if (selectedJob != null && selectedJob.getJobId().equals(job.getJobId())) {
-            final Image fxImage = SwingFXUtils.toFXImage(renderedPage, null);
-            Platform.runLater(() -> {
+        if (!job.getJobId().equals(selectedJobId)) {
+            return;
+        }
+        final Image fxImage = SwingFXUtils.toFXImage(renderedPage, null);
+        Platform.runLater(() -> {
+            PrintJob selectedJob = jobTableView.getSelectionModel().getSelectedItem();
+            if (selectedJob == null || !selectedJob.getJobId().equals(job.getJobId())) {
+                return;
+            }
+            if (previewReloading) {
+                previewReloadPending = true;
+            } else if (pageNumber == previewPages.size() + 1) {
                 // This is a live-update, so we directly manipulate the preview state
                 previewPages.add(fxImage);
                 currentPageIndex = previewPages.size() - 1;
                 updatePreviewImageAndControls();
-            });
-        }
+            } else if (pageNumber > previewPages.size() + 1) {
+                loadPreviewPagesForJob(selectedJob, true);
+            }
+        });
     }
 
     /**
      * Triggered ONLY by user selection change or a status change of the selected item.
      */
     private void onJobSelectionChanged(PrintJob selectedJob) {
+        selectedJobId = selectedJob != null ? selectedJob.getJobId() : null;
+        previewReloading = false;
+        previewReloadPending = false;
         previewPages.clear();
         currentPageIndex = -1;
         selectedJobLastStatus = selectedJob != null ? selectedJob.getStatus() : null;
@@ -268,38 +327,64 @@ public class MainController {
                              selectedJob.getStatus() == PrintJobStatus.COMPLETED;
 
         if (canPreview) {
-            loadPreviewPagesForJob(selectedJob);
+            loadPreviewPagesForJob(selectedJob, false);
         } else {
             updatePreviewImageAndControls();
         }
     }
 
-    private void loadPreviewPagesForJob(PrintJob job) {
-        Path pagesDir = Paths.get("output", job.getJobId(), VirtualPrinter.RENDERED_PAGES_DIR_NAME);
+    /**
+     * @param showLatest Whether to show the last page loaded instead of the first.
+     */
+    private void loadPreviewPagesForJob(PrintJob job, boolean showLatest) {
+        // 加载屏幕分辨率的预览页；此前版本渲染的作业只有打印分辨率的页面
+        Path pagesDir = virtualPrinter.previewPagesDirectory(job);
         if (!Files.exists(pagesDir)) {
+            pagesDir = Paths.get("output", job.getJobId(), VirtualPrinter.RENDERED_PAGES_DIR_NAME);
+        }
+        Path previewDir = pagesDir;
+        if (!Files.exists(previewDir)) {
             Platform.runLater(this::updatePreviewImageAndControls);
             return;
         }
 
+        previewReloading = true;
+        previewReloadPending = false;
         Task<List<Image>> loadTask = new Task<>() {
             @Override
             protected List<Image> call() throws Exception {
-                try (Stream<Path> paths = Files.list(pagesDir)) {
-                    return paths.filter(p -> p.toString().endsWith(".png"))
-                                .sorted(Comparator.naturalOrder())
-                                .map(p -> new Image(p.toUri().toString(), true)) // Load in background
-                                .collect(Collectors.toList());
+                List<Path> pageFiles;
+                try (Stream<Path> paths = Files.list(previewDir)) {
+                    pageFiles = paths.filter(VirtualPrinter::isPageFile)
+                                     .sorted(Comparator.naturalOrder())
+                                     .collect(Collectors.toList());
                 }
+                // Preview files are in the printer's spool format; this task already runs in the background
+                List<Image> images = new ArrayList<>(pageFiles.size());
+                for (Path pageFile : pageFiles) {
+                    images.add(SwingFXUtils.toFXImage(VirtualPrinter.readPageFile(pageFile), null));
+                }
+                return images;
             }
         };
         loadTask.setOnSucceeded(event -> {
+            PrintJob selectedJob = jobTableView.getSelectionModel().getSelectedItem();
+            if (selectedJob == null || !selectedJob.getJobId().equals(job.getJobId())) {
+                return; // 选择已改变，结果作废
+            }
+            previewReloading = false;
             previewPages = loadTask.getValue();
             if (!previewPages.isEmpty()) {
-                currentPageIndex = 0;
+                currentPageIndex = showLatest ? previewPages.size() - 1 : 0;
             }
             updatePreviewImageAndControls();
+            if (previewReloadPending) {
+                // 加载期间又有新页面到达
+                loadPreviewPagesForJob(job, true);
+            }
         });
         loadTask.setOnFailed(event -> {
+            previewReloading = false;
             logger.error("Failed to load preview pages for job {}", job.getJobId(), loadTask.getException());
             updatePreviewImageAndControls();
         });
@@ -381,6 +466,7 @@ public class MainController {
             Files.copy(selectedSourceFile.toPath(), spoolFilePath, StandardCopyOption.REPLACE_EXISTING);
 
             PrintJob newJob = new PrintJob(selectedSourceFile.getName(), System.getProperty("user.name"), settings, List.of(spoolFilePath.toAbsolutePath().toString()));
+            newJob.setPriority(prioritySpinner.getValue());
             spoolerService.submit(newJob);
             showAlert(Alert.AlertType.INFORMATION, "Success", "Print job submitted.");
             resetInputFields();
@@ -2,8 +2,11 @@ package com.wonderboy.printer.ui;
 
 import com.wonderboy.printer.printer.VirtualPrinter;
 import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import com.wonderboy.printer.service.RenderCache;
+import com.wonderboy.printer.service.RetentionManager;
 import com.wonderboy.printer.service.SpoolerService;
 import com.wonderboy.printer.service.SpoolerWorker;
+import com.wonderboy.printer.service.SpoolerWorkerPool;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -15,32 +18,46 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 public class PrinterUI extends Application {
     private static final Logger logger = LoggerFactory.getLogger(PrinterUI.class);
 
     // --- All backend components are managed here ---
     private SpoolerService spoolerService;
-    private SpoolerWorker spoolerWorker;
-    private ExecutorService workerExecutor;
+    private SpoolerWorkerPool workerPool;
     private MainController controller;
     private VirtualPrinter virtualPrinter;
+    private RetentionManager retentionManager;
 
     @Override
     public void init() {
         logger.info("Initializing application backend services...");
         // 1. Create the backend components
-        spoolerService = new SpoolerService(Paths.get("spool"));
+        spoolerService = new SpoolerService(Paths.get("spool"), Paths.get("output"));
         virtualPrinter = new VirtualPrinter(Paths.get("output"));
+        // Finished jobs are removed after a week or when spool and output exceed the disk budget
+        retentionManager = RetentionManager.configured(spoolerService, virtualPrinter);
         SimpleTextRenderer renderer = new SimpleTextRenderer();
-        spoolerWorker = new SpoolerWorker(spoolerService, renderer, virtualPrinter);
-
-        // 2. Create a single-threaded executor for our worker
-        workerExecutor = Executors.newSingleThreadExecutor();
+        // 2. Jobs are processed by -Dprinter.workers=N workers (default 1), and the pages of a job
+        // render in parallel (-Dprinter.renderThreads=N), split between the workers.
+        int workers = SpoolerWorkerPool.configuredWorkers();
+        int renderThreads = Math.max(1, SpoolerWorker.configuredRenderThreads() / workers);
+        // Text is written as vector text unless -Dprinter.textOutput=raster
+        boolean vectorText = SpoolerWorker.configuredVectorTextOutput();
+        // Reprints of unchanged documents are copied from the cache (-Dprinter.renderCache.maxBytes, 0 turns it off)
+        RenderCache renderCache = RenderCache.configured(Paths.get("cache"));
+        List<SpoolerWorker> spoolerWorkers = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            SpoolerWorker worker = new SpoolerWorker(spoolerService, renderer, virtualPrinter, renderThreads);
+            worker.setVectorTextOutput(vectorText);
+            worker.setRenderCache(renderCache);
+            spoolerWorkers.add(worker);
+        }
+        workerPool = new SpoolerWorkerPool(spoolerWorkers);
     }
 
     @Override
@@ -55,9 +72,9 @@ public class PrinterUI extends Application {
         controller.setSpoolerService(spoolerService);
         controller.setVirtualPrinter(virtualPrinter);
 
-        // 3. Start the background worker thread
-        // 开启单线程轮询
-        startBackgroundWorker();
+        // 3. Start the background worker threads
+        workerPool.start();
+        retentionManager.start(RetentionManager.DEFAULT_INTERVAL);
 
         Scene scene = new Scene(root);
         primaryStage.setTitle("Wonderboy Virtual Printer");
@@ -66,29 +83,6 @@ public class PrinterUI extends Application {
         primaryStage.show();
     }
 
-    /**
-     * Submits a long-running task to the executor service that continuously
-     * checks for and processes new print jobs.
-     */
-    private void startBackgroundWorker() {
-        workerExecutor.submit(() -> {
-            logger.info("Background SpoolerWorker thread started.");
-            try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    // 单线程轮询
-                    boolean workDone = spoolerWorker.processOneStep();
-                    // 无任务时休眠1秒
-                    if (!workDone) {
-                        Thread.sleep(1000);
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Preserve the interrupted status
-                logger.info("Background SpoolerWorker thread interrupted and shutting down.");
-            }
-        });
-    }
-
     /**
      * This method is called when the application is closed.
      * It's crucial for a clean shutdown.
@@ -102,15 +96,17 @@ public class PrinterUI extends Application {
             controller.stopTimeline();
         }
 
-        // Shut down the background worker thread gracefully
-        workerExecutor.shutdownNow(); // Use shutdownNow to interrupt the sleeping thread
+        // Shut down the background worker threads gracefully
         try {
-            if (!workerExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                logger.warn("Worker executor did not terminate in 5 seconds.");
+            if (!workerPool.shutdown(Duration.ofSeconds(5))) {
+                logger.warn("Spooler workers did not terminate in 5 seconds.");
             }
         } catch (InterruptedException e) {
-            logger.error("Interrupted while waiting for executor to terminate.", e);
+            logger.error("Interrupted while waiting for the spooler workers to terminate.", e);
         }
+        retentionManager.shutdown();
+        virtualPrinter.shutdown(); // finishes writing queued page files
+        spoolerService.close(); // compacts the job journal, if one is used
         logger.info("Application stopped.");
     }
 
@@ -0,0 +1,127 @@
+package com.wonderboy.printer.util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Size, age and deletion of directory trees in the spool and output directories.
+ * Files that vanish while a tree is walked are skipped; they are being deleted by someone else.
+ */
+public final class FileTrees {
+
+    private FileTrees() {
+    }
+
+    /**
+     * @param root A file or directory; it need not exist.
+     * @return The total size of the regular files in the tree.
+     * @throws IOException if the tree cannot be walked.
+     */
+    public static long size(Path root) throws IOException {
+        long[] total = new long[1];
+        walk(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                total[0] += attributes.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * @param root A file or directory; it need not exist.
+     * @return The latest modification time in the tree, or null if the tree does not exist.
+     * @throws IOException if the tree cannot be walked.
+     */
+    public static FileTime lastModified(Path root) throws IOException {
+        FileTime[] latest = new FileTime[1];
+        walk(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                latest(attributes.lastModifiedTime());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                latest(attributes.lastModifiedTime());
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void latest(FileTime time) {
+                if (latest[0] == null || time.compareTo(latest[0]) > 0) {
+                    latest[0] = time;
+                }
+            }
+        });
+        return latest[0];
+    }
+
+    /**
+     * Deletes a file or a directory with everything in it.
+     *
+     * @param root A file or directory; it need not exist.
+     * @return The total size of the regular files deleted.
+     * @throws IOException if part of the tree cannot be deleted.
+     */
+    public static long delete(Path root) throws IOException {
+        long[] deleted = new long[1];
+        walk(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (Files.deleteIfExists(file)) {
+                    deleted[0] += attributes.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.deleteIfExists(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+
+    private static void walk(Path root, SimpleFileVisitor<Path> visitor) throws IOException {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    return visitor.preVisitDirectory(directory, attributes);
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    return visitor.visitFile(file, attributes);
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    return visitor.postVisitDirectory(directory, e instanceof NoSuchFileException ? null : e);
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // 目录已不存在：视为空
+        }
+    }
+}
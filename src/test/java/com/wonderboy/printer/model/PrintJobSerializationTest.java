@@ -19,6 +19,7 @@ class PrintJobSerializationTest {
         List<String> filePaths = List.of("C:/spool/job123/document.txt");
         PrintJob originalJob = new PrintJob("My First Document", "wonderboy", settings, filePaths);
         originalJob.setStatus(PrintJobStatus.QUEUED);
+        originalJob.setPriority(5);
 
         // 3. Serialize to JSON string
         String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(originalJob);
@@ -34,6 +35,7 @@ class PrintJobSerializationTest {
         assertEquals(originalJob.getStatus(), deserializedJob.getStatus());
         assertEquals(originalJob.getSubmitTime(), deserializedJob.getSubmitTime());
         assertEquals(originalJob.getSourceFilePaths(), deserializedJob.getSourceFilePaths());
+        assertEquals(5, deserializedJob.getPriority());
 
         // Assertions for the nested record object
         assertEquals(originalJob.getSettings().paper(), deserializedJob.getSettings().paper());
@@ -0,0 +1,163 @@
+package com.wonderboy.printer.printer;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageEventBusTest {
+
+    private final PageEventBus bus = new PageEventBus();
+    private final PrintJob jobA = new PrintJob("a.txt", "test-user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+    private final PrintJob jobB = new PrintJob("b.txt", "test-user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+    private final BufferedImage page = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        bus.shutdown();
+    }
+
+    @Test
+    void publish_doesNotWaitForASlowSubscriber() {
+        // Arrange: one subscriber stuck on its first page, one keeping up
+        List<Integer> fast = Collections.synchronizedList(new ArrayList<>());
+        PageEventBus.Subscription stuck = bus.subscribe("stuck", (job, image, pageNumber) -> awaitRelease(), 4,
+                PageEventBus.OverflowPolicy.DROP_NEWEST);
+        bus.subscribe("fast", (job, image, pageNumber) -> fast.add(pageNumber), 1000, PageEventBus.OverflowPolicy.DROP_NEWEST);
+
+        // Act
+        long start = System.nanoTime();
+        for (int pageNumber = 1; pageNumber <= 500; pageNumber++) {
+            bus.publish(jobA, page, pageNumber);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Assert: publishing finished while the stuck subscriber still holds its first page
+        assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5), "Publishing took " + elapsed / 1_000_000 + " ms.");
+        assertEquals(0, stuck.getDeliveredCount());
+        assertTrue(stuck.getDroppedCount() >= 500 - 1 - 4);
+        release.countDown();
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+        assertEquals(IntStream.rangeClosed(1, 500).boxed().collect(Collectors.toList()), fast);
+        assertEquals(500, stuck.getDeliveredCount() + stuck.getDroppedCount());
+    }
+
+    @Test
+    void dropOldest_keepsTheLatestPages() throws InterruptedException {
+        List<Integer> received = subscribeBlocked(PageEventBus.OverflowPolicy.DROP_OLDEST, 3);
+        for (int pageNumber = 2; pageNumber <= 10; pageNumber++) {
+            bus.publish(jobA, page, pageNumber);
+        }
+
+        release.countDown();
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+
+        assertEquals(List.of(1, 8, 9, 10), received);
+    }
+
+    @Test
+    void dropNewest_keepsTheQueuedPages() throws InterruptedException {
+        List<Integer> received = subscribeBlocked(PageEventBus.OverflowPolicy.DROP_NEWEST, 3);
+        for (int pageNumber = 2; pageNumber <= 10; pageNumber++) {
+            bus.publish(jobA, page, pageNumber);
+        }
+
+        release.countDown();
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+
+        assertEquals(List.of(1, 2, 3, 4), received);
+    }
+
+    @Test
+    void coalesce_replacesTheQueuedPagesOfTheSameJobOnly() throws InterruptedException {
+        // Arrange: the subscriber is stuck on page 1 of job A
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivering = new CountDownLatch(1);
+        PageEventBus.Subscription subscription = bus.subscribe("coalescing", (job, image, pageNumber) -> {
+            received.add(job.getDocumentName() + pageNumber);
+            delivering.countDown();
+            awaitRelease();
+        }, 3, PageEventBus.OverflowPolicy.COALESCE);
+        bus.publish(jobA, page, 1);
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+
+        // Act: the queue fills with B1, A2, A3; A4 replaces A2 and A3
+        bus.publish(jobB, page, 1);
+        bus.publish(jobA, page, 2);
+        bus.publish(jobA, page, 3);
+        bus.publish(jobA, page, 4);
+        release.countDown();
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+
+        // Assert
+        assertEquals(List.of("a.txt1", "b.txt1", "a.txt4"), received);
+        assertEquals(2, subscription.getDroppedCount());
+    }
+
+    @Test
+    void aFailingSubscriberKeepsReceivingPages() {
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        bus.subscribe("failing", (job, image, pageNumber) -> {
+            received.add(pageNumber);
+            throw new IllegalStateException("Simulated subscriber failure");
+        }, 10, PageEventBus.OverflowPolicy.DROP_NEWEST);
+
+        bus.publish(jobA, page, 1);
+        bus.publish(jobA, page, 2);
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+
+        assertEquals(List.of(1, 2), received);
+    }
+
+    @Test
+    void close_stopsDelivery() {
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        PageEventBus.Subscription subscription = bus.subscribe("closed", (job, image, pageNumber) -> received.add(pageNumber));
+
+        bus.publish(jobA, page, 1);
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+        subscription.close();
+        bus.publish(jobA, page, 2);
+        assertTrue(bus.flush(Duration.ofSeconds(10)));
+
+        assertEquals(List.of(1), received);
+    }
+
+    /**
+     * Subscribes a listener that records page numbers and blocks on page 1 of job A until released.
+     */
+    private List<Integer> subscribeBlocked(PageEventBus.OverflowPolicy policy, int capacity) throws InterruptedException {
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivering = new CountDownLatch(1);
+        bus.subscribe(policy.name(), (job, image, pageNumber) -> {
+            received.add(pageNumber);
+            delivering.countDown();
+            awaitRelease();
+        }, capacity, policy);
+        bus.publish(jobA, page, 1);
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        return received;
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
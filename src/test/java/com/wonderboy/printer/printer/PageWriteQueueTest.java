@@ -0,0 +1,81 @@
+package com.wonderboy.printer.printer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageWriteQueueTest {
+
+    private final PageWriteQueue queue = new PageWriteQueue(1, 2);
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void submitBlocksWhileTheQueueIsFull() throws Exception {
+        // Arrange: a slow disk, simulated by writes that wait for a latch
+        CountDownLatch diskReady = new CountDownLatch(1);
+        List<Integer> written = new CopyOnWriteArrayList<>();
+        queue.submit("job", () -> {
+            awaitQuietly(diskReady);
+            written.add(1);
+        });
+        queue.submit("job", () -> written.add(2));
+
+        // Act: a third page does not fit
+        AtomicBoolean thirdAccepted = new AtomicBoolean();
+        Thread renderer = new Thread(() -> {
+            queue.submit("job", () -> written.add(3));
+            thirdAccepted.set(true);
+        });
+        renderer.start();
+        renderer.join(300);
+
+        // Assert: the renderer waits for the writer, and goes on once the disk catches up
+        assertTrue(renderer.isAlive(), "The third page should wait for a free slot.");
+        assertFalse(thirdAccepted.get());
+        diskReady.countDown();
+        renderer.join(5000);
+        assertTrue(thirdAccepted.get());
+        queue.await("job");
+        assertEquals(List.of(1, 2, 3), written);
+    }
+
+    @Test
+    void awaitReportsAFailedWriteAfterTheOthersComplete() {
+        List<String> written = new CopyOnWriteArrayList<>();
+        queue.submit("job", () -> {
+            throw new IOException("Disk full");
+        });
+        queue.submit("job", () -> written.add("page 2"));
+        queue.submit("other-job", () -> written.add("other"));
+
+        IOException failure = assertThrows(IOException.class, () -> queue.await("job"));
+
+        assertEquals("Disk full", failure.getMessage());
+        assertTrue(written.contains("page 2"));
+    }
+
+    @Test
+    void awaitWithoutWritesReturnsImmediately() {
+        assertDoesNotThrow(() -> queue.await("nothing-queued"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.wonderboy.printer.printer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RasterPageFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(ints = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY})
+    void pagesReadBackExactlyAsWritten(int imageType) throws IOException {
+        // An odd width, so 1-bit rows end in a partial byte
+        BufferedImage page = samplePage(301, 207, imageType);
+        Path file = tempDir.resolve("page" + RasterPageFile.EXTENSION);
+
+        RasterPageFile.write(page, file);
+        BufferedImage read = RasterPageFile.read(file);
+
+        assertEquals(imageType, read.getType());
+        assertSamePixels(page, read);
+    }
+
+    @Test
+    void bandsStreamedByTheWriterMatchAWholePage() throws IOException {
+        BufferedImage page = samplePage(240, 500, BufferedImage.TYPE_INT_ARGB);
+        Path file = tempDir.resolve("banded" + RasterPageFile.EXTENSION);
+
+        try (StreamingRasterWriter writer = new StreamingRasterWriter(
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+                page.getWidth(), page.getHeight(), page.getType())) {
+            for (int y = 0; y < page.getHeight(); y += 64) {
+                writer.writeRows(page.getSubimage(0, y, page.getWidth(), Math.min(64, page.getHeight() - y)));
+            }
+        }
+
+        assertSamePixels(page, RasterPageFile.read(file));
+    }
+
+    @Test
+    void otherImageTypesAreStoredAsArgb() throws IOException {
+        BufferedImage bgr = samplePage(50, 40, BufferedImage.TYPE_3BYTE_BGR);
+        Path file = tempDir.resolve("bgr" + RasterPageFile.EXTENSION);
+
+        RasterPageFile.write(bgr, file);
+        BufferedImage read = RasterPageFile.read(file);
+
+        assertEquals(BufferedImage.TYPE_INT_ARGB, read.getType());
+        assertSamePixels(bgr, read);
+    }
+
+    @Test
+    void truncatedAndForeignFilesAreRejected() throws IOException {
+        Path file = tempDir.resolve("page" + RasterPageFile.EXTENSION);
+        RasterPageFile.write(samplePage(200, 200, BufferedImage.TYPE_INT_RGB), file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = tempDir.resolve("truncated" + RasterPageFile.EXTENSION);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length / 2));
+        Path foreign = tempDir.resolve("foreign" + RasterPageFile.EXTENSION);
+        Files.writeString(foreign, "This is not a page, just some text long enough for a header.");
+
+        assertThrows(IOException.class, () -> RasterPageFile.read(truncated));
+        assertThrows(IOException.class, () -> RasterPageFile.read(foreign));
+    }
+
+    @Test
+    void writerRejectsAnIncompletePage() throws IOException {
+        Path file = tempDir.resolve("short" + RasterPageFile.EXTENSION);
+        StreamingRasterWriter writer = new StreamingRasterWriter(
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE), 100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        writer.writeRows(new BufferedImage(100, 50, BufferedImage.TYPE_BYTE_GRAY));
+
+        assertThrows(IOException.class, writer::close);
+    }
+
+    /**
+     * Text on noise, so that every bit of every pixel matters.
+     */
+    private static BufferedImage samplePage(int width, int height, int imageType) {
+        BufferedImage page = new BufferedImage(width, height, imageType);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                page.setRGB(x, y, random.nextInt());
+            }
+        }
+        Graphics2D g2d = page.createGraphics();
+        g2d.setColor(Color.BLACK);
+        g2d.setFont(new Font("SansSerif", Font.BOLD, 30));
+        g2d.drawString("Raster", 10, height / 2);
+        g2d.dispose();
+        return page;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel mismatch at (" + x + ", " + y + ")");
+            }
+        }
+    }
+}
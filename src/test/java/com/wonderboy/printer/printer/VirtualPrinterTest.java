@@ -1,18 +1,41 @@
 package com.wonderboy.printer.printer;
 
+import com.wonderboy.printer.model.PaperSize;
 import com.wonderboy.printer.model.PrintJob;
 import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import com.wonderboy.printer.renderer.TextPageLayout;
+import com.wonderboy.printer.source.TextPageSource;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -31,39 +54,501 @@ class VirtualPrinterTest {
     }
 
     @Test
-    void finishJob_createsPdfFromAcceptedPages() throws IOException {
-        // Arrange: Create two sample page images
-        BufferedImage page1 = createTestImage(600, 800, "Page 1");
-        BufferedImage page2 = createTestImage(600, 800, "Page 2");
+    void acceptPreviewPage_announcesAndSavesThePage() throws IOException {
+        List<Integer> announced = new ArrayList<>();
+        virtualPrinter.getPageEvents().subscribe("test", (job, image, pageNumber) -> announced.add(pageNumber));
 
-        // Act: Simulate the printing process
-        virtualPrinter.acceptRenderedPage(testJob, page1, 1);
-        virtualPrinter.acceptRenderedPage(testJob, page2, 2);
-        virtualPrinter.finishJob(testJob);
+        virtualPrinter.acceptPreviewPage(testJob, createTestImage(200, 280, "Preview"), 1);
+        virtualPrinter.awaitPageWrites(testJob);
+        assertTrue(virtualPrinter.getPageEvents().flush(Duration.ofSeconds(10)));
 
-        // Assert: Check if the PDF was created and is valid
-        Path pdfPath = tempOutputDir.resolve(testJob.getJobId()).resolve("output.pdf");
-        assertTrue(Files.exists(pdfPath), "PDF file should be created.");
+        assertEquals(List.of(1), announced);
+        BufferedImage preview = VirtualPrinter.readPageFile(virtualPrinter.previewPageFile(testJob, 1));
+        assertEquals(virtualPrinter.previewPagesDirectory(testJob), virtualPrinter.previewPageFile(testJob, 1).getParent());
+        assertEquals(200, preview.getWidth());
+    }
+
+    @Test
+    void openPdf_copiesEncodedPagesIntoThePdfLosslessly() throws IOException {
+        // Arrange: an RGB page encoded whole, and a bilevel page compressed band by band
+        PrintJob job = new PrintJob("direct-doc", "test-user", new PrintSettings(PaperSize.A4, 300, true, false, 1.0, 1), List.of());
+        BufferedImage colorPage = createTestImage(300, 400, "Color");
+        BufferedImage bilevelPage = new BufferedImage(300, 400, BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D g2d = bilevelPage.createGraphics();
+        g2d.drawImage(createTestImage(300, 400, "Mono"), 0, 0, null);
+        g2d.dispose();
+        EncodedPageWriter bands = new EncodedPageWriter();
+        bands.beginPage(bilevelPage.getWidth(), bilevelPage.getHeight(), bilevelPage.getType());
+        for (int y = 0; y < bilevelPage.getHeight(); y += 64) {
+            bands.acceptBand(bilevelPage.getSubimage(0, y, 300, Math.min(64, bilevelPage.getHeight() - y)), y);
+        }
+        bands.endPage();
+
+        // Act
+        try (PdfAssembler pdf = virtualPrinter.openPdf(job)) {
+            pdf.addPage(EncodedPage.encode(colorPage));
+            pdf.addPage(EncodedPage.fromBytes(bands.getPage().toBytes()));
+            assertTrue(pdf.finish());
+        }
+
+        // Assert: no page files were written, and the PDF images decode to the same pixels
+        Path jobDir = tempOutputDir.resolve(job.getJobId());
+        assertFalse(Files.exists(jobDir.resolve(VirtualPrinter.RENDERED_PAGES_DIR_NAME)));
+        try (PDDocument loadedPdf = PDDocument.load(jobDir.resolve("output.pdf").toFile())) {
+            assertEquals(2, loadedPdf.getNumberOfPages());
+            assertEquals(300 * 72f / 300, loadedPdf.getPage(0).getMediaBox().getWidth(), 0.01);
+            assertSamePixels(colorPage, firstImage(loadedPdf.getPage(0)).getImage());
+            PDImageXObject bilevelImage = firstImage(loadedPdf.getPage(1));
+            assertEquals(1, bilevelImage.getBitsPerComponent());
+            assertEquals(COSName.CCITTFAX_DECODE, bilevelImage.getCOSObject().getDictionaryObject(COSName.FILTER));
+            assertSamePixels(bilevelPage, bilevelImage.getImage());
+        }
+    }
+
+    @Test
+    void encodedPage_compressesMonochromeTextWithCcittG4() throws IOException {
+        // Arrange: a full page of text, rendered in 1 bit at 300 dpi
+        Path sourceFile = tempOutputDir.resolve("mono.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 80; i++) {
+            lines.add("Line " + i + ": The quick brown fox jumps over the lazy dog, again and again.");
+        }
+        Files.write(sourceFile, lines);
+        PrintSettings mono = new PrintSettings(PaperSize.A4, 300, false, false, 1.0, 1);
+        BufferedImage page;
+        try (TextPageSource source = new TextPageSource(sourceFile)) {
+            page = new SimpleTextRenderer().render(source, 0, mono);
+        }
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY, page.getType());
+
+        // Act
+        EncodedPage encoded = EncodedPage.encode(page);
+
+        // Assert: G4 beats Flate over the same packed rows by a wide margin
+        assertEquals(EncodedPage.Compression.CCITT_G4, encoded.getCompression());
+        RowPacker packer = new RowPacker(page.getWidth(), page.getType(), false);
+        byte[] row = new byte[packer.rowBytes()];
+        ByteArrayOutputStream flate = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(flate)) {
+            for (int y = 0; y < page.getHeight(); y++) {
+                packer.pack(page, y, row, 0);
+                out.write(row);
+            }
+        }
+        assertTrue(encoded.getEncodedSize() * 3 < flate.size() * 2,
+                "G4: " + encoded.getEncodedSize() + " bytes, Flate: " + flate.size() + " bytes");
+    }
+
+    @Test
+    void openPdf_assemblesTenThousandPagesInBoundedHeap() throws IOException {
+        // Arrange: incompressible 12 KB pages, so 10,000 pages carry about 120 MB of image data;
+        // every page differs in one pixel so that none of them is stored as a duplicate
+        PrintJob job = new PrintJob("long-doc", "test-user", new PrintSettings(PaperSize.A4, 72, true, false, 1.0, 1), List.of());
+        Random random = new Random(42);
+        BufferedImage noise = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt());
+            }
+        }
+        EncodedPage page = EncodedPage.encode(noise);
+        int pages = 10_000;
+        long heapBefore = usedHeap();
+        long peakGrowth = 0;
+
+        // Act: measure the live heap every 1,000 pages and after the PDF is completed
+        try (PdfAssembler pdf = virtualPrinter.openPdf(job)) {
+            for (int pageNumber = 1; pageNumber <= pages; pageNumber++) {
+                noise.setRGB(0, 0, pageNumber);
+                pdf.addPage(EncodedPage.encode(noise));
+                if (pageNumber % 1000 == 0) {
+                    peakGrowth = Math.max(peakGrowth, usedHeap() - heapBefore);
+                }
+            }
+            assertTrue(pdf.finish());
+            assertEquals(pages, pdf.getDistinctPageCount());
+            peakGrowth = Math.max(peakGrowth, usedHeap() - heapBefore);
+        }
+
+        // Assert: the heap stayed far below the size of the page data, and the PDF is complete
+        long pageData = (long) pages * page.getEncodedSize();
+        assertTrue(pageData > 100L * 1024 * 1024);
+        assertTrue(peakGrowth < 16L * 1024 * 1024,
+                "Assembly held " + peakGrowth / 1024 + " KB of heap for " + pageData / 1024 + " KB of pages.");
+        Path jobDir = tempOutputDir.resolve(job.getJobId());
+        assertTrue(Files.size(jobDir.resolve("output.pdf")) > pageData);
+        try (PDDocument loadedPdf = PDDocument.load(jobDir.resolve("output.pdf").toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            assertEquals(pages, loadedPdf.getNumberOfPages());
+        }
+    }
+
+    @Test
+    void finishTextJob_writesTenThousandPagesInBoundedHeap() throws IOException {
+        // Arrange: a text document of 10,000 pages; the heap is sampled every 1,000 pages as the writer takes their lines
+        PrintJob job = new PrintJob("long-text", "test-user", new PrintSettings(PaperSize.A5, 72, true, false, 1.0, 1), List.of());
+        Path sourceFile = tempOutputDir.resolve("long.txt");
+        int linesPerPage = TextPageLayout.build(List.of(), job.getSettings()).getLinesPerPage();
+        int pages = 10_000;
+        try (var writer = Files.newBufferedWriter(sourceFile)) {
+            for (int line = 0; line < pages * linesPerPage; line++) {
+                writer.write("Line " + line + " of a long report\n");
+            }
+        }
+        long[] heap = new long[2]; // before writing, peak growth
+        boolean[] sampling = {false};
+        int[] pagesTaken = {0};
+        try (TextPageSource source = new TextPageSource(sourceFile) {
+            @Override
+            public List<String> getLines() throws IOException {
+                List<String> lines = super.getLines();
+                return new AbstractList<>() {
+                    @Override
+                    public String get(int index) {
+                        return lines.get(index);
+                    }
+
+                    @Override
+                    public int size() {
+                        return lines.size();
+                    }
+
+                    @Override
+                    public List<String> subList(int fromIndex, int toIndex) {
+                        if (sampling[0] && ++pagesTaken[0] % 1000 == 0) {
+                            heap[1] = Math.max(heap[1], usedHeap() - heap[0]);
+                        }
+                        return lines.subList(fromIndex, toIndex);
+                    }
+                };
+            }
+        }) {
+            TextPageLayout layout = new SimpleTextRenderer().layout(source, job.getSettings());
+            assertEquals(pages, layout.getTotalPages());
+            heap[0] = usedHeap();
+            sampling[0] = true;
+
+            // Act
+            virtualPrinter.finishTextJob(job, source, layout);
+            heap[1] = Math.max(heap[1], usedHeap() - heap[0]);
+        }
+
+        // Assert: the heap did not grow with the pages, and the PDF is complete
+        assertEquals(pages, pagesTaken[0]);
+        assertTrue(heap[1] < 16L * 1024 * 1024, "Writing held " + heap[1] / 1024 + " KB of heap for " + pages + " pages.");
+        Path jobDir = tempOutputDir.resolve(job.getJobId());
+        assertFalse(Files.exists(jobDir.resolve("output.pdf" + PdfFileWriter.PART_SUFFIX)));
+        try (PDDocument loadedPdf = PDDocument.load(jobDir.resolve("output.pdf").toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            assertEquals(pages, loadedPdf.getNumberOfPages());
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(pages);
+            stripper.setEndPage(pages);
+            String lastPage = stripper.getText(loadedPdf);
+            assertTrue(lastPage.contains("Line " + (pages * linesPerPage - 1) + " of a long report"), lastPage);
+            assertTrue(lastPage.contains("Page " + pages + " of " + pages), lastPage);
+        }
+    }
+
+    @Test
+    void openPdf_printsCopiesFromTheFirstCopysImages() throws IOException {
+        // Arrange: a one-page duplex job printed 3 times
+        PrintJob job = new PrintJob("copies-doc", "test-user", new PrintSettings(PaperSize.A4, 72, true, true, 1.0, 3), List.of());
+
+        try (PdfAssembler pdf = virtualPrinter.openPdf(job)) {
+            pdf.addPage(EncodedPage.encode(createTestImage(200, 300, "Copy")));
+            assertTrue(pdf.finish());
+        }
+
+        // Assert: every copy starts on a new sheet and draws the one embedded image
+        try (PDDocument loadedPdf = PDDocument.load(tempOutputDir.resolve(job.getJobId()).resolve("output.pdf").toFile())) {
+            assertEquals(5, loadedPdf.getNumberOfPages());
+            PDImageXObject original = firstImage(loadedPdf.getPage(0));
+            for (int page : new int[]{2, 4}) {
+                assertSame(original.getCOSObject(), firstImage(loadedPdf.getPage(page)).getCOSObject());
+            }
+            assertFalse(loadedPdf.getPage(1).getResources().getXObjectNames().iterator().hasNext(), "Page 2 should be blank.");
+            assertEquals(200, loadedPdf.getPage(4).getMediaBox().getWidth(), 0.01);
+        }
+    }
+
+    @Test
+    void openPdf_leavesNoFileBehindWhenNotFinished() throws IOException {
+        try (PdfAssembler pdf = virtualPrinter.openPdf(testJob)) {
+            pdf.addPage(EncodedPage.encode(createTestImage(100, 100, "Lost")));
+        }
+
+        try (Stream<Path> files = Files.list(tempOutputDir.resolve(testJob.getJobId()))) {
+            assertEquals(0, files.count(), "An abandoned PDF should be deleted.");
+        }
+    }
+
+    @Test
+    void openPdf_writesIdenticalPagesOnce() throws IOException {
+        // Arrange: a text page, two blank pages, the text page again and another text page
+        BufferedImage text = createTestImage(200, 300, "Separator");
+        BufferedImage blank = createTestImage(200, 300, "");
+        BufferedImage other = createTestImage(200, 300, "Other");
+
+        // Act
+        try (PdfAssembler pdf = virtualPrinter.openPdf(testJob)) {
+            for (BufferedImage page : List.of(text, blank, blank, text, other)) {
+                pdf.addPage(EncodedPage.encode(page));
+            }
+            assertEquals(5, pdf.getPageCount());
+            assertEquals(3, pdf.getDistinctPageCount());
+            assertTrue(pdf.finish());
+        }
 
-        // Verify the PDF content (e.g., page count)
+        // Assert: duplicates draw the image of the first identical page
+        try (PDDocument loadedPdf = PDDocument.load(tempOutputDir.resolve(testJob.getJobId()).resolve("output.pdf").toFile())) {
+            assertEquals(5, loadedPdf.getNumberOfPages());
+            assertSame(firstImage(loadedPdf.getPage(1)).getCOSObject(), firstImage(loadedPdf.getPage(2)).getCOSObject());
+            assertSame(firstImage(loadedPdf.getPage(0)).getCOSObject(), firstImage(loadedPdf.getPage(3)).getCOSObject());
+            assertNotSame(firstImage(loadedPdf.getPage(0)).getCOSObject(), firstImage(loadedPdf.getPage(4)).getCOSObject());
+            assertSamePixels(blank, firstImage(loadedPdf.getPage(2)).getImage());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(PageFileFormat.class)
+    void acceptPreviewPage_storesIdenticalPagesOnce(PageFileFormat format) throws IOException {
+        // Arrange: three blank pages around a text page
+        virtualPrinter.setPageFileFormat(format);
+        BufferedImage blank = createTestImage(300, 400, "");
+        BufferedImage text = createTestImage(300, 400, "Text");
+
+        // Act
+        virtualPrinter.acceptPreviewPage(testJob, blank, 1);
+        virtualPrinter.acceptPreviewPage(testJob, text, 2);
+        virtualPrinter.acceptPreviewPage(testJob, blank, 3);
+        virtualPrinter.acceptPreviewPage(testJob, blank, 4);
+        virtualPrinter.awaitPageWrites(testJob);
+
+        // Assert: the blank page has one file on disk and every page reads back
+        Path first = virtualPrinter.previewPageFile(testJob, 1);
+        assertTrue(Files.isSameFile(first, virtualPrinter.previewPageFile(testJob, 3)));
+        assertTrue(Files.isSameFile(first, virtualPrinter.previewPageFile(testJob, 4)));
+        assertFalse(Files.isSameFile(first, virtualPrinter.previewPageFile(testJob, 2)));
+        assertSamePixels(blank, VirtualPrinter.readPageFile(virtualPrinter.previewPageFile(testJob, 4)));
+    }
+
+    @Test
+    void acceptPreviewPage_replacesASharedPageWithoutChangingItsDuplicates() throws IOException {
+        BufferedImage blank = createTestImage(300, 400, "");
+        virtualPrinter.acceptPreviewPage(testJob, blank, 1);
+        virtualPrinter.acceptPreviewPage(testJob, blank, 2);
+        virtualPrinter.awaitPageWrites(testJob);
+
+        // Act: page 2 is rendered again with different content
+        BufferedImage text = createTestImage(300, 400, "Rerendered");
+        virtualPrinter.acceptPreviewPage(testJob, text, 2);
+        virtualPrinter.awaitPageWrites(testJob);
+
+        // Assert
+        assertSamePixels(blank, VirtualPrinter.readPageFile(virtualPrinter.previewPageFile(testJob, 1)));
+        assertSamePixels(text, VirtualPrinter.readPageFile(virtualPrinter.previewPageFile(testJob, 2)));
+    }
+
+    @Test
+    void resumablePreviewPages_stopsAtTheFirstMissingOrDamagedPage() throws IOException {
+        // Arrange: five preview pages on disk
+        for (int pageNumber = 1; pageNumber <= 5; pageNumber++) {
+            virtualPrinter.acceptPreviewPage(testJob, createTestImage(120, 160, "Page " + pageNumber), pageNumber);
+        }
+        virtualPrinter.awaitPageWrites(testJob);
+        assertEquals(5, virtualPrinter.resumablePreviewPages(testJob));
+
+        // Act: page 4 loses its tail, as if the machine went down while it was written
+        Path damaged = virtualPrinter.previewPageFile(testJob, 4);
+        byte[] bytes = Files.readAllBytes(damaged);
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length / 2));
+
+        // Assert: a new printer over the same directory resumes at page 4; a bit flip in page 2 is caught as well
+        VirtualPrinter restarted = new VirtualPrinter(tempOutputDir);
+        try {
+            assertEquals(3, restarted.resumablePreviewPages(testJob));
+            Path flipped = restarted.previewPageFile(testJob, 2);
+            bytes = Files.readAllBytes(flipped);
+            bytes[bytes.length - 5] ^= 1;
+            Files.write(flipped, bytes);
+            assertEquals(1, restarted.resumablePreviewPages(testJob));
+
+            restarted.discardPreviewProgress(testJob);
+            assertEquals(0, restarted.resumablePreviewPages(testJob));
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static PDImageXObject firstImage(PDPage page) throws IOException {
+        PDResources resources = page.getResources();
+        return (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y) | 0xFF000000, actual.getRGB(x, y) | 0xFF000000,
+                        "Pixel mismatch at (" + x + ", " + y + ")");
+            }
+        }
+    }
+
+    @Test
+    void finishTextJob_writesVectorTextWithTheSamePagination() throws IOException {
+        // Arrange: a text document that spans a few pages
+        Path sourceFile = tempOutputDir.resolve("document.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            lines.add("Line " + i + ": the quick brown fox jumps over the lazy dog.");
+        }
+        Files.write(sourceFile, lines);
+        TextPageSource source = new TextPageSource(sourceFile);
+        TextPageLayout layout = new SimpleTextRenderer().layout(source, testJob.getSettings());
+
+        // Act
+        virtualPrinter.finishTextJob(testJob, source, layout);
+        source.close();
+
+        // Assert: same page count as the raster pages, real text, and no embedded bitmaps
+        Path pdfPath = tempOutputDir.resolve(testJob.getJobId()).resolve("output.pdf");
         try (PDDocument loadedPdf = PDDocument.load(pdfPath.toFile())) {
-            assertEquals(2, loadedPdf.getNumberOfPages(), "PDF should have 2 pages.");
+            assertEquals(layout.getTotalPages(), loadedPdf.getNumberOfPages());
+            String text = new PDFTextStripper().getText(loadedPdf);
+            assertTrue(text.contains("Line 0: the quick brown fox jumps over the lazy dog."));
+            assertTrue(text.contains("Line 119: the quick brown fox jumps over the lazy dog."));
+            assertTrue(text.contains("Page " + layout.getTotalPages() + " of " + layout.getTotalPages()));
+            for (PDPage page : loadedPdf.getPages()) {
+                for (COSName name : page.getResources().getXObjectNames()) {
+                    assertFalse(page.getResources().isImageXObject(name), "Text pages should not embed images.");
+                }
+            }
+        }
+    }
+
+    @Test
+    void finishTextJob_writesAPdfThatReopensWithItsNonAsciiText() throws IOException {
+        // Arrange: several pages of German, Greek and Cyrillic text, printed twice, with a font that has those glyphs
+        Path font = Path.of("/usr/share/fonts/truetype/dejavu/DejaVuSansMono.ttf");
+        Assumptions.assumeTrue(Files.isReadable(font), "No font with Greek and Cyrillic glyphs on this system.");
+        Path sourceFile = tempOutputDir.resolve("international.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            lines.add("Zeile " + i + ": Grüße aus Köln, Ελληνικά, Привет мир");
+        }
+        Files.write(sourceFile, lines); // UTF-8
+        PrintJob job = new PrintJob("international", "test-user", new PrintSettings(PaperSize.A4, 300, false, false, 1.0, 2), List.of());
+
+        TextPageLayout layout;
+        System.setProperty(TextPdfWriter.FONT_PROPERTY, font.toString());
+        try (TextPageSource source = new TextPageSource(sourceFile)) {
+            layout = new SimpleTextRenderer().layout(source, job.getSettings());
+            virtualPrinter.finishTextJob(job, source, layout);
+        } finally {
+            System.clearProperty(TextPdfWriter.FONT_PROPERTY);
         }
 
-        System.out.println("---- VirtualPrinter Test Output ----");
-        System.out.println("Successfully created a 2-page test PDF.");
-        System.out.println("Test PDF located in temporary directory: " + pdfPath.getParent());
-        System.out.println("------------------------------------");
+        // Assert: the reopened PDF has every page of both copies, and its text extracts unchanged
+        int pages = layout.getTotalPages();
+        assertTrue(pages > 1);
+        try (PDDocument loadedPdf = PDDocument.load(virtualPrinter.pdfFile(job).toFile())) {
+            assertEquals(pages * 2, loadedPdf.getNumberOfPages());
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(1);
+            stripper.setEndPage(1);
+            assertTrue(stripper.getText(loadedPdf).contains("Zeile 0: Grüße aus Köln, Ελληνικά, Привет мир"));
+            stripper.setStartPage(pages);
+            stripper.setEndPage(pages);
+            String lastPage = stripper.getText(loadedPdf);
+            assertTrue(lastPage.contains("Zeile 149: Grüße aus Köln, Ελληνικά, Привет мир"));
+            assertTrue(lastPage.contains("Page " + pages + " of " + pages));
+            // The second copy repeats the first
+            stripper.setStartPage(pages + 1);
+            stripper.setEndPage(pages + 1);
+            assertTrue(stripper.getText(loadedPdf).contains("Zeile 0: Grüße aus Köln, Ελληνικά, Привет мир"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {1.0, 0.5})
+    void finishTextJob_drawsLinesAsWideAsTheLayout(double scale) throws IOException {
+        assertLineWidthMatchesLayout(scale);
     }
 
     @Test
-    void finishJob_handlesJobWithNoPagesGracefully() throws IOException {
-        // Act & Assert: Calling finishJob on a job with no pages should not throw an exception.
-        assertDoesNotThrow(() -> virtualPrinter.finishJob(testJob));
+    void finishTextJob_stretchesAFontOfAnotherAdvanceToTheLayout() throws IOException {
+        // A font whose 'M' is wider than the monospaced font's, as Courier New is narrower than it
+        Path otherFont = Path.of("/usr/share/fonts/truetype/dejavu/DejaVuSans-Bold.ttf");
+        Assumptions.assumeTrue(Files.isReadable(otherFont), "No second font to embed on this system.");
+        System.setProperty(TextPdfWriter.FONT_PROPERTY, otherFont.toString());
+        try {
+            assertLineWidthMatchesLayout(1.0);
+        } finally {
+            System.clearProperty(TextPdfWriter.FONT_PROPERTY);
+        }
+    }
 
-        // Also assert that no directory or file was created for this empty job
-        Path jobOutputDir = tempOutputDir.resolve(testJob.getJobId());
-        assertFalse(Files.exists(jobOutputDir), "No output directory should be created for a job with no pages.");
+    private void assertLineWidthMatchesLayout(double scale) throws IOException {
+        // Arrange: one line of a single character, so that only the advance matters
+        String line = "M".repeat(40);
+        Path sourceFile = tempOutputDir.resolve("widths.txt");
+        Files.writeString(sourceFile, line);
+        PrintJob job = new PrintJob("widths", "test-user", new PrintSettings(PaperSize.A4, 300, false, false, scale, 1), List.of());
+
+        TextPageLayout layout;
+        try (TextPageSource source = new TextPageSource(sourceFile)) {
+            layout = new SimpleTextRenderer().layout(source, job.getSettings());
+            virtualPrinter.finishTextJob(job, source, layout);
+        }
+
+        // Assert: the drawn line spans the width the layout measured it with
+        float expected = layout.getMetrics().stringWidth(line) * (float) scale * 72f / 300f;
+        float[] extent = {0, 0};
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> positions) {
+                if (text.equals(line)) {
+                    TextPosition last = positions.get(positions.size() - 1);
+                    extent[0] = positions.get(0).getXDirAdj();
+                    extent[1] = last.getXDirAdj() + last.getWidthDirAdj();
+                }
+            }
+        };
+        try (PDDocument loadedPdf = PDDocument.load(tempOutputDir.resolve(job.getJobId()).resolve("output.pdf").toFile())) {
+            stripper.getText(loadedPdf);
+        }
+        assertEquals(expected, extent[1] - extent[0], expected * 0.01f, "Width of the line in points");
+    }
+
+    @Test
+    void finishTextJob_startsEveryDuplexCopyOnANewSheet() throws IOException {
+        // Arrange: a one-page document, 3 duplex copies
+        Path sourceFile = tempOutputDir.resolve("short.txt");
+        Files.writeString(sourceFile, "A single page.");
+        PrintJob duplexJob = new PrintJob("duplex", "test-user", new PrintSettings(PaperSize.A4, 300, true, true, 1.0, 3), List.of());
+
+        try (TextPageSource source = new TextPageSource(sourceFile)) {
+            TextPageLayout layout = new SimpleTextRenderer().layout(source, duplexJob.getSettings());
+            virtualPrinter.finishTextJob(duplexJob, source, layout);
+        }
+
+        // Assert: page, blank back side, page, blank back side, page
+        try (PDDocument loadedPdf = PDDocument.load(tempOutputDir.resolve(duplexJob.getJobId()).resolve("output.pdf").toFile())) {
+            assertEquals(5, loadedPdf.getNumberOfPages());
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= 5; page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                assertEquals(page % 2 == 1, stripper.getText(loadedPdf).contains("A single page."), "Page " + page);
+            }
+        }
     }
 
     /**
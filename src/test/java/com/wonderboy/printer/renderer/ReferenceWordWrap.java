@@ -0,0 +1,40 @@
+package com.wonderboy.printer.renderer;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original string-building word wrapper of SimpleTextRenderer, kept verbatim as the
+ * reference that {@link TextWrapper} must match and as the baseline of the wrap benchmark.
+ */
+final class ReferenceWordWrap {
+
+    private ReferenceWordWrap() {
+    }
+
+    static List<String> wrap(String line, FontMetrics metrics, int maxWidth) {
+        List<String> wrappedLines = new ArrayList<>();
+        if (metrics.stringWidth(line) <= maxWidth) {
+            wrappedLines.add(line);
+        } else {
+            String[] words = line.split(" ");
+            StringBuilder currentLine = new StringBuilder();
+            for (String word : words) {
+                if (metrics.stringWidth(currentLine + " " + word) > maxWidth) {
+                    wrappedLines.add(currentLine.toString());
+                    currentLine = new StringBuilder(word);
+                } else {
+                    if (!currentLine.isEmpty()) {
+                        currentLine.append(" ");
+                    }
+                    currentLine.append(word);
+                }
+            }
+            if (!currentLine.isEmpty()) {
+                wrappedLines.add(currentLine.toString());
+            }
+        }
+        return wrappedLines;
+    }
+}
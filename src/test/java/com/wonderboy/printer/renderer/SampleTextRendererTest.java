@@ -1,18 +1,33 @@
 package com.wonderboy.printer.renderer;
 
+import com.wonderboy.printer.model.PaperSize;
 import com.wonderboy.printer.model.PrintSettings;
 import com.wonderboy.printer.source.TextPageSource;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SimpleTextRendererTest {
@@ -47,4 +62,235 @@ class SimpleTextRendererTest {
         System.out.println("Please check the file: " + outputPath.toAbsolutePath());
         System.out.println("----------------------------");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLayoutIsBuiltOnceAndCoversEveryWrappedLine(@TempDir Path tempDir) throws Exception {
+        // Arrange: a document long enough to span several pages
+        URL resource = getClass().getClassLoader().getResource("sample.txt");
+        assertNotNull(resource, "Test resource 'sample.txt' not found.");
+        List<String> sampleLines = Files.readAllLines(Paths.get(resource.toURI()));
+        List<String> longDocument = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            longDocument.addAll(sampleLines);
+        }
+        Path sourcePath = tempDir.resolve("long-sample.txt");
+        Files.write(sourcePath, longDocument);
+
+        TextPageSource textSource = new TextPageSource(sourcePath);
+        PrintSettings settings = PrintSettings.A4_DEFAULT_300_DPI();
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        // Act
+        TextPageLayout layout = renderer.layout(textSource, settings);
+        int totalPages = renderer.getTotalPages(textSource, settings);
+
+        // Assert: the same layout is reused, and the pages together hold every wrapped line exactly once
+        assertSame(layout, renderer.layout(textSource, settings), "Layout should be cached per source and settings.");
+        assertEquals(layout.getTotalPages(), totalPages);
+        assertTrue(totalPages > 1, "The long document should span several pages.");
+
+        List<String> expected = new ArrayList<>();
+        for (String line : longDocument) {
+            expected.addAll(ReferenceWordWrap.wrap(line, layout.getMetrics(), layout.getContentWidth()));
+        }
+        List<String> paged = new ArrayList<>();
+        for (int page = 0; page < totalPages; page++) {
+            List<String> pageLines = layout.pageLines(textSource.getLines(), page);
+            assertTrue(pageLines.size() <= layout.getLinesPerPage(), "A page should not exceed its line budget.");
+            paged.addAll(pageLines);
+        }
+        assertEquals(expected, paged);
+        textSource.close();
+    }
+
+    @Test
+    void testLayoutIsSharedBySourcesOfTheSameUnchangedFile(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("shared.txt");
+        Files.write(file, List.of("First version", "of the document"));
+        PrintSettings settings = new PrintSettings(PaperSize.A5, 150, false, false, 1.0, 1);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        // The preview and the print stage each open their own source
+        TextPageLayout layout;
+        try (TextPageSource preview = new TextPageSource(file); TextPageSource print = new TextPageSource(file)) {
+            layout = renderer.layout(preview, settings);
+            assertSame(layout, renderer.layout(print, settings));
+        }
+
+        // A changed file is laid out anew
+        Files.write(file, List.of("Second version", "of the document", "with one more line"));
+        try (TextPageSource changed = new TextPageSource(file)) {
+            assertNotSame(layout, renderer.layout(changed, settings));
+        }
+    }
+
+    @Test
+    void testLayingOutOneDocumentDoesNotHoldUpOthers(@TempDir Path tempDir) throws Exception {
+        Path slowFile = tempDir.resolve("slow.txt");
+        Path quickFile = tempDir.resolve("quick.txt");
+        Files.write(slowFile, List.of("A document that takes long to read"));
+        Files.write(quickFile, List.of("A short document"));
+        PrintSettings settings = new PrintSettings(PaperSize.A5, 150, false, false, 1.0, 1);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TextPageSource slowSource = new TextPageSource(slowFile) {
+            @Override
+            public List<String> getLines() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getLines();
+            }
+        };
+
+        CompletableFuture<TextPageLayout> slowLayout = CompletableFuture.supplyAsync(() -> {
+            try {
+                return renderer.layout(slowSource, settings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+        try (TextPageSource quickSource = new TextPageSource(quickFile)) {
+            // Another document is laid out while the slow one is still being read
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> renderer.layout(quickSource, settings));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(1, slowLayout.get(10, TimeUnit.SECONDS).getTotalPages());
+        slowSource.close();
+    }
+
+    @Test
+    void testBandedRenderingMatchesFullPageRendering() throws Exception {
+        assertBandedRenderingMatches(new PrintSettings(PaperSize.A5, 150, true, false, 1.0, 1));
+        assertBandedRenderingMatches(new PrintSettings(PaperSize.A5, 150, false, false, 1.0, 1));
+        assertBandedRenderingMatches(new PrintSettings(PaperSize.A5, 300, false, false, 1.0, 1));
+        assertBandedRenderingMatches(new PrintSettings(PaperSize.A5, 150, true, false, 0.5, 1));
+    }
+
+    @Test
+    void testPreviewIsRenderedAtScreenResolutionWithThePrintPagination() throws Exception {
+        URL resource = getClass().getClassLoader().getResource("sample.txt");
+        assertNotNull(resource, "Test resource 'sample.txt' not found.");
+        PrintSettings settings = new PrintSettings(PaperSize.A4, 300, false, false, 1.0, 1);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        try (TextPageSource textSource = new TextPageSource(Paths.get(resource.toURI()))) {
+            BufferedImage preview = renderer.renderPreview(textSource, 0, settings, 96);
+
+            // A4 at 96 DPI, anti-aliased gray although the print itself is 1-bit
+            assertEquals(Math.round(settings.pageWidthInPixels() * 96.0 / 300), preview.getWidth());
+            assertEquals(Math.round(settings.pageHeightInPixels() * 96.0 / 300), preview.getHeight());
+            assertEquals(BufferedImage.TYPE_BYTE_GRAY, preview.getType());
+
+            // The text starts where the print's 1-inch margin is, at preview scale
+            int firstInkRow = -1;
+            for (int y = 0; y < preview.getHeight() && firstInkRow < 0; y++) {
+                for (int x = 0; x < preview.getWidth(); x++) {
+                    if ((preview.getRGB(x, y) & 0xFF) < 160) {
+                        firstInkRow = y;
+                        break;
+                    }
+                }
+            }
+            assertTrue(firstInkRow >= 96 && firstInkRow < 96 + 16, "First text row at " + firstInkRow);
+        }
+    }
+
+    @Test
+    void testScaleShrinksTextWithoutChangingThePage(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("long.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            lines.add("Line " + i);
+        }
+        Files.write(file, lines);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+        PrintSettings fullSize = new PrintSettings(PaperSize.A4, 150, false, false, 1.0, 1);
+        PrintSettings halfSize = new PrintSettings(PaperSize.A4, 150, false, false, 0.5, 1);
+
+        try (TextPageSource textSource = new TextPageSource(file)) {
+            TextPageLayout full = renderer.layout(textSource, fullSize);
+            TextPageLayout half = renderer.layout(textSource, halfSize);
+
+            // Twice as many lines fit on a page at half size, on the same paper
+            assertTrue(half.getLinesPerPage() >= 2 * full.getLinesPerPage());
+            assertTrue(half.getTotalPages() < full.getTotalPages());
+            BufferedImage page = renderer.render(textSource, 0, halfSize);
+            assertEquals(fullSize.pageWidthInPixels(), page.getWidth());
+            assertEquals(fullSize.pageHeightInPixels(), page.getHeight());
+
+            // The text block ends about halfway across the content area
+            int lastInkColumn = -1;
+            for (int x = 0; x < page.getWidth(); x++) {
+                for (int y = full.getMargin(); y < page.getHeight() - full.getMargin(); y++) {
+                    if ((page.getRGB(x, y) & 0xFF) < 128) {
+                        lastInkColumn = x;
+                        break;
+                    }
+                }
+            }
+            int widestLine = full.getMetrics().stringWidth("Line 399");
+            assertTrue(lastInkColumn < full.getMargin() + widestLine * 0.5 + 2,
+                    "Scaled text should end near half the unscaled line width, ended at " + lastInkColumn);
+        }
+    }
+
+    @Test
+    void testMonochromeSettingsRenderNarrowFormats() throws Exception {
+        URL resource = getClass().getClassLoader().getResource("sample.txt");
+        assertNotNull(resource, "Test resource 'sample.txt' not found.");
+        TextPageSource textSource = new TextPageSource(Paths.get(resource.toURI()));
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        assertEquals(BufferedImage.TYPE_INT_ARGB,
+                renderer.render(textSource, 0, new PrintSettings(PaperSize.A4, 150, true, false, 1.0, 1)).getType());
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY,
+                renderer.render(textSource, 0, new PrintSettings(PaperSize.A4, 150, false, false, 1.0, 1)).getType());
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY,
+                renderer.render(textSource, 0, new PrintSettings(PaperSize.A4, 300, false, false, 1.0, 1)).getType());
+    }
+
+    private void assertBandedRenderingMatches(PrintSettings settings) throws Exception {
+        URL resource = getClass().getClassLoader().getResource("sample.txt");
+        assertNotNull(resource, "Test resource 'sample.txt' not found.");
+        TextPageSource textSource = new TextPageSource(Paths.get(resource.toURI()));
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        BufferedImage fullPage = renderer.render(textSource, 0, settings);
+
+        // Reassemble the bands into one image; 37 rows deliberately does not divide the page height
+        BufferedImage assembled = new BufferedImage(fullPage.getWidth(), fullPage.getHeight(), fullPage.getType());
+        renderer.renderBands(textSource, 0, settings, 37, new PageBandConsumer() {
+            @Override
+            public void beginPage(int pageWidth, int pageHeight, int imageType) {
+                assertEquals(fullPage.getWidth(), pageWidth);
+                assertEquals(fullPage.getHeight(), pageHeight);
+                assertEquals(fullPage.getType(), imageType);
+            }
+
+            @Override
+            public void acceptBand(BufferedImage band, int y) {
+                assertTrue(band.getHeight() <= 37, "Bands should not exceed the requested height.");
+                assembled.getRaster().setDataElements(0, y, band.getRaster());
+            }
+
+            @Override
+            public void endPage() {
+            }
+        });
+
+        for (int y = 0; y < fullPage.getHeight(); y++) {
+            for (int x = 0; x < fullPage.getWidth(); x++) {
+                if (fullPage.getRGB(x, y) != assembled.getRGB(x, y)) {
+                    throw new AssertionError("Banded page differs from the full page at (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+}
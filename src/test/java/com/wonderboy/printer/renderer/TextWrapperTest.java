@@ -0,0 +1,69 @@
+package com.wonderboy.printer.renderer;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class TextWrapperTest {
+
+    private static final List<String> EDGE_CASES = List.of(
+            "",
+            " ",
+            "     ",
+            "word",
+            "  leading spaces before a fairly long sentence that is going to need wrapping somewhere",
+            "trailing spaces after a fairly long sentence that is going to need wrapping somewhere    ",
+            "double  spaces  between  words  in  a  long  sentence  that  needs  wrapping  at  some  point",
+            "Supercalifragilisticexpialidocious-is-a-single-unbreakable-token-that-is-much-wider-than-any-line",
+            "short Supercalifragilisticexpialidocious-is-a-single-unbreakable-token-that-is-much-wider-than-any-line tail",
+            "tabs\tand\tother\tcontrol\tcharacters\tmixed into a line that is long enough to wrap more than once",
+            "Ünïcödé Latin-1 characters: café, naïve, façade, smörgåsbord, jalapeño, coöperate, déjà vu, señor",
+            "Combining marks need full layout: é à ö and a long enough tail to force several breaks",
+            "Arabic: مرحبا بالعالم mixed with enough Latin words to wrap the line twice");
+
+    @Test
+    void matchesReferenceWrapperForMonospacedAndProportionalFonts() throws Exception {
+        List<String> lines = new ArrayList<>(EDGE_CASES);
+        URL resource = getClass().getClassLoader().getResource("sample.txt");
+        assertNotNull(resource, "Test resource 'sample.txt' not found.");
+        lines.addAll(Files.readAllLines(Paths.get(resource.toURI())));
+
+        for (String family : List.of(Font.MONOSPACED, Font.SANS_SERIF, Font.SERIF)) {
+            for (int dpi : List.of(72, 150, 300, 600)) {
+                FontMetrics metrics = metricsFor(new Font(family, Font.PLAIN, 12 * dpi / 72));
+                TextWrapper wrapper = new TextWrapper(metrics);
+                for (int maxWidth : List.of(-1, 0, 5, 200, 17 * dpi / 10, 6 * dpi)) {
+                    for (String line : lines) {
+                        List<String> actual = new ArrayList<>();
+                        int count = wrapper.wrap(line, maxWidth, (begin, end) -> actual.add(line.substring(begin, end)));
+                        List<String> expected = ReferenceWordWrap.wrap(line, metrics, maxWidth);
+                        String context = family + "@" + dpi + "dpi, width " + maxWidth + ": \"" + line + "\"";
+                        assertEquals(expected, actual, context);
+                        assertEquals(expected.size(), count, context);
+                        assertEquals(expected.size(), wrapper.countLines(line, maxWidth), context);
+                    }
+                }
+            }
+        }
+    }
+
+    static FontMetrics metricsFor(Font font) {
+        Graphics2D g2d = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2d.setFont(font);
+            return g2d.getFontMetrics();
+        } finally {
+            g2d.dispose();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.wonderboy.printer.renderer;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmark comparing {@link ReferenceWordWrap} with {@link TextWrapper}.
+ * <p>
+ * Not part of the unit test run. Start it from the IDE, or after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes com.wonderboy.printer.renderer.WordWrapBenchmark
+ * </pre>
+ */
+public class WordWrapBenchmark {
+
+    private static final int LINES = 20_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        List<String> corpus = generateCorpus(new Random(42));
+        for (String family : List.of(Font.MONOSPACED, Font.SANS_SERIF)) {
+            int dpi = 300;
+            FontMetrics metrics = TextWrapperTest.metricsFor(new Font(family, Font.PLAIN, 12 * dpi / 72));
+            int maxWidth = (int) Math.round(210 / 25.4 * dpi) - 2 * dpi; // A4 with 1-inch margins
+            TextWrapper wrapper = new TextWrapper(metrics);
+
+            long referenceNanos = measure(() -> {
+                long lines = 0;
+                for (String line : corpus) {
+                    lines += ReferenceWordWrap.wrap(line, metrics, maxWidth).size();
+                }
+                return lines;
+            });
+            long wrapperNanos = measure(() -> {
+                long lines = 0;
+                for (String line : corpus) {
+                    lines += wrapper.countLines(line, maxWidth);
+                }
+                return lines;
+            });
+
+            System.out.printf("%-10s reference: %8.2f ms/round   TextWrapper: %8.2f ms/round   speed-up: %.1fx%n",
+                    family, referenceNanos / 1e6, wrapperNanos / 1e6, (double) referenceNanos / wrapperNanos);
+        }
+    }
+
+    /**
+     * @return The best time of the measured rounds, in nanoseconds.
+     */
+    private static long measure(java.util.function.LongSupplier round) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += round.getAsLong();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += round.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            System.out.println(); // keeps the JIT from discarding the work
+        }
+        return best;
+    }
+
+    /**
+     * Log-like lines of mixed length: most fit on one printed line, some wrap several times.
+     */
+    private static List<String> generateCorpus(Random random) {
+        String[] words = {"INFO", "WARN", "request", "completed", "in", "ms", "user=wonderboy", "status=200",
+                "org.apache.pdfbox.pdmodel.PDDocument", "spooler", "job", "rendered", "page", "of", "the", "a"};
+        List<String> corpus = new ArrayList<>(LINES);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            line.setLength(0);
+            int wordCount = 4 + random.nextInt(random.nextInt(10) == 0 ? 120 : 16);
+            for (int w = 0; w < wordCount; w++) {
+                if (w > 0) {
+                    line.append(' ');
+                }
+                line.append(words[random.nextInt(words.length)]);
+            }
+            corpus.add(line.toString());
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,200 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Microbenchmark of a worker claiming its next job, as the retained history and the previews
+ * waiting for confirmation grow: the former full scan of {@link SpoolerService#listJobs()}, a
+ * claim that visits every job in preview to find an unfinished one, and the worker's claims
+ * through {@link SpoolerService#claimUnfinishedPreview} and {@link SpoolerService#claimNext}.
+ * Each claim is given back afterwards, so every round claims the same queued job.
+ * <p>
+ * A second case claims from a large backlog of queued jobs spread over many users: first in,
+ * first out, and by {@link FairShareScheduler fair share}, once finding each user's earliest
+ * job by going through every candidate and once through the spooler's index by user.
+ * <p>
+ * Not part of the unit test run. Start it from the IDE, or after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes com.wonderboy.printer.service.DispatchBenchmark
+ * </pre>
+ */
+public class DispatchBenchmark {
+
+    private static final int[] HISTORY_SIZES = {1_000, 10_000, 100_000};
+    // Previews waiting for the user to confirm them, per finished job
+    private static final int PREVIEWS_PER_HISTORY = 10;
+    private static final int SCAN_LOOKUPS = 20;
+    private static final int CLAIMS = 10_000;
+    private static final int[] BACKLOG_SIZES = {1_000, 10_000, 100_000};
+    private static final int BACKLOG_USERS = 100;
+    private static final int BACKLOG_CLAIMS = 1_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        Path spoolDirectory = Files.createTempDirectory("dispatch-benchmark");
+        for (int history : HISTORY_SIZES) {
+            SpoolerService spooler = new SpoolerService(spoolDirectory, null, new InMemoryJobStore());
+            LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+            for (int i = 0; i < history; i++) {
+                PrintJob finished = new PrintJob("done-" + i + ".txt", "user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+                finished.setSubmitTime(start.plusSeconds(i));
+                finished.setStatus(PrintJobStatus.COMPLETED);
+                spooler.submit(finished);
+            }
+            int previews = history / PREVIEWS_PER_HISTORY;
+            for (int i = 0; i < previews; i++) {
+                PrintJob previewed = new PrintJob("preview-" + i + ".txt", "user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+                previewed.setSubmitTime(start.plusSeconds(history + i));
+                previewed.setStatus(PrintJobStatus.PREVIEWING);
+                previewed.setPreviewComplete(true);
+                spooler.submit(previewed);
+            }
+            PrintJob queued = new PrintJob("next.txt", "user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+            spooler.submit(queued);
+
+            long scanNanos = measure(() -> {
+                long found = 0;
+                for (int i = 0; i < SCAN_LOOKUPS; i++) {
+                    found += spooler.listJobs().stream()
+                            .filter(job -> job.getStatus() == PrintJobStatus.QUEUED)
+                            .findFirst().isPresent() ? 1 : 0;
+                }
+                return found;
+            });
+            long previewScanNanos = measure(() -> claims(spooler, () -> spooler.claimNext(PrintJobStatus.PREVIEWING,
+                    job -> !job.isPreviewComplete(), PrintJobStatus.PREVIEWING)));
+            long claimNanos = measure(() -> claims(spooler, spooler::claimUnfinishedPreview));
+
+            System.out.printf("%,8d finished, %,6d previews   full scan: %10.2f us   preview scan + claim: %8.2f us   claim: %6.2f us%n",
+                    history, previews, scanNanos / 1e3 / SCAN_LOOKUPS, previewScanNanos / 1e3 / CLAIMS, claimNanos / 1e3 / CLAIMS);
+        }
+
+        for (int backlog : BACKLOG_SIZES) {
+            SpoolerService spooler = new SpoolerService(spoolDirectory, null, new InMemoryJobStore());
+            LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+            for (int i = 0; i < backlog; i++) {
+                PrintJob queued = new PrintJob("queued-" + i + ".txt", "user-" + i % BACKLOG_USERS, PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+                queued.setSubmitTime(start.plusSeconds(i));
+                spooler.submit(queued);
+            }
+
+            spooler.setScheduler(JobScheduler.FIFO);
+            long fifoNanos = measure(() -> backlogClaims(spooler));
+            FairShareScheduler scanning = new FairShareScheduler();
+            // 不用索引：每次认领都遍历全部候选任务，找出每个用户最早的任务
+            spooler.setScheduler(new JobScheduler() {
+                @Override
+                public Optional<PrintJob> select(PrintJobStatus status, Candidates candidates) {
+                    return scanning.select(status, Candidates.of(candidates));
+                }
+
+                @Override
+                public void claimed(PrintJobStatus status, PrintJob job) {
+                    scanning.claimed(status, job);
+                }
+            });
+            long scanNanos = measure(() -> backlogClaims(spooler));
+            spooler.setScheduler(new FairShareScheduler());
+            long headsNanos = measure(() -> backlogClaims(spooler));
+
+            System.out.printf("%,8d queued, %,4d users   FIFO claim: %6.2f us   fair-share claim, scanning: %10.2f us   by user heads: %6.2f us%n",
+                    backlog, BACKLOG_USERS, fifoNanos / 1e3 / BACKLOG_CLAIMS, scanNanos / 1e3 / BACKLOG_CLAIMS, headsNanos / 1e3 / BACKLOG_CLAIMS);
+        }
+    }
+
+    /**
+     * Claims from the queued backlog, putting each job back afterwards.
+     *
+     * @return The number of jobs claimed.
+     */
+    private static long backlogClaims(SpoolerService spooler) {
+        long claimed = 0;
+        for (int i = 0; i < BACKLOG_CLAIMS; i++) {
+            Optional<PrintJob> job = spooler.claimNext(PrintJobStatus.QUEUED, candidate -> true, PrintJobStatus.PREVIEWING);
+            if (job.isPresent()) {
+                claimed++;
+                spooler.releaseJob(job.get());
+                spooler.transition(job.get(), PrintJobStatus.PREVIEWING, PrintJobStatus.QUEUED);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Does a worker's claims: an unfinished preview with the given call, then the queued job,
+     * which is put back afterwards.
+     *
+     * @return The number of jobs claimed.
+     */
+    private static long claims(SpoolerService spooler, Supplier<Optional<PrintJob>> claimUnfinishedPreview) {
+        long claimed = 0;
+        for (int i = 0; i < CLAIMS; i++) {
+            Optional<PrintJob> job = claimUnfinishedPreview.get();
+            if (job.isEmpty()) {
+                job = spooler.claimNext(PrintJobStatus.QUEUED, candidate -> true, PrintJobStatus.PREVIEWING);
+            }
+            if (job.isPresent()) {
+                claimed++;
+                spooler.releaseJob(job.get());
+                spooler.transition(job.get(), PrintJobStatus.PREVIEWING, PrintJobStatus.QUEUED);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * @return The best time of the measured rounds, in nanoseconds.
+     */
+    private static long measure(LongSupplier round) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += round.getAsLong();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += round.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            System.out.println(); // keeps the JIT from discarding the work
+        }
+        return best;
+    }
+
+    /**
+     * Keeps nothing, so that the benchmark measures dispatch rather than the disk.
+     */
+    private static class InMemoryJobStore implements JobStore {
+
+        @Override
+        public List<StoredJob> loadAll() {
+            return List.of();
+        }
+
+        @Override
+        public void save(PrintJob job) {
+        }
+
+        @Override
+        public long remove(String jobId) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
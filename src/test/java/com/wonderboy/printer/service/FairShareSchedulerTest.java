@@ -0,0 +1,293 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairShareSchedulerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 8, 0);
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, Long> pages = new HashMap<>();
+
+    @Test
+    void backloggedUsersShareThePagesByWeight() {
+        FairShareScheduler scheduler = new FairShareScheduler(job -> pages.get(job.getJobId()), 10);
+        scheduler.setWeight("heavy", 3);
+        List<PrintJob> waiting = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            waiting.add(job("light", i, 10));
+            waiting.add(job("heavy", i, 10));
+        }
+
+        Map<String, Long> pagesTaken = new HashMap<>();
+        for (int i = 0; i < 80; i++) {
+            PrintJob taken = take(scheduler, waiting);
+            pagesTaken.merge(taken.getUser(), pages.get(taken.getJobId()), Long::sum);
+        }
+
+        assertEquals(600, pagesTaken.get("heavy"));
+        assertEquals(200, pagesTaken.get("light"));
+    }
+
+    @Test
+    void higherPriorityGoesFirstAndUsersStillTakeTurns() {
+        FairShareScheduler scheduler = new FairShareScheduler(job -> pages.get(job.getJobId()), 10);
+        List<PrintJob> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(job("bulk", i, 10));
+        }
+        PrintJob urgent = job("bulk", 5, 10);
+        urgent.setPriority(1);
+        waiting.add(urgent);
+        waiting.add(job("other", 6, 10));
+
+        assertSame(urgent, take(scheduler, waiting));
+        // The other user is not starved by the five earlier jobs of the bulk user
+        List<String> order = new ArrayList<>();
+        while (!waiting.isEmpty()) {
+            order.add(take(scheduler, waiting).getUser());
+        }
+        assertTrue(order.indexOf("other") <= 1, "Took " + order);
+    }
+
+    @Test
+    void selectsAsIfTheTurnsWerePlayedOut() {
+        // A random mix of users, weights and job sizes, against the round played turn by turn
+        Random random = new Random(42);
+        FairShareScheduler scheduler = new FairShareScheduler(job -> pages.get(job.getJobId()), 3);
+        TurnByTurnRound reference = new TurnByTurnRound(3);
+        String[] users = {"ann", "ben", "cat", "dan"};
+        for (String user : users) {
+            int weight = 1 + random.nextInt(3);
+            scheduler.setWeight(user, weight);
+            reference.weights.put(user, weight);
+        }
+        List<PrintJob> waiting = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            waiting.add(job(users[random.nextInt(users.length)], i, 1 + random.nextInt(60)));
+        }
+
+        while (!waiting.isEmpty()) {
+            PrintJob expected = reference.take(waiting);
+            assertSame(expected, take(scheduler, waiting));
+        }
+    }
+
+    @Test
+    void aHugeJobDoesNotTakeLongerToSelect() {
+        FairShareScheduler scheduler = new FairShareScheduler(job -> pages.get(job.getJobId()), 1);
+        List<PrintJob> waiting = new ArrayList<>(List.of(job("bulk", 0, 1_000_000_000_000L), job("small", 1, 1)));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals("small", take(scheduler, waiting).getUser());
+            assertEquals("bulk", take(scheduler, waiting).getUser());
+        });
+    }
+
+    @Test
+    void spoolerFindsTheSameUserHeadsAsAListOfCandidates() {
+        // Claims stay QUEUED and are never released, so the spooler has to step over them
+        Random random = new Random(7);
+        FairShareScheduler viaSpooler = new FairShareScheduler(job -> pages.get(job.getJobId()), 5);
+        FairShareScheduler viaList = new FairShareScheduler(job -> pages.get(job.getJobId()), 5);
+        SpoolerService spooler = new SpoolerService(tempDir.resolve("spool"));
+        spooler.setScheduler(viaSpooler);
+        String[] users = {"ann", "ben", "cat", null};
+        List<PrintJob> waiting = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            PrintJob job = job(users[random.nextInt(users.length)], i, 1 + random.nextInt(30));
+            job.setPriority(random.nextInt(3));
+            spooler.submit(job);
+            if (random.nextInt(10) == 0) {
+                rejected.add(job.getJobId());
+            } else {
+                waiting.add(job);
+            }
+        }
+
+        while (!waiting.isEmpty()) {
+            PrintJob expected = take(viaList, waiting);
+            PrintJob claimed = spooler.claimNext(PrintJobStatus.QUEUED, job -> !rejected.contains(job.getJobId()), PrintJobStatus.QUEUED).orElseThrow();
+            assertEquals(expected.getJobId(), claimed.getJobId());
+        }
+        assertTrue(spooler.claimNext(PrintJobStatus.QUEUED, job -> !rejected.contains(job.getJobId()), PrintJobStatus.QUEUED).isEmpty());
+        spooler.close();
+    }
+
+    @Test
+    void aClaimLooksAtOneJobPerUserHoweverLargeTheBacklog() {
+        SpoolerService spooler = new SpoolerService(tempDir.resolve("spool"));
+        spooler.setScheduler(new FairShareScheduler(job -> pages.get(job.getJobId()), 10));
+        for (int i = 0; i < 1000; i++) {
+            spooler.submit(job("bulk", i, 10));
+        }
+        spooler.submit(job("small", 1000, 1));
+
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<PrintJob> looked = new ArrayList<>();
+            PrintJob claimed = spooler.claimNext(PrintJobStatus.QUEUED, looked::add, PrintJobStatus.PREVIEWING).orElseThrow();
+            users.add(claimed.getUser());
+            assertTrue(looked.size() <= 2, "Looked at " + looked.size() + " jobs");
+        }
+        assertTrue(users.contains("small"), "Took " + users);
+        spooler.close();
+    }
+
+    @Test
+    void smallJobsAreNotStarvedByABulkSubmission() {
+        Map<String, Double> fifo = simulate(JobScheduler.FIFO);
+        Map<String, Double> fair = simulate(new FairShareScheduler(job -> pages.get(job.getJobId()), FairShareScheduler.DEFAULT_QUANTUM_PAGES));
+
+        // First in, first out: the small jobs wait for most of the bulk submission
+        assertTrue(fifo.get("alice") > 1000, "FIFO latencies: " + fifo);
+        // Fair sharing: a small job waits at most a few bulk jobs
+        assertTrue(fair.get("alice") < 100, "Fair share latencies: " + fair);
+        assertTrue(fair.get("bob") < 100, "Fair share latencies: " + fair);
+        // The workers are kept just as busy: all work is done at about the same time
+        assertEquals(fifo.get("all-finished"), fair.get("all-finished"), 20);
+    }
+
+    /**
+     * Simulates two workers printing one page per time unit through {@link SpoolerService#claimNext}.
+     * One user submits 300 jobs of 20 pages at once; two others submit a 5-page job every 100 time units.
+     *
+     * @return The mean latency from submission to completion per user, and when the last job finished.
+     */
+    private Map<String, Double> simulate(JobScheduler scheduler) {
+        SpoolerService spooler = new SpoolerService(tempDir.resolve(scheduler == JobScheduler.FIFO ? "fifo" : "fair"));
+        spooler.setScheduler(scheduler);
+        PriorityQueue<Arrival> arrivals = new PriorityQueue<>(Comparator.comparingLong(Arrival::time));
+        for (int i = 0; i < 300; i++) {
+            arrivals.add(new Arrival(0, job("bulk", i, 20)));
+        }
+        for (int i = 0; i < 20; i++) {
+            arrivals.add(new Arrival(10 + i * 100L, job("alice", 1000 + i, 5)));
+            arrivals.add(new Arrival(60 + i * 100L, job("bob", 2000 + i, 5)));
+        }
+        int jobs = arrivals.size();
+
+        Map<String, Long> submittedAt = new HashMap<>();
+        Map<String, List<Long>> latencies = new HashMap<>();
+        long allFinished = 0;
+        PrintJob[] printing = new PrintJob[2];
+        long[] busyUntil = new long[2];
+        long time = 0;
+        int finished = 0;
+        while (finished < jobs) {
+            while (!arrivals.isEmpty() && arrivals.peek().time() <= time) {
+                PrintJob job = arrivals.poll().job();
+                submittedAt.put(job.getJobId(), time);
+                spooler.submit(job);
+            }
+            for (int worker = 0; worker < printing.length; worker++) {
+                PrintJob job = printing[worker];
+                if (job != null && busyUntil[worker] <= time) {
+                    spooler.transition(job, PrintJobStatus.PREVIEWING, PrintJobStatus.COMPLETED);
+                    spooler.releaseJob(job);
+                    latencies.computeIfAbsent(job.getUser(), user -> new ArrayList<>()).add(time - submittedAt.get(job.getJobId()));
+                    allFinished = time;
+                    printing[worker] = null;
+                    finished++;
+                }
+                if (printing[worker] == null) {
+                    Optional<PrintJob> next = spooler.claimNext(PrintJobStatus.QUEUED, candidate -> true, PrintJobStatus.PREVIEWING);
+                    if (next.isPresent()) {
+                        printing[worker] = next.get();
+                        busyUntil[worker] = time + pages.get(next.get().getJobId());
+                    }
+                }
+            }
+            long nextTime = arrivals.isEmpty() ? Long.MAX_VALUE : arrivals.peek().time();
+            for (int worker = 0; worker < printing.length; worker++) {
+                if (printing[worker] != null) {
+                    nextTime = Math.min(nextTime, busyUntil[worker]);
+                }
+            }
+            time = nextTime;
+        }
+        spooler.close();
+
+        Map<String, Double> result = new HashMap<>();
+        latencies.forEach((user, values) -> result.put(user, values.stream().mapToLong(Long::longValue).average().orElseThrow()));
+        result.put("all-finished", (double) allFinished);
+        return result;
+    }
+
+    private record Arrival(long time, PrintJob job) {
+    }
+
+    /**
+     * @return A job of the given user and size, submitted {@code order} milliseconds after the start.
+     */
+    private PrintJob job(String user, int order, long jobPages) {
+        PrintJob job = new PrintJob(user + "-" + order + ".txt", user, PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+        job.setSubmitTime(START.plusNanos(order * 1_000_000L));
+        pages.put(job.getJobId(), jobPages);
+        return job;
+    }
+
+    /**
+     * The scheduler's round, played one turn at a time, for jobs of a single priority.
+     */
+    private class TurnByTurnRound {
+        final long quantum;
+        final Map<String, Integer> weights = new HashMap<>();
+        final Deque<String> users = new ArrayDeque<>();
+        final Map<String, Long> credit = new HashMap<>();
+
+        TurnByTurnRound(long quantum) {
+            this.quantum = quantum;
+        }
+
+        PrintJob take(List<PrintJob> waiting) {
+            Map<String, PrintJob> heads = new LinkedHashMap<>();
+            waiting.forEach(job -> heads.putIfAbsent(job.getUser(), job));
+            users.removeIf(user -> !heads.containsKey(user));
+            credit.keySet().retainAll(heads.keySet());
+            heads.keySet().stream().filter(user -> !users.contains(user)).forEach(users::addLast);
+            while (true) {
+                String user = users.peekFirst();
+                PrintJob job = heads.get(user);
+                long userCredit = credit.getOrDefault(user, 0L);
+                if (userCredit >= pages.get(job.getJobId())) {
+                    credit.put(user, userCredit - pages.get(job.getJobId()));
+                    return job;
+                }
+                credit.put(user, userCredit + quantum * weights.get(user));
+                users.addLast(users.pollFirst());
+            }
+        }
+    }
+
+    private static PrintJob take(JobScheduler scheduler, List<PrintJob> waiting) {
+        PrintJob job = scheduler.select(PrintJobStatus.QUEUED, JobScheduler.Candidates.of(waiting)).orElseThrow();
+        scheduler.claimed(PrintJobStatus.QUEUED, job);
+        waiting.remove(job);
+        return job;
+    }
+}
@@ -0,0 +1,414 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.printer.VirtualPrinter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalJobStoreTest {
+
+    @TempDir
+    Path spoolDir;
+
+    @Test
+    void loadAll_replaysTheSnapshotAndThenTheJournal() throws IOException {
+        // Arrange: three jobs, compacted after four records, then more changes in the journal
+        JournalJobStore store = open(4);
+        assertTrue(store.loadAll().isEmpty());
+        PrintJob first = newJob("first.txt");
+        PrintJob second = newJob("second.txt");
+        PrintJob third = newJob("third.txt");
+        store.save(first);
+        store.save(second);
+        store.save(third);
+        first.setStatus(PrintJobStatus.PREVIEWING);
+        store.save(first); // 4th record: compacted
+        assertEquals(0, store.getJournalRecords());
+        second.setStatus(PrintJobStatus.FAILED);
+        store.save(second);
+        store.remove(third.getJobId());
+        assertEquals(2, store.getJournalRecords());
+
+        // Act: reopen without closing, as after a crash
+        Map<String, PrintJob> loaded = byId(loadJobs(open(4)));
+
+        // Assert
+        assertEquals(2, loaded.size());
+        assertEquals(PrintJobStatus.PREVIEWING, loaded.get(first.getJobId()).getStatus());
+        assertEquals(PrintJobStatus.FAILED, loaded.get(second.getJobId()).getStatus());
+        assertEquals("second.txt", loaded.get(second.getJobId()).getDocumentName());
+    }
+
+    @Test
+    void loadAll_discardsATornRecordAndKeepsAppendingAfterTheLastGoodOne() throws IOException {
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        PrintJob job = newJob("doc.txt");
+        store.save(job);
+        job.setStatus(PrintJobStatus.PRINTING);
+        store.save(job);
+        Path journal = spoolDir.resolve(JournalJobStore.JOURNAL_FILE_NAME);
+        long intactLength = Files.size(journal);
+        // A crash in the middle of appending the next record
+        Files.writeString(journal, "P 1234abcd {\"jobId\":\"", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        JournalJobStore reopened = open(1000);
+        List<PrintJob> loaded = loadJobs(reopened);
+        assertEquals(intactLength, Files.size(journal));
+        loaded.get(0).setStatus(PrintJobStatus.COMPLETED);
+        reopened.save(loaded.get(0));
+
+        PrintJob replayed = loadJobs(open(1000)).get(0);
+        assertEquals(PrintJobStatus.COMPLETED, replayed.getStatus());
+    }
+
+    @Test
+    void close_compactsTheJournalIntoTheSnapshot() throws IOException {
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        PrintJob job = newJob("doc.txt");
+        store.save(job);
+        for (PrintJobStatus status : List.of(PrintJobStatus.PREVIEWING, PrintJobStatus.PRINTING, PrintJobStatus.COMPLETED)) {
+            job.setStatus(status);
+            store.save(job);
+        }
+
+        store.close();
+
+        assertEquals(0, Files.size(spoolDir.resolve(JournalJobStore.JOURNAL_FILE_NAME)));
+        assertEquals(1, Files.readAllLines(spoolDir.resolve(JournalJobStore.SNAPSHOT_FILE_NAME)).size());
+        assertEquals(PrintJobStatus.COMPLETED, loadJobs(open(1000)).get(0).getStatus());
+    }
+
+    @Test
+    void loadAll_importsJobsFromTheJsonFileStore() throws IOException {
+        // Arrange: jobs saved by the JSON file store
+        JsonFileJobStore jsonStore = new JsonFileJobStore(spoolDir);
+        PrintJob job = newJob("doc.txt");
+        job.setStatus(PrintJobStatus.COMPLETED);
+        jsonStore.save(job);
+
+        // Act
+        List<PrintJob> imported = loadJobs(open(1000));
+
+        // Assert: the job moved into the snapshot
+        assertEquals(List.of(job.getJobId()), imported.stream().map(PrintJob::getJobId).toList());
+        assertFalse(Files.exists(jsonStore.jobFile(job.getJobId())));
+        assertEquals(PrintJobStatus.COMPLETED, loadJobs(open(1000)).get(0).getStatus());
+    }
+
+    @Test
+    void spoolerService_keepsJobsAcrossRestartsWithTheJournal() {
+        SpoolerService service = new SpoolerService(spoolDir, null, new JournalJobStore(spoolDir));
+        PrintJob kept = newJob("kept.txt");
+        PrintJob removed = newJob("removed.txt");
+        service.submit(kept);
+        service.submit(removed);
+        service.cancelJob(kept.getJobId());
+        service.cancelJob(removed.getJobId());
+        service.removeJob(removed.getJobId());
+        service.close();
+
+        SpoolerService restarted = new SpoolerService(spoolDir, null, new JournalJobStore(spoolDir));
+
+        assertEquals(List.of(kept.getJobId()), restarted.listJobs().stream().map(PrintJob::getJobId).toList());
+        assertEquals(PrintJobStatus.CANCELLED, restarted.listJobs().get(0).getStatus());
+        assertFalse(Files.exists(spoolDir.resolve(kept.getJobId() + ".json")));
+        restarted.close();
+    }
+
+    @Test
+    void loadAll_readsTheJobsOfTheSnapshotLazilyThroughTheIndex() throws IOException {
+        // Arrange: 200 jobs compacted into a snapshot with its index
+        List<PrintJob> saved = saveAndClose(200);
+
+        // Act
+        List<JobStore.StoredJob> listed = open(1000).loadAll();
+
+        // Assert: nothing parsed yet, but the index knows every job
+        assertEquals(200, listed.size());
+        assertTrue(listed.stream().noneMatch(stored -> stored instanceof JobStore.LoadedJob));
+        Map<String, PrintJob> byId = byId(saved);
+        for (JobStore.StoredJob stored : listed) {
+            PrintJob original = byId.get(stored.jobId());
+            assertEquals(original.getStatus(), stored.status());
+            assertEquals(original.getSubmitTime(), stored.submitTime());
+            assertEquals(original.getDocumentName(), stored.load().getDocumentName());
+        }
+    }
+
+    @Test
+    void loadAll_rebuildsAnIndexThatIsDamagedOrStale() throws IOException {
+        List<PrintJob> saved = saveAndClose(500);
+        Path index = spoolDir.resolve(JournalJobStore.INDEX_FILE_NAME);
+        Path snapshot = spoolDir.resolve(JournalJobStore.SNAPSHOT_FILE_NAME);
+
+        // A damaged index is rebuilt from the snapshot...
+        Files.write(index, new byte[]{1, 2, 3});
+        assertEquals(byId(saved).keySet(), byId(loadJobs(open(1000))).keySet());
+        assertTrue(Files.size(index) > 3);
+
+        // ...and so is one that was written for another snapshot
+        Files.setLastModifiedTime(snapshot, FileTime.fromMillis(Files.getLastModifiedTime(snapshot).toMillis() - 60_000));
+        List<JobStore.StoredJob> listed = open(1000).loadAll();
+        assertEquals(500, listed.size());
+        assertEquals(saved.get(499).getDocumentName(), byIdStored(listed).get(saved.get(499).getJobId()).load().getDocumentName());
+    }
+
+    @Test
+    void compact_movesTheRecordsOfJobsThatWereNeverLoaded() throws IOException {
+        saveAndClose(20);
+        JournalJobStore store = open(1000);
+        List<JobStore.StoredJob> listed = store.loadAll();
+        PrintJob changed = listed.get(0).load();
+        changed.setStatus(PrintJobStatus.CANCELLED);
+        store.save(changed);
+        store.remove(listed.get(1).jobId());
+
+        store.compact();
+
+        // The lazily listed jobs still read correctly from the new snapshot
+        for (JobStore.StoredJob stored : listed.subList(2, listed.size())) {
+            assertEquals(stored.jobId(), stored.load().getJobId());
+        }
+        Map<String, PrintJob> reloaded = byId(loadJobs(open(1000)));
+        assertEquals(19, reloaded.size());
+        assertEquals(PrintJobStatus.CANCELLED, reloaded.get(changed.getJobId()).getStatus());
+    }
+
+    @Test
+    void spoolerService_readsFinishedJobsOnlyWhenNeeded() throws IOException {
+        // Arrange: 50 completed jobs and one queued, in a compacted journal
+        List<PrintJob> saved = saveAndClose(50);
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        PrintJob queued = newJob("queued.txt");
+        store.save(queued);
+        store.close();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        SpoolerService service = new SpoolerService(spoolDir, null, countingLoads(open(1000), loads));
+
+        // Assert: only the queued job is read at startup and by the worker's query
+        assertEquals(1, loads.get());
+        assertEquals(List.of(queued.getJobId()),
+                service.listJobs(EnumSet.of(PrintJobStatus.QUEUED)).stream().map(PrintJob::getJobId).toList());
+        assertEquals(1, loads.get());
+        service.cancelJob(saved.get(0).getJobId()); // a completed job cannot be cancelled, but is read
+        assertEquals(2, loads.get());
+        assertEquals(51, service.listJobs().size());
+        assertEquals(51, loads.get());
+        service.close();
+    }
+
+    @Test
+    void spoolerService_listsLoadedJobsWithoutReadingFinishedOnes() throws IOException {
+        // Arrange: 50 completed jobs and one queued, in a compacted journal
+        saveAndClose(50);
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        PrintJob queued = newJob("queued.txt");
+        store.save(queued);
+        store.close();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act: what the job table and the command line summary do first
+        SpoolerService service = new SpoolerService(spoolDir, null, countingLoads(open(1000), loads));
+        List<PrintJob> listed = service.listLoadedJobs();
+
+        // Assert: the completed jobs are counted but not read
+        assertEquals(List.of(queued.getJobId()), listed.stream().map(PrintJob::getJobId).toList());
+        assertEquals(51, service.jobCount());
+        assertEquals(1, loads.get());
+        service.close();
+    }
+
+    @Test
+    void spoolerService_removesAJobWithoutReadingTheOthers() throws IOException {
+        // Arrange: two completed jobs sharing a source copied into the spool, among 50 others, in a compacted journal
+        Path spooledSource = Files.createDirectories(spoolDir.resolve("copy-dir")).resolve("shared.txt");
+        Files.writeString(spooledSource, "shared text");
+        saveAndClose(50);
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        List<PrintJob> sharing = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            PrintJob job = new PrintJob("shared.txt", "test-user", PrintSettings.A4_DEFAULT_300_DPI(), List.of(spooledSource.toString()));
+            job.setStatus(PrintJobStatus.COMPLETED);
+            store.save(job);
+            sharing.add(job);
+        }
+        store.close();
+        AtomicInteger loads = new AtomicInteger();
+        SpoolerService service = new SpoolerService(spoolDir, null, countingLoads(open(1000), loads));
+
+        // Act & Assert: only the removed job is read; the source stays until its last job is removed
+        service.removeJob(sharing.get(0).getJobId()).orElseThrow();
+        assertEquals(1, loads.get());
+        assertTrue(Files.exists(spooledSource));
+        service.removeJob(sharing.get(1).getJobId()).orElseThrow();
+        assertEquals(2, loads.get());
+        assertFalse(Files.exists(spooledSource.getParent()));
+        assertEquals(50, service.jobCount());
+        service.close();
+    }
+
+    @Test
+    void retentionManager_readsOnlyTheJobsItRemoves() throws IOException {
+        // Arrange: 50 completed jobs in a compacted journal
+        saveAndClose(50);
+        AtomicInteger loads = new AtomicInteger();
+        Path outputDir = spoolDir.resolve("output");
+        SpoolerService service = new SpoolerService(spoolDir, outputDir, countingLoads(open(1000), loads));
+        VirtualPrinter printer = new VirtualPrinter(outputDir);
+
+        // Act & Assert: a pass that keeps every job reads none of them
+        new RetentionManager(service, printer, Long.MAX_VALUE, Duration.ofDays(7)).collect();
+        assertEquals(0, loads.get());
+        assertEquals(50, service.listStoredJobs().size());
+
+        // A pass that removes every job reads each one once, to delete it
+        RetentionManager.Report report = new RetentionManager(service, printer, Long.MAX_VALUE, Duration.ZERO).collect();
+        assertEquals(50, report.removedJobs());
+        assertEquals(50, loads.get());
+        printer.shutdown();
+        service.close();
+    }
+
+    @Test
+    void spoolerService_readsEarlierJobsPageByPageNewestFirst() throws IOException {
+        // Arrange: 50 completed jobs in a compacted journal
+        List<PrintJob> saved = saveAndClose(50);
+        AtomicInteger loads = new AtomicInteger();
+        SpoolerService service = new SpoolerService(spoolDir, null, countingLoads(open(1000), loads));
+
+        // Act
+        assertEquals(20, service.loadEarlierJobs(20));
+
+        // Assert: only the 20 latest jobs were read
+        assertEquals(20, loads.get());
+        assertEquals(saved.subList(30, 50).stream().map(PrintJob::getJobId).toList(),
+                service.listLoadedJobs().stream().map(PrintJob::getJobId).toList());
+        assertEquals(30, service.loadEarlierJobs(100));
+        assertEquals(0, service.loadEarlierJobs(100));
+        assertEquals(50, loads.get());
+        service.close();
+    }
+
+    /**
+     * Saves completed jobs and closes the store, leaving a snapshot and its index.
+     */
+    private List<PrintJob> saveAndClose(int count) throws IOException {
+        JournalJobStore store = open(1000);
+        store.loadAll();
+        List<PrintJob> saved = new ArrayList<>();
+        LocalDateTime firstSubmit = LocalDateTime.now().minusHours(1);
+        for (int i = 0; i < count; i++) {
+            PrintJob job = newJob("doc-" + i + ".txt");
+            job.setSubmitTime(firstSubmit.plusSeconds(i)); // in submission order
+            job.setStatus(PrintJobStatus.COMPLETED);
+            store.save(job);
+            saved.add(job);
+        }
+        store.close();
+        return saved;
+    }
+
+    /**
+     * Wraps a store so that every job read from disk is counted.
+     */
+    private static JobStore countingLoads(JobStore store, AtomicInteger loads) {
+        return new JobStore() {
+            @Override
+            public List<StoredJob> loadAll() throws IOException {
+                return store.loadAll().stream().<StoredJob>map(stored -> new StoredJob() {
+                    @Override
+                    public String jobId() {
+                        return stored.jobId();
+                    }
+
+                    @Override
+                    public PrintJobStatus status() {
+                        return stored.status();
+                    }
+
+                    @Override
+                    public LocalDateTime submitTime() {
+                        return stored.submitTime();
+                    }
+
+                    @Override
+                    public List<String> sourceFilePaths() {
+                        return stored.sourceFilePaths();
+                    }
+
+                    @Override
+                    public PrintJob load() throws IOException {
+                        loads.incrementAndGet();
+                        return stored.load();
+                    }
+                }).toList();
+            }
+
+            @Override
+            public void save(PrintJob job) throws IOException {
+                store.save(job);
+            }
+
+            @Override
+            public long remove(String jobId) throws IOException {
+                return store.remove(jobId);
+            }
+
+            @Override
+            public void close() throws IOException {
+                store.close();
+            }
+        };
+    }
+
+    private JournalJobStore open(int compactionThreshold) {
+        return new JournalJobStore(spoolDir, compactionThreshold);
+    }
+
+    private static List<PrintJob> loadJobs(JournalJobStore store) throws IOException {
+        List<PrintJob> jobs = new ArrayList<>();
+        for (JobStore.StoredJob stored : store.loadAll()) {
+            jobs.add(stored.load());
+        }
+        return jobs;
+    }
+
+    private static PrintJob newJob(String documentName) {
+        return new PrintJob(documentName, "test-user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+    }
+
+    private static Map<String, PrintJob> byId(List<PrintJob> jobs) {
+        return jobs.stream().collect(Collectors.toMap(PrintJob::getJobId, Function.identity()));
+    }
+
+    private static Map<String, JobStore.StoredJob> byIdStored(List<JobStore.StoredJob> jobs) {
+        return jobs.stream().collect(Collectors.toMap(JobStore.StoredJob::jobId, Function.identity()));
+    }
+}
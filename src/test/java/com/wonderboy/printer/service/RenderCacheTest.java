@@ -0,0 +1,109 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PaperSize;
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenderCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void evictsLeastRecentlyUsedPagesBeyondBudget() {
+        // Arrange: room for exactly three 100-byte pages
+        RenderCache cache = new RenderCache(tempDir.resolve("cache"), 300);
+        byte[] page = new byte[100];
+        cache.store("a", page);
+        cache.store("b", page);
+        cache.store("c", page);
+
+        // Act: use "a", then add a fourth page
+        assertNotNull(cache.fetch("a"));
+        cache.store("d", page);
+
+        // Assert: "b" was the least recently used page
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(300, cache.getSizeInBytes());
+        assertNull(cache.fetch("b"));
+        assertNotNull(cache.fetch("a"));
+        assertEquals(100, cache.fetch("d").length);
+    }
+
+    @Test
+    void entriesSurviveReopeningTheCache() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        new RenderCache(cacheDir, 1024).store("page", new byte[]{1, 2, 3});
+        Files.writeString(cacheDir.resolve("interrupted.tmp"), "partial");
+
+        RenderCache reopened = new RenderCache(cacheDir, 1024);
+
+        assertEquals(1, reopened.getEntryCount());
+        assertFalse(Files.exists(cacheDir.resolve("interrupted.tmp")));
+        assertArrayEquals(new byte[]{1, 2, 3}, reopened.fetch("page"));
+    }
+
+    @Test
+    void jobKeyDependsOnContentAndSettingsButNotOnJobIdentity() throws IOException {
+        Path first = tempDir.resolve("first.txt");
+        Path second = tempDir.resolve("second.txt");
+        Files.writeString(first, "Quarterly report");
+        Files.writeString(second, "Quarterly report");
+        PrintSettings settings = new PrintSettings(PaperSize.A4, 150, false, false, 1.0, 1);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        String key = RenderCache.jobKey(job(first, settings), renderer);
+
+        assertEquals(key, RenderCache.jobKey(job(second, settings), renderer));
+        assertNotEquals(key, RenderCache.jobKey(job(first, new PrintSettings(PaperSize.A4, 300, false, false, 1.0, 1)), renderer));
+        Files.writeString(second, "Quarterly report, revised");
+        assertNotEquals(key, RenderCache.jobKey(job(second, settings), renderer));
+    }
+
+    @Test
+    void documentKeyAlsoDependsOnCopiesAndFormat() throws IOException {
+        Path source = tempDir.resolve("report.txt");
+        Files.writeString(source, "Quarterly report");
+        PrintSettings settings = new PrintSettings(PaperSize.A4, 150, false, false, 1.0, 1);
+        SimpleTextRenderer renderer = new SimpleTextRenderer();
+
+        String key = RenderCache.documentKey(job(source, settings), renderer, "text-pdf");
+
+        assertEquals(key, RenderCache.documentKey(job(source, settings), renderer, "text-pdf"));
+        assertNotEquals(key, RenderCache.documentKey(job(source, settings.withCopies(2)), renderer, "text-pdf"));
+        assertNotEquals(key, RenderCache.documentKey(job(source, settings), renderer, "text-pdf font=/other.ttf"));
+        assertFalse(key.startsWith(RenderCache.jobKey(job(source, settings), renderer)));
+    }
+
+    @Test
+    void storedDocumentsAreCopiedOutAndCountTowardsTheBudget() throws IOException {
+        RenderCache cache = new RenderCache(tempDir.resolve("cache"), 300);
+        Path document = tempDir.resolve("output.pdf");
+        Files.write(document, new byte[200]);
+        cache.storeFile("doc", document);
+        Path target = tempDir.resolve("job").resolve("output.pdf");
+
+        assertTrue(cache.copyTo("doc", target));
+        assertEquals(200, Files.size(target));
+        assertFalse(cache.copyTo("missing", tempDir.resolve("other.pdf")));
+
+        // A 200-byte page on top exceeds the budget and evicts the document
+        cache.store("page", new byte[200]);
+        assertFalse(cache.copyTo("doc", target));
+        assertEquals(200, cache.getSizeInBytes());
+    }
+
+    private static PrintJob job(Path source, PrintSettings settings) {
+        return new PrintJob(source.getFileName().toString(), "test-user", settings, List.of(source.toAbsolutePath().toString()));
+    }
+}
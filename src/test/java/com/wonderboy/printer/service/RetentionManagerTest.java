@@ -0,0 +1,175 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.printer.VirtualPrinter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path outputDir;
+    private SpoolerService spoolerService;
+    private VirtualPrinter virtualPrinter;
+
+    @BeforeEach
+    void setUp() {
+        outputDir = tempDir.resolve("output");
+        spoolerService = new SpoolerService(tempDir.resolve("spool"), outputDir);
+        virtualPrinter = new VirtualPrinter(outputDir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        virtualPrinter.shutdown();
+    }
+
+    @Test
+    void collect_removesFinishedJobsPastTheMaximumAge() throws IOException {
+        // Arrange: a completed job last touched 10 days ago, a recent one, and an old job still queued
+        PrintJob expired = submitJob(PrintJobStatus.COMPLETED, Duration.ofDays(10), 10_000);
+        PrintJob recent = submitJob(PrintJobStatus.COMPLETED, Duration.ofHours(1), 10_000);
+        PrintJob waiting = submitJob(PrintJobStatus.QUEUED, Duration.ofDays(10), 10_000);
+        RetentionManager retention = new RetentionManager(spoolerService, virtualPrinter, Long.MAX_VALUE, Duration.ofDays(7));
+
+        // Act
+        RetentionManager.Report report = retention.collect();
+
+        // Assert
+        assertEquals(1, report.removedJobs());
+        assertTrue(report.reclaimedBytes() >= 10_000, "Reclaimed " + report.reclaimedBytes() + " bytes.");
+        assertEquals(List.of(recent.getJobId(), waiting.getJobId()).stream().sorted().toList(),
+                spoolerService.listJobs().stream().map(PrintJob::getJobId).sorted().toList());
+        assertFalse(Files.exists(outputDir.resolve(expired.getJobId())));
+        assertFalse(Files.exists(spoolerService.getSpoolDirectory().resolve(expired.getJobId() + ".json")));
+        assertTrue(Files.exists(outputDir.resolve(waiting.getJobId())));
+    }
+
+    @Test
+    void collect_removesTheOldestFinishedJobsUntilWithinBudget() throws IOException {
+        // Arrange: 400 KB of output, 100 KB of it from a job still printing, and a 250 KB budget
+        PrintJob oldest = submitJob(PrintJobStatus.COMPLETED, Duration.ofHours(3), 100_000);
+        PrintJob older = submitJob(PrintJobStatus.FAILED, Duration.ofHours(2), 100_000);
+        PrintJob newest = submitJob(PrintJobStatus.COMPLETED, Duration.ofHours(1), 100_000);
+        PrintJob printing = submitJob(PrintJobStatus.PRINTING, Duration.ofHours(4), 100_000);
+        RetentionManager retention = new RetentionManager(spoolerService, virtualPrinter, 250_000, Duration.ofDays(7));
+
+        // Act
+        RetentionManager.Report report = retention.collect();
+
+        // Assert: the two least recently active finished jobs went; the job in progress stayed
+        assertEquals(2, report.removedJobs());
+        assertTrue(report.usedBytes() <= 250_000, report.usedBytes() + " bytes in use.");
+        assertTrue(report.reclaimedBytes() >= 200_000);
+        assertFalse(Files.exists(outputDir.resolve(oldest.getJobId())));
+        assertFalse(Files.exists(outputDir.resolve(older.getJobId())));
+        assertTrue(Files.exists(outputDir.resolve(newest.getJobId())));
+        assertTrue(Files.exists(outputDir.resolve(printing.getJobId())));
+    }
+
+    @Test
+    void collect_cleansIntermediatesAndOrphanedOutput() throws IOException {
+        // Arrange: a completed job with leftover page files and checkpoint, and output of a job the spooler no longer has
+        PrintJob job = submitJob(PrintJobStatus.COMPLETED, Duration.ofHours(1), 5_000);
+        Path jobDir = outputDir.resolve(job.getJobId());
+        Path renderedPages = Files.createDirectories(jobDir.resolve(VirtualPrinter.RENDERED_PAGES_DIR_NAME));
+        Files.write(renderedPages.resolve("page_0001.raster"), new byte[3_000]);
+        Files.write(jobDir.resolve("output.pdf.part"), new byte[2_000]);
+        Path previewPage = Files.createDirectories(virtualPrinter.previewPagesDirectory(job)).resolve("page_0001.raster");
+        Files.write(previewPage, new byte[1_000]);
+        Files.write(virtualPrinter.previewPagesDirectory(job).resolve("checkpoint"), new byte[100]);
+        Path orphan = Files.createDirectories(outputDir.resolve("no-such-job").resolve("preview_pages"));
+        Files.write(orphan.resolve("page_0001.raster"), new byte[4_000]);
+        RetentionManager retention = new RetentionManager(spoolerService, virtualPrinter, Long.MAX_VALUE, Duration.ofDays(7));
+
+        // Act
+        RetentionManager.Report report = retention.collect();
+
+        // Assert: the PDF and preview stay, everything else is gone and accounted for
+        assertEquals(0, report.removedJobs());
+        assertEquals(3_000 + 2_000 + 100 + 4_000, report.reclaimedBytes());
+        assertFalse(Files.exists(renderedPages));
+        assertFalse(Files.exists(jobDir.resolve("output.pdf.part")));
+        assertFalse(Files.exists(outputDir.resolve("no-such-job")));
+        assertTrue(Files.exists(jobDir.resolve("output.pdf")));
+        assertTrue(Files.exists(previewPage));
+    }
+
+    @Test
+    void collect_leavesJobsAWorkerStillHolds() throws IOException {
+        // Arrange: an expired job that was cancelled while a worker was writing its PDF
+        PrintJob job = submitJob(PrintJobStatus.PRINTING, Duration.ofDays(10), 10_000);
+        Path part = Files.write(outputDir.resolve(job.getJobId()).resolve("output.pdf.part"), new byte[2_000]);
+        PrintJob claimed = spoolerService.claimNext(PrintJobStatus.PRINTING, candidate -> true, PrintJobStatus.PRINTING).orElseThrow();
+        spoolerService.cancelJob(claimed.getJobId());
+        RetentionManager retention = new RetentionManager(spoolerService, virtualPrinter, 0, Duration.ofDays(7));
+
+        // Act & Assert: neither the job nor the file the worker is writing is touched
+        RetentionManager.Report report = retention.collect();
+        assertEquals(0, report.removedJobs());
+        assertEquals(0, report.reclaimedBytes());
+        assertTrue(Files.exists(part));
+        assertEquals(1, spoolerService.listJobs().size());
+
+        // Once the worker lets go, the job goes
+        spoolerService.releaseJob(claimed);
+        assertEquals(1, retention.collect().removedJobs());
+        assertFalse(Files.exists(outputDir.resolve(job.getJobId())));
+    }
+
+    @Test
+    void start_runsPassesInTheBackground() throws Exception {
+        PrintJob expired = submitJob(PrintJobStatus.CANCELLED, Duration.ofDays(30), 1_000);
+        RetentionManager retention = new RetentionManager(spoolerService, virtualPrinter, Long.MAX_VALUE, Duration.ofDays(7));
+
+        retention.start(Duration.ofMillis(20));
+        try {
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!spoolerService.listJobs().isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            retention.shutdown();
+        }
+
+        assertTrue(spoolerService.listJobs().isEmpty());
+        assertFalse(Files.exists(outputDir.resolve(expired.getJobId())));
+    }
+
+    /**
+     * Submits a job with an output PDF of the given size, everything dated {@code age} ago.
+     */
+    private PrintJob submitJob(PrintJobStatus status, Duration age, int outputBytes) throws IOException {
+        PrintJob job = new PrintJob("doc.txt", "test-user", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+        job.setSubmitTime(LocalDateTime.now().minus(age));
+        job.setStatus(status);
+        spoolerService.submit(job);
+        Path jobDir = Files.createDirectories(outputDir.resolve(job.getJobId()));
+        Files.write(jobDir.resolve("output.pdf"), new byte[outputBytes]);
+        FileTime time = FileTime.from(Instant.now().minus(age));
+        try (Stream<Path> files = Files.walk(jobDir)) {
+            for (Path file : files.toList()) {
+                Files.setLastModifiedTime(file, time);
+            }
+        }
+        return job;
+    }
+}
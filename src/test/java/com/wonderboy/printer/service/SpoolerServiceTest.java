@@ -1,6 +1,7 @@
 package com.wonderboy.printer.service;
 
 import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
 import com.wonderboy.printer.model.PrintSettings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,8 +9,15 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -64,4 +72,222 @@ class SpoolerServiceTest {
         assertTrue(loadedJobIds.contains(job1.getJobId()), "Job 1 should be loaded.");
         assertTrue(loadedJobIds.contains(job2.getJobId()), "Job 2 should be loaded.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRemoveJobDeletesItsSpooledSourcesAndOutput() throws Exception {
+        // Arrange: a job whose source was copied into the spool, with output on disk, and a job printing a user's file
+        Path outputDir = tempSpoolDir.resolve("output");
+        SpoolerService service = new SpoolerService(tempSpoolDir, outputDir);
+        Path userFile = Files.writeString(tempSpoolDir.getParent().resolve("user-" + System.nanoTime() + ".txt"), "user text");
+        Path spooledSource = Files.createDirectories(tempSpoolDir.resolve("copy-dir")).resolve("doc.txt");
+        Files.writeString(spooledSource, "spooled text");
+        PrintJob job = new PrintJob("doc.txt", "user1", PrintSettings.A4_DEFAULT_300_DPI(), List.of(spooledSource.toString()));
+        PrintJob other = new PrintJob("user.txt", "user1", PrintSettings.A4_DEFAULT_300_DPI(), List.of(userFile.toString()));
+        service.submit(job);
+        service.submit(other);
+        Path jobOutput = Files.createDirectories(outputDir.resolve(job.getJobId()).resolve("preview_pages"));
+        Files.write(jobOutput.resolve("page_0001.raster"), new byte[1234]);
+
+        service.cancelJob(job.getJobId());
+        service.cancelJob(other.getJobId());
+
+        // Act
+        long freed = service.removeJob(job.getJobId()).orElseThrow();
+        service.removeJob(other.getJobId()).orElseThrow();
+
+        // Assert: everything of the spooled job is gone; the user's own file is not touched
+        assertFalse(Files.exists(outputDir.resolve(job.getJobId())));
+        assertFalse(Files.exists(spooledSource.getParent()));
+        assertFalse(Files.exists(tempSpoolDir.resolve(job.getJobId() + ".json")));
+        assertTrue(freed >= 1234 + "spooled text".length());
+        assertTrue(Files.exists(userFile));
+        Files.delete(userFile);
+    }
+
+    @Test
+    void testRemoveJobRefusesUnfinishedAndClaimedJobs() {
+        PrintJob job = submitAt("claimed.txt", 1);
+
+        // A queued job is not removed
+        assertTrue(spoolerService.removeJob(job.getJobId()).isEmpty());
+
+        // Nor is a job cancelled while a worker holds it, until the worker lets go
+        PrintJob claimed = spoolerService.claimNext(PrintJobStatus.QUEUED, candidate -> true, PrintJobStatus.PRINTING).orElseThrow();
+        spoolerService.cancelJob(claimed.getJobId());
+        assertEquals(PrintJobStatus.CANCELLED, claimed.getStatus());
+        assertTrue(spoolerService.removeJob(job.getJobId()).isEmpty());
+        assertEquals(List.of(job.getJobId()), spoolerService.listJobs().stream().map(PrintJob::getJobId).toList());
+
+        spoolerService.releaseJob(claimed);
+        assertTrue(spoolerService.removeJob(job.getJobId()).isPresent());
+        assertTrue(spoolerService.listJobs().isEmpty());
+        assertTrue(spoolerService.removeJob(job.getJobId()).isEmpty());
+    }
+
+    @Test
+    void testSubmitEstimatesThePagesFromTheSourceFiles() throws Exception {
+        // Arrange: 7000 bytes of text, about three pages
+        Path source = tempSpoolDir.resolve("source.txt");
+        Files.writeString(source, "x".repeat(7000));
+        PrintJob job = new PrintJob("source.txt", "user1", PrintSettings.A4_DEFAULT_300_DPI(), List.of(source.toString()));
+
+        // Act
+        spoolerService.submit(job);
+
+        // Assert: the estimate is made once, kept with the job, and not redone on restart
+        assertEquals(3, job.getEstimatedPages());
+        Files.writeString(source, "x");
+        SpoolerService restarted = new SpoolerService(tempSpoolDir);
+        assertEquals(3, restarted.listJobs().get(0).getEstimatedPages());
+    }
+
+    @Test
+    void testDispatchQueuesFollowStatusTransitionsInSubmissionOrder() {
+        // Arrange: three jobs submitted a minute apart, the latest first
+        PrintJob late = submitAt("late.txt", 3);
+        PrintJob early = submitAt("early.txt", 1);
+        PrintJob middle = submitAt("middle.txt", 2);
+
+        // Act & Assert: the earliest queued job comes first, and moves on with its state
+        assertEquals(List.of(early.getJobId(), middle.getJobId(), late.getJobId()), jobIds(spoolerService, PrintJobStatus.QUEUED));
+        early.setStatus(PrintJobStatus.PREVIEWING);
+        // (a transition the spooler has not been told about yet is skipped)
+        assertEquals(List.of(middle.getJobId(), late.getJobId()), jobIds(spoolerService, PrintJobStatus.QUEUED));
+        spoolerService.updateJob(early);
+        assertEquals(List.of(early.getJobId()), jobIds(spoolerService, PrintJobStatus.PREVIEWING));
+        spoolerService.confirmPrint(early.getJobId());
+        assertTrue(jobIds(spoolerService, PrintJobStatus.PREVIEWING).isEmpty());
+        assertEquals(List.of(early.getJobId()), jobIds(spoolerService, PrintJobStatus.PRINTING));
+        spoolerService.cancelJob(middle.getJobId());
+        assertEquals(List.of(late.getJobId()), jobIds(spoolerService, PrintJobStatus.QUEUED));
+        spoolerService.removeJob(middle.getJobId());
+        assertTrue(jobIds(spoolerService, PrintJobStatus.CANCELLED).isEmpty());
+        assertEquals(List.of(early.getJobId(), late.getJobId()),
+                spoolerService.listJobs(EnumSet.of(PrintJobStatus.QUEUED, PrintJobStatus.PRINTING)).stream()
+                        .map(PrintJob::getJobId).toList());
+
+        // The queues are rebuilt on restart
+        SpoolerService restarted = new SpoolerService(tempSpoolDir);
+        assertEquals(List.of(late.getJobId()), jobIds(restarted, PrintJobStatus.QUEUED));
+        assertEquals(List.of(early.getJobId()), jobIds(restarted, PrintJobStatus.PRINTING));
+    }
+
+    @Test
+    void testClaimUnfinishedPreviewSkipsPreviewsAwaitingConfirmation() {
+        // Arrange: two jobs in preview, only the later one cut short
+        PrintJob confirmable = submitAt("confirmable.txt", 1);
+        PrintJob interrupted = submitAt("interrupted.txt", 2);
+        for (int i = 0; i < 2; i++) {
+            spoolerService.releaseJob(spoolerService.claimNext(PrintJobStatus.QUEUED, j -> true, PrintJobStatus.PREVIEWING).orElseThrow());
+        }
+        confirmable.setPreviewComplete(true);
+        spoolerService.updateJob(confirmable);
+
+        // Act & Assert: only the unfinished preview is resumed, after a restart as well
+        SpoolerService restarted = new SpoolerService(tempSpoolDir);
+        PrintJob resumed = null;
+        for (SpoolerService service : List.of(spoolerService, restarted)) {
+            resumed = service.claimUnfinishedPreview().orElseThrow();
+            assertEquals(interrupted.getJobId(), resumed.getJobId());
+            assertEquals(PrintJobStatus.PREVIEWING, resumed.getStatus());
+            assertTrue(service.claimUnfinishedPreview().isEmpty());
+        }
+
+        // Once the preview is complete, the job is no longer resumed
+        resumed.setPreviewComplete(true);
+        restarted.updateJob(resumed);
+        restarted.releaseJob(resumed);
+        assertTrue(restarted.claimUnfinishedPreview().isEmpty());
+    }
+
+    @Test
+    void testAwaitWorkReturnsForWorkSignalledAfterTheLastLook() throws InterruptedException {
+        // Nothing signalled since the signal was read: the wait times out
+        long signal = spoolerService.getWorkSignal();
+        assertFalse(spoolerService.awaitWork(signal, Duration.ofMillis(20)));
+
+        // A submit between reading the signal and waiting is not missed
+        PrintJob job = new PrintJob("test.txt", "user1", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+        spoolerService.submit(job);
+        assertTrue(spoolerService.awaitWork(signal, null));
+
+        // Retrying a failed job and confirming a preview signal too; cancelling does not
+        signal = spoolerService.getWorkSignal();
+        spoolerService.cancelJob(job.getJobId());
+        assertFalse(spoolerService.awaitWork(signal, Duration.ZERO));
+        job.setStatus(PrintJobStatus.FAILED);
+        spoolerService.updateJob(job);
+        spoolerService.retryJob(job.getJobId());
+        assertTrue(spoolerService.awaitWork(signal, Duration.ZERO));
+        signal = spoolerService.getWorkSignal();
+        job.setStatus(PrintJobStatus.PREVIEWING);
+        spoolerService.updateJob(job);
+        spoolerService.confirmPrint(job.getJobId());
+        assertTrue(spoolerService.awaitWork(signal, Duration.ZERO));
+    }
+
+    @Test
+    void testClaimNextHandsEveryJobToExactlyOneClaimant() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            submitAt("job-" + i + ".txt", i % 60);
+        }
+        List<String> claimed = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> claimants = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < 16; i++) {
+            Thread claimant = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Optional<PrintJob> job;
+                while ((job = spoolerService.claimNext(PrintJobStatus.QUEUED, j -> true, PrintJobStatus.PREVIEWING)).isPresent()) {
+                    claimed.add(job.get().getJobId());
+                    spoolerService.releaseJob(job.get());
+                }
+            });
+            claimant.start();
+            claimants.add(claimant);
+        }
+        start.countDown();
+        for (Thread claimant : claimants) {
+            claimant.join(30_000);
+        }
+
+        assertEquals(200, claimed.size());
+        assertEquals(200, Set.copyOf(claimed).size(), "No job may be claimed twice.");
+        assertTrue(jobIds(spoolerService, PrintJobStatus.QUEUED).isEmpty());
+        assertEquals(200, spoolerService.listJobs(EnumSet.of(PrintJobStatus.PREVIEWING)).size());
+    }
+
+    @Test
+    void testClaimedJobIsNotHandedOutAgainAndKeepsNewerStates() {
+        PrintJob job = submitAt("test.txt", 1);
+        job.setStatus(PrintJobStatus.PRINTING);
+        spoolerService.updateJob(job);
+
+        PrintJob claimed = spoolerService.claimNext(PrintJobStatus.PRINTING, j -> true, PrintJobStatus.PRINTING).orElseThrow();
+        assertTrue(spoolerService.isClaimed(job.getJobId()));
+        assertTrue(spoolerService.claimNext(PrintJobStatus.PRINTING, j -> true, PrintJobStatus.PRINTING).isEmpty());
+
+        // The job is cancelled while it is being printed: finishing it must not overwrite that
+        spoolerService.cancelJob(job.getJobId());
+        assertFalse(spoolerService.transition(claimed, PrintJobStatus.PRINTING, PrintJobStatus.COMPLETED));
+        assertEquals(PrintJobStatus.CANCELLED, job.getStatus());
+        spoolerService.releaseJob(claimed);
+        assertFalse(spoolerService.isClaimed(job.getJobId()));
+        assertEquals(PrintJobStatus.CANCELLED, new SpoolerService(tempSpoolDir).listJobs().getFirst().getStatus());
+    }
+
+    private static List<String> jobIds(SpoolerService service, PrintJobStatus status) {
+        return service.listJobs(EnumSet.of(status)).stream().map(PrintJob::getJobId).toList();
+    }
+
+    private PrintJob submitAt(String documentName, int minutes) {
+        PrintJob job = new PrintJob(documentName, "user1", PrintSettings.A4_DEFAULT_300_DPI(), List.of());
+        job.setSubmitTime(LocalDateTime.of(2024, 1, 1, 12, minutes));
+        spoolerService.submit(job);
+        return job;
+    }
+}
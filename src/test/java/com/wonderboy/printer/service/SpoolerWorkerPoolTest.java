@@ -0,0 +1,153 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PaperSize;
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.printer.VirtualPrinter;
+import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import com.wonderboy.printer.renderer.TextPageLayout;
+import com.wonderboy.printer.source.PageSource;
+import com.wonderboy.printer.source.TextPageSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolerWorkerPoolTest {
+
+    private static final int WORKERS = 32;
+    private static final int JOBS = 200;
+
+    @TempDir
+    Path tempDir;
+
+    private SpoolerService spoolerService;
+    private CountingPrinter virtualPrinter;
+    private SpoolerWorkerPool pool;
+
+    @BeforeEach
+    void setUp() {
+        spoolerService = new SpoolerService(tempDir.resolve("spool"));
+        virtualPrinter = new CountingPrinter(tempDir.resolve("output"));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown(Duration.ofSeconds(10));
+        }
+        virtualPrinter.shutdown();
+    }
+
+    @Test
+    void dozensOfWorkersProcessEveryJobExactlyOnce() throws Exception {
+        CountingRenderer renderer = new CountingRenderer();
+        List<SpoolerWorker> workers = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            workers.add(new SpoolerWorker(spoolerService, renderer, virtualPrinter));
+        }
+        pool = new SpoolerWorkerPool(workers);
+        pool.start();
+
+        // Jobs arrive while the workers are already racing for them
+        List<PrintJob> jobs = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            jobs.add(submitTextJob("job-" + i));
+        }
+        awaitCondition(() -> jobs.stream().allMatch(PrintJob::isPreviewComplete));
+        jobs.forEach(job -> spoolerService.confirmPrint(job.getJobId()));
+        awaitCondition(() -> jobs.stream().allMatch(job -> job.getStatus() == PrintJobStatus.COMPLETED));
+        assertTrue(pool.shutdown(Duration.ofSeconds(10)));
+
+        // Every job went through each stage once, and no claim is left behind
+        for (int i = 0; i < JOBS; i++) {
+            String key = "job-" + i;
+            assertEquals(1, renderer.previewRuns.getOrDefault(key, new AtomicInteger()).get(), "Previews of " + key);
+            assertEquals(1, virtualPrinter.printRuns.getOrDefault(key, new AtomicInteger()).get(), "Print runs of " + key);
+        }
+        for (PrintJob job : jobs) {
+            assertFalse(spoolerService.isClaimed(job.getJobId()));
+            assertTrue(job.getErrorLog().isEmpty());
+            assertTrue(Files.exists(tempDir.resolve("output").resolve(job.getJobId()).resolve("output.pdf")));
+        }
+    }
+
+    @Test
+    void shutdownStopsIdleWorkers() throws InterruptedException {
+        pool = new SpoolerWorkerPool(List.of(
+                new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter),
+                new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter)));
+        pool.start();
+        assertThrows(IllegalStateException.class, pool::start);
+
+        assertTrue(pool.shutdown(Duration.ofSeconds(10)));
+    }
+
+    private PrintJob submitTextJob(String name) throws IOException {
+        Path source = tempDir.resolve(name + ".txt");
+        Files.write(source, List.of(name, "A short document printed by one of many workers."));
+        PrintSettings settings = new PrintSettings(PaperSize.A5, 72, true, false, 1.0, 1);
+        PrintJob job = new PrintJob(name + ".txt", "test-user", settings, List.of(source.toAbsolutePath().toString()));
+        spoolerService.submit(job);
+        return job;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(60).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "Timed out waiting for the workers.");
+    }
+
+    /**
+     * Counts, per document, how often the preview stage ran: it asks for the page count once.
+     * The first line names the document.
+     */
+    private static class CountingRenderer extends SimpleTextRenderer {
+
+        final Map<String, AtomicInteger> previewRuns = new ConcurrentHashMap<>();
+
+        @Override
+        public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+            count(previewRuns, (TextPageSource) source);
+            return super.getTotalPages(source, settings);
+        }
+    }
+
+    /**
+     * Counts, per document, how often the print stage wrote the PDF.
+     */
+    private static class CountingPrinter extends VirtualPrinter {
+
+        final Map<String, AtomicInteger> printRuns = new ConcurrentHashMap<>();
+
+        CountingPrinter(Path outputDirectory) {
+            super(outputDirectory);
+        }
+
+        @Override
+        public void finishTextJob(PrintJob job, TextPageSource source, TextPageLayout layout) throws IOException {
+            count(printRuns, source);
+            super.finishTextJob(job, source, layout);
+        }
+    }
+
+    private static void count(Map<String, AtomicInteger> runs, TextPageSource source) throws IOException {
+        runs.computeIfAbsent(source.getLine(0), key -> new AtomicInteger()).incrementAndGet();
+    }
+}
@@ -0,0 +1,391 @@
+package com.wonderboy.printer.service;
+
+import com.wonderboy.printer.model.PaperSize;
+import com.wonderboy.printer.model.PrintJob;
+import com.wonderboy.printer.model.PrintJobStatus;
+import com.wonderboy.printer.model.PrintSettings;
+import com.wonderboy.printer.printer.PageEventBus;
+import com.wonderboy.printer.printer.VirtualPrinter;
+import com.wonderboy.printer.renderer.PageRenderer;
+import com.wonderboy.printer.renderer.SimpleTextRenderer;
+import com.wonderboy.printer.renderer.TextPageLayout;
+import com.wonderboy.printer.source.PageSource;
+import com.wonderboy.printer.source.TextPageSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolerWorkerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SpoolerService spoolerService;
+    private VirtualPrinter virtualPrinter;
+    private SpoolerWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        spoolerService = new SpoolerService(tempDir.resolve("spool"));
+        virtualPrinter = new VirtualPrinter(tempDir.resolve("output"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (worker != null) {
+            worker.shutdown();
+        }
+    }
+
+    @Test
+    void parallelRenderingDeliversPagesInOrder() throws IOException {
+        // Arrange: a multi-page document, and a renderer whose early pages are the slowest
+        PrintJob job = submitTextJob(200);
+        SimpleTextRenderer textRenderer = new SimpleTextRenderer();
+        PageRenderer slowEarlyPages = new PageRenderer() {
+            @Override
+            public BufferedImage render(PageSource source, int pageIndex, PrintSettings settings) throws IOException {
+                try {
+                    Thread.sleep(Math.max(0, 60 - pageIndex * 15L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return textRenderer.render(source, pageIndex, settings);
+            }
+
+            @Override
+            public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+                return textRenderer.getTotalPages(source, settings);
+            }
+        };
+        List<Integer> deliveredPages = Collections.synchronizedList(new ArrayList<>());
+        virtualPrinter.getPageEvents().subscribe("test", (printedJob, image, pageNumber) -> deliveredPages.add(pageNumber),
+                1024, PageEventBus.OverflowPolicy.DROP_NEWEST);
+        worker = new SpoolerWorker(spoolerService, slowEarlyPages, virtualPrinter, 4);
+
+        // Act
+        assertTrue(worker.processOneStep());
+        assertTrue(virtualPrinter.getPageEvents().flush(Duration.ofSeconds(10)));
+
+        // Assert: every page arrived, in page order, and was saved
+        assertEquals(PrintJobStatus.PREVIEWING, job.getStatus());
+        assertTrue(deliveredPages.size() > 4, "The document should span more pages than there are threads.");
+        assertEquals(IntStream.rangeClosed(1, deliveredPages.size()).boxed().collect(Collectors.toList()), deliveredPages);
+        try (var pages = Files.list(virtualPrinter.previewPagesDirectory(job))) {
+            assertEquals(deliveredPages.size(), pages.filter(VirtualPrinter::isPageFile).count());
+        }
+    }
+
+    @Test
+    void parallelRenderingFailureMarksJobFailed() throws IOException {
+        PrintJob job = submitTextJob(200);
+        SimpleTextRenderer textRenderer = new SimpleTextRenderer();
+        PageRenderer failingRenderer = new PageRenderer() {
+            @Override
+            public BufferedImage render(PageSource source, int pageIndex, PrintSettings settings) throws IOException {
+                if (pageIndex == 2) {
+                    throw new IOException("Simulated render failure");
+                }
+                return textRenderer.render(source, pageIndex, settings);
+            }
+
+            @Override
+            public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+                return textRenderer.getTotalPages(source, settings);
+            }
+        };
+        worker = new SpoolerWorker(spoolerService, failingRenderer, virtualPrinter, 4);
+
+        assertTrue(worker.processOneStep());
+
+        assertEquals(PrintJobStatus.FAILED, job.getStatus());
+        assertTrue(job.getErrorLog().get(0).contains("IOException: Simulated render failure"));
+    }
+
+    @Test
+    void textOutputModeIsReadFromTheSystemProperty() {
+        try {
+            System.clearProperty(SpoolerWorker.TEXT_OUTPUT_PROPERTY);
+            assertTrue(SpoolerWorker.configuredVectorTextOutput());
+            System.setProperty(SpoolerWorker.TEXT_OUTPUT_PROPERTY, "Raster");
+            assertFalse(SpoolerWorker.configuredVectorTextOutput());
+            System.setProperty(SpoolerWorker.TEXT_OUTPUT_PROPERTY, "vector");
+            assertTrue(SpoolerWorker.configuredVectorTextOutput());
+            // 无法识别的值回退到矢量文本
+            System.setProperty(SpoolerWorker.TEXT_OUTPUT_PROPERTY, "bitmap");
+            assertTrue(SpoolerWorker.configuredVectorTextOutput());
+        } finally {
+            System.clearProperty(SpoolerWorker.TEXT_OUTPUT_PROPERTY);
+        }
+    }
+
+    @Test
+    void printResolutionPagesAreRenderedOnlyAfterConfirmation() throws IOException {
+        PrintJob job = submitTextJob(200);
+        List<BufferedImage> previews = Collections.synchronizedList(new ArrayList<>());
+        virtualPrinter.getPageEvents().subscribe("test", (printedJob, image, pageNumber) -> previews.add(image),
+                1024, PageEventBus.OverflowPolicy.DROP_NEWEST);
+        worker = new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter);
+        worker.setVectorTextOutput(false);
+        Path printPages = tempDir.resolve("output").resolve(job.getJobId()).resolve(VirtualPrinter.RENDERED_PAGES_DIR_NAME);
+
+        // Stage 1: screen-resolution previews only
+        assertTrue(worker.processOneStep());
+        assertTrue(virtualPrinter.getPageEvents().flush(Duration.ofSeconds(10)));
+        assertEquals(PrintJobStatus.PREVIEWING, job.getStatus());
+        assertFalse(previews.isEmpty());
+        // (previews are never larger than the print, and this job prints at 72 DPI)
+        int previewWidth = (int) Math.round(job.getSettings().pageWidthInPixels() * Math.min(1.0, (double) VirtualPrinter.PREVIEW_DPI / job.getSettings().dpi()));
+        assertEquals(previewWidth, previews.get(0).getWidth());
+        assertFalse(Files.exists(printPages), "No print-resolution page should exist before confirmation.");
+
+        // Stage 2: the confirmed job is rendered at print resolution straight into the PDF
+        spoolerService.confirmPrint(job.getJobId());
+        assertTrue(worker.processOneStep());
+        assertEquals(PrintJobStatus.COMPLETED, job.getStatus());
+        assertFalse(Files.exists(printPages), "Pages should go into the PDF without page files.");
+        try (PDDocument pdf = PDDocument.load(outputPdf(job).toFile())) {
+            assertEquals(previews.size(), pdf.getNumberOfPages());
+            assertEquals(job.getSettings().pageWidthInPixels(), firstImage(pdf).getWidth());
+        }
+    }
+
+    @Test
+    void resubmittedDocumentIsServedFromRenderCache() throws IOException {
+        // Arrange: a renderer that counts its print-resolution renders, and a cache
+        SimpleTextRenderer textRenderer = new SimpleTextRenderer();
+        AtomicInteger renderCalls = new AtomicInteger();
+        PageRenderer countingRenderer = new PageRenderer() {
+            @Override
+            public BufferedImage render(PageSource source, int pageIndex, PrintSettings settings) throws IOException {
+                renderCalls.incrementAndGet();
+                return textRenderer.render(source, pageIndex, settings);
+            }
+
+            @Override
+            public BufferedImage renderPreview(PageSource source, int pageIndex, PrintSettings settings, int previewDpi) throws IOException {
+                return textRenderer.renderPreview(source, pageIndex, settings, previewDpi);
+            }
+
+            @Override
+            public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+                return textRenderer.getTotalPages(source, settings);
+            }
+        };
+        worker = new SpoolerWorker(spoolerService, countingRenderer, virtualPrinter, 2);
+        worker.setVectorTextOutput(false);
+        worker.setRenderCache(new RenderCache(tempDir.resolve("cache"), RenderCache.DEFAULT_MAX_BYTES));
+
+        PrintJob first = submitTextJob(200);
+        printThroughBothStages(first);
+        int pages = renderCalls.get();
+        assertTrue(pages > 1);
+
+        // Act: the same document again, submitted as a new job from another copy of the file
+        PrintJob second = submitTextJob(200, "copy.txt");
+        printThroughBothStages(second);
+
+        // Assert: no page was rendered again, yet every page was printed with the same data
+        assertEquals(PrintJobStatus.COMPLETED, second.getStatus());
+        assertEquals(pages, renderCalls.get());
+        try (PDDocument firstPdf = PDDocument.load(outputPdf(first).toFile());
+             PDDocument secondPdf = PDDocument.load(outputPdf(second).toFile())) {
+            assertEquals(pages, secondPdf.getNumberOfPages());
+            try (InputStream expected = firstImage(firstPdf).getCOSObject().createRawInputStream();
+                 InputStream actual = firstImage(secondPdf).getCOSObject().createRawInputStream()) {
+                assertArrayEquals(expected.readAllBytes(), actual.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void resubmittedTextDocumentIsCopiedFromRenderCache() throws IOException {
+        // Arrange: vector text output (the default), a printer that counts the PDFs it writes, and a cache
+        AtomicInteger pdfsWritten = new AtomicInteger();
+        virtualPrinter = new VirtualPrinter(tempDir.resolve("output")) {
+            @Override
+            public void finishTextJob(PrintJob job, TextPageSource source, TextPageLayout layout) throws IOException {
+                pdfsWritten.incrementAndGet();
+                super.finishTextJob(job, source, layout);
+            }
+        };
+        worker = new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter);
+        worker.setRenderCache(new RenderCache(tempDir.resolve("cache"), RenderCache.DEFAULT_MAX_BYTES));
+        PrintJob first = submitTextJob(200);
+        printThroughBothStages(first);
+        assertEquals(1, pdfsWritten.get());
+
+        // Act: the same document again, submitted as a new job from another copy of the file
+        PrintJob second = submitTextJob(200, "copy.txt");
+        printThroughBothStages(second);
+
+        // Assert: the PDF was not written again, but copied byte for byte
+        assertEquals(PrintJobStatus.COMPLETED, second.getStatus());
+        assertEquals(1, pdfsWritten.get());
+        assertArrayEquals(Files.readAllBytes(outputPdf(first)), Files.readAllBytes(outputPdf(second)));
+    }
+
+    @Test
+    void interruptedPreviewResumesAtTheFirstMissingPage() throws IOException {
+        // Arrange: the first run dies while rendering page 4
+        PrintJob job = submitTextJob(200);
+        SimpleTextRenderer textRenderer = new SimpleTextRenderer();
+        AtomicInteger failAtPage = new AtomicInteger(3);
+        List<Integer> renderedPages = Collections.synchronizedList(new ArrayList<>());
+        PageRenderer crashingRenderer = new PageRenderer() {
+            @Override
+            public BufferedImage render(PageSource source, int pageIndex, PrintSettings settings) throws IOException {
+                return textRenderer.render(source, pageIndex, settings);
+            }
+
+            @Override
+            public BufferedImage renderPreview(PageSource source, int pageIndex, PrintSettings settings, int previewDpi) throws IOException {
+                if (pageIndex == failAtPage.get()) {
+                    throw new IOException("Simulated crash");
+                }
+                renderedPages.add(pageIndex);
+                return textRenderer.renderPreview(source, pageIndex, settings, previewDpi);
+            }
+
+            @Override
+            public int getTotalPages(PageSource source, PrintSettings settings) throws IOException {
+                return textRenderer.getTotalPages(source, settings);
+            }
+        };
+        worker = new SpoolerWorker(spoolerService, crashingRenderer, virtualPrinter);
+        assertTrue(worker.processOneStep());
+        virtualPrinter.awaitPageWrites(job);
+        // (a crash leaves the job PREVIEWING on disk; the failure handler marked it FAILED instead)
+        job.setStatus(PrintJobStatus.PREVIEWING);
+        spoolerService.updateJob(job);
+        worker.shutdown();
+        virtualPrinter.shutdown();
+        // page 3 was half written when the process died
+        Path page3 = virtualPrinter.previewPageFile(job, 3);
+        Files.write(page3, Arrays.copyOf(Files.readAllBytes(page3), 10));
+
+        // Act: restart from the spool on disk
+        renderedPages.clear();
+        failAtPage.set(-1);
+        spoolerService = new SpoolerService(tempDir.resolve("spool"));
+        virtualPrinter = new VirtualPrinter(tempDir.resolve("output"));
+        worker = new SpoolerWorker(spoolerService, crashingRenderer, virtualPrinter);
+        assertTrue(worker.processOneStep());
+
+        // Assert: pages 1 and 2 were kept, rendering continued at the damaged page 3
+        PrintJob resumed = spoolerService.listJobs().getFirst();
+        int totalPages = textRenderer.getTotalPages(new TextPageSource(
+                Path.of(job.getSourceFilePaths().getFirst())), job.getSettings());
+        assertEquals(PrintJobStatus.PREVIEWING, resumed.getStatus());
+        assertTrue(resumed.isPreviewComplete());
+        assertEquals(IntStream.range(2, totalPages).boxed().collect(Collectors.toList()), renderedPages);
+        assertEquals(totalPages, virtualPrinter.resumablePreviewPages(resumed));
+        assertFalse(worker.processOneStep(), "A complete preview waits for confirmation.");
+    }
+
+    private Path outputPdf(PrintJob job) {
+        return tempDir.resolve("output").resolve(job.getJobId()).resolve("output.pdf");
+    }
+
+    private static PDImageXObject firstImage(PDDocument pdf) throws IOException {
+        PDResources resources = pdf.getPage(0).getResources();
+        return (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+    }
+
+    private void printThroughBothStages(PrintJob job) {
+        assertTrue(worker.processOneStep());
+        spoolerService.confirmPrint(job.getJobId());
+        assertTrue(worker.processOneStep());
+    }
+
+    @Test
+    void idleWorkerBlocksUntilAJobIsSubmitted() throws Exception {
+        worker = new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter);
+        Thread workerThread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (InterruptedException e) {
+                // 测试结束
+            }
+        }, "test-worker");
+        workerThread.start();
+        try {
+            // The idle worker waits without a timeout, i.e. it does not poll
+            awaitState(workerThread, Thread.State.WAITING);
+
+            PrintJob job = submitTextJob(20);
+            long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+            while (!job.isPreviewComplete() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(job.isPreviewComplete(), "The worker should have rendered the preview.");
+            awaitState(workerThread, Thread.State.WAITING);
+
+            spoolerService.confirmPrint(job.getJobId());
+            while (job.getStatus() != PrintJobStatus.COMPLETED && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(PrintJobStatus.COMPLETED, job.getStatus());
+        } finally {
+            workerThread.interrupt();
+            workerThread.join(10_000);
+        }
+        assertFalse(workerThread.isAlive());
+    }
+
+    @Test
+    void runUntilIdleReturnsOnceTheQueueIsDrained() throws Exception {
+        PrintJob first = submitTextJob(20, "first.txt");
+        PrintJob second = submitTextJob(20, "second.txt");
+        worker = new SpoolerWorker(spoolerService, new SimpleTextRenderer(), virtualPrinter);
+
+        worker.runUntilIdle(Duration.ZERO);
+
+        assertEquals(PrintJobStatus.PREVIEWING, first.getStatus());
+        assertEquals(PrintJobStatus.PREVIEWING, second.getStatus());
+        assertTrue(first.isPreviewComplete() && second.isPreviewComplete());
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (thread.getState() != state && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, thread.getState());
+    }
+
+    private PrintJob submitTextJob(int lines) throws IOException {
+        return submitTextJob(lines, "document.txt");
+    }
+
+    private PrintJob submitTextJob(int lines, String fileName) throws IOException {
+        Path source = tempDir.resolve(fileName);
+        Files.write(source, IntStream.range(0, lines)
+                .mapToObj(i -> "Line " + i + " of a document that is rendered on several threads.")
+                .collect(Collectors.toList()));
+        PrintSettings settings = new PrintSettings(PaperSize.A5, 72, true, false, 1.0, 1);
+        PrintJob job = new PrintJob(fileName, "test-user", settings, List.of(source.toAbsolutePath().toString()));
+        spoolerService.submit(job);
+        return job;
+    }
+}
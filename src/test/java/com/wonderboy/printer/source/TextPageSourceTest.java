@@ -0,0 +1,82 @@
+package com.wonderboy.printer.source;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextPageSourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void linesMatchReadAllLinesForEveryLineTerminator() throws IOException {
+        List<String> contents = List.of(
+                "",
+                "single line without terminator",
+                "unix\nlines\n",
+                "windows\r\nlines\r\n",
+                "old mac\rlines\r",
+                "mixed\nterminators\r\nand\rblank\n\n\r\n\rlines",
+                "ends with two\n\n",
+                "ünïcödé — 打印机 — emoji 🖨\nsecond line\n");
+
+        int fileNumber = 0;
+        for (String content : contents) {
+            Path file = tempDir.resolve("text-" + fileNumber++ + ".txt");
+            Files.writeString(file, content, StandardCharsets.UTF_8);
+
+            try (TextPageSource source = new TextPageSource(file)) {
+                List<String> expected = Files.readAllLines(file, StandardCharsets.UTF_8);
+                assertEquals(expected, source.getLines(), "Content: " + content.replace("\r", "\\r").replace("\n", "\\n"));
+                assertEquals(expected.size(), source.getLineCount());
+            }
+        }
+    }
+
+    @Test
+    void linesAreIndexedAcrossScanBufferBoundaries() throws IOException {
+        // Arrange: a few MB of lines of varying length, so line breaks straddle the 1 MB scan buffer
+        Path file = tempDir.resolve("large.txt");
+        StringBuilder content = new StringBuilder();
+        int lines = 60_000;
+        for (int i = 0; i < lines; i++) {
+            content.append("line ").append(i).append(' ').append("x".repeat(i % 97)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+
+        // Act & Assert: random access decodes exactly the requested line
+        try (TextPageSource source = new TextPageSource(file)) {
+            assertEquals(lines, source.getLineCount());
+            for (int i : new int[]{0, 1, 17_476, 17_477, 33_333, lines - 1}) {
+                assertEquals("line " + i + " " + "x".repeat(i % 97), source.getLine(i));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> source.getLine(lines));
+        }
+    }
+
+    @Test
+    void rangesOfLinesAreDecodedFromOneRead() throws IOException {
+        Path file = tempDir.resolve("mixed.txt");
+        Files.writeString(file, "first\r\n\nthird \u00e9\rfourth\nlast", StandardCharsets.UTF_8);
+        List<String> expected = List.of("first", "", "third \u00e9", "fourth", "last");
+
+        try (TextPageSource source = new TextPageSource(file)) {
+            for (int from = 0; from <= expected.size(); from++) {
+                for (int to = from; to <= expected.size(); to++) {
+                    assertEquals(expected.subList(from, to), source.getLines(from, to), "Lines " + from + " to " + to);
+                    assertEquals(expected.subList(from, to), source.getLines().subList(from, to));
+                }
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> source.getLines(2, 6));
+            assertThrows(IndexOutOfBoundsException.class, () -> source.getLines(3, 2));
+        }
+    }
+}